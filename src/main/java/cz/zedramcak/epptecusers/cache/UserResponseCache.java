@@ -0,0 +1,53 @@
+package cz.zedramcak.epptecusers.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Value;
+
+import java.util.function.Supplier;
+
+/**
+ * Serialized responses keyed by request, each tagged with the data version it was built from.
+ * <p>
+ * Entries are never invalidated explicitly. A write changes the version, so the next request for a key
+ * rebuilds and replaces its entry, and entries nobody asks for any more age out or are evicted by size.
+ * Callers must read the version before building the response: a write racing with the build then only
+ * makes the entry newer than its version, never older.
+ */
+public class UserResponseCache {
+    private final Cache<String, CachedResponse> responses;
+
+    public UserResponseCache(UserResponseCacheProperties properties) {
+        this.responses = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaximumSize().toBytes())
+                .weigher((String key, CachedResponse response) -> key.length() + response.getBody().length)
+                .expireAfterWrite(properties.getExpireAfterWrite())
+                .recordStats()
+                .build();
+    }
+
+    public byte[] get(String key, String version, Supplier<byte[]> loader) {
+        CachedResponse cached = responses.getIfPresent(key);
+        if (cached != null && cached.getVersion().equals(version)) {
+            return cached.getBody();
+        }
+
+        byte[] body = loader.get();
+        responses.put(key, new CachedResponse(version, body));
+        return body;
+    }
+
+    public void invalidateAll() {
+        responses.invalidateAll();
+    }
+
+    public Cache<String, ?> getNativeCache() {
+        return responses;
+    }
+
+    @Value
+    private static class CachedResponse {
+        String version;
+        byte[] body;
+    }
+}
@@ -0,0 +1,19 @@
+package cz.zedramcak.epptecusers.cache;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "epptec.users.response-cache")
+public class UserResponseCacheProperties {
+
+    /**
+     * Total size of the cached response bodies. A single response larger than this is never cached.
+     */
+    private DataSize maximumSize = DataSize.ofMegabytes(64);
+
+    private Duration expireAfterWrite = Duration.ofMinutes(5);
+}
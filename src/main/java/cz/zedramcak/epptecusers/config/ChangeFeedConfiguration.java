@@ -0,0 +1,20 @@
+package cz.zedramcak.epptecusers.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class ChangeFeedConfiguration {
+
+    /**
+     * Delivers change feed responses. Each delivery gets its own virtual thread, so a consumer that reads
+     * slowly only holds up its own stream.
+     */
+    @Bean(destroyMethod = "close")
+    public ExecutorService changeFeedExecutor() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+}
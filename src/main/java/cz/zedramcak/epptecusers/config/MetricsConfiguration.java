@@ -0,0 +1,17 @@
+package cz.zedramcak.epptecusers.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.zedramcak.epptecusers.metrics.TimedJacksonHttpMessageConverter;
+import cz.zedramcak.epptecusers.metrics.UserMetrics;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+@Configuration
+public class MetricsConfiguration {
+
+    @Bean
+    public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper, UserMetrics userMetrics) {
+        return new TimedJacksonHttpMessageConverter(objectMapper, userMetrics);
+    }
+}
@@ -0,0 +1,29 @@
+package cz.zedramcak.epptecusers.config;
+
+import cz.zedramcak.epptecusers.repository.UserRepository;
+import cz.zedramcak.epptecusers.repository.persistence.UserPersistence;
+import cz.zedramcak.epptecusers.repository.persistence.UserPersistenceProperties;
+import cz.zedramcak.epptecusers.repository.persistence.UserWriteAheadLog;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+
+@Configuration
+@EnableConfigurationProperties(UserPersistenceProperties.class)
+@ConditionalOnProperty(prefix = "epptec.users.persistence", name = "enabled", havingValue = "true")
+public class PersistenceConfiguration {
+
+    @Bean
+    public UserWriteAheadLog userWriteAheadLog(UserPersistenceProperties properties) throws IOException {
+        return new UserWriteAheadLog(properties.getDirectory(), properties.isFsync());
+    }
+
+    @Bean
+    public UserPersistence userPersistence(UserRepository userRepository, UserWriteAheadLog userWriteAheadLog,
+                                           UserPersistenceProperties properties) {
+        return new UserPersistence(userRepository, userWriteAheadLog, properties);
+    }
+}
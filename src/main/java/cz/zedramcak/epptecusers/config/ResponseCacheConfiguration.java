@@ -0,0 +1,23 @@
+package cz.zedramcak.epptecusers.config;
+
+import cz.zedramcak.epptecusers.cache.UserResponseCache;
+import cz.zedramcak.epptecusers.cache.UserResponseCacheProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties(UserResponseCacheProperties.class)
+public class ResponseCacheConfiguration {
+
+    @Bean
+    public UserResponseCache userResponseCache(UserResponseCacheProperties properties, ObjectProvider<MeterRegistry> meterRegistry) {
+        UserResponseCache userResponseCache = new UserResponseCache(properties);
+        meterRegistry.ifAvailable(registry ->
+                CaffeineCacheMetrics.monitor(registry, userResponseCache.getNativeCache(), "users.responses"));
+        return userResponseCache;
+    }
+}
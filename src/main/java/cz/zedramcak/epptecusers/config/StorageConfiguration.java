@@ -0,0 +1,41 @@
+package cz.zedramcak.epptecusers.config;
+
+import cz.zedramcak.epptecusers.repository.store.ColumnarUserStore;
+import cz.zedramcak.epptecusers.repository.store.HeapUserStore;
+import cz.zedramcak.epptecusers.repository.store.UserStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Scope;
+
+/**
+ * The repository takes a new store for each of its shards, so the stores are prototypes.
+ * <p>
+ * With {@code epptec.users.reuse-ids}, the stores tag IDs with a generation of four bits, so a shard hands the
+ * slot of a removed user out again and an old ID only points to a new user after its slot was reused 16 times.
+ * It leaves each shard 2^(31 - shard bits - 4) slots, where without reuse it has 2^(31 - shard bits) IDs.
+ */
+@Configuration
+public class StorageConfiguration {
+    private static final int REUSED_ID_GENERATION_BITS = 4;
+
+    @Bean
+    @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+    @ConditionalOnProperty(name = "epptec.users.storage", havingValue = "heap", matchIfMissing = true)
+    public UserStore heapUserStore(@Value("${epptec.users.reuse-ids:false}") boolean reuseIds) {
+        return new HeapUserStore(generationBits(reuseIds));
+    }
+
+    @Bean
+    @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+    @ConditionalOnProperty(name = "epptec.users.storage", havingValue = "columnar")
+    public UserStore columnarUserStore(@Value("${epptec.users.reuse-ids:false}") boolean reuseIds) {
+        return new ColumnarUserStore(generationBits(reuseIds));
+    }
+
+    private static int generationBits(boolean reuseIds) {
+        return reuseIds ? REUSED_ID_GENERATION_BITS : 0;
+    }
+}
@@ -0,0 +1,26 @@
+package cz.zedramcak.epptecusers.config;
+
+import cz.zedramcak.epptecusers.repository.UserRepository;
+import cz.zedramcak.epptecusers.repository.persistence.UserImageLoader;
+import cz.zedramcak.epptecusers.repository.persistence.UserPersistence;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+
+@Configuration
+@ConditionalOnProperty(name = "epptec.users.image")
+public class UserImageConfiguration {
+
+    /**
+     * Asking for the persistence here makes it recover before the image is considered.
+     */
+    @Bean
+    public UserImageLoader userImageLoader(UserRepository userRepository, ObjectProvider<UserPersistence> userPersistence,
+                                           @Value("${epptec.users.image}") Path image) {
+        return new UserImageLoader(userRepository, userPersistence.getIfAvailable(), image);
+    }
+}
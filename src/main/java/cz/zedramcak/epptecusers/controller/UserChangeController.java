@@ -0,0 +1,174 @@
+package cz.zedramcak.epptecusers.controller;
+
+import cz.zedramcak.epptecusers.entity.dto.UserChangeDTO;
+import cz.zedramcak.epptecusers.entity.dto.UserChangesDTO;
+import cz.zedramcak.epptecusers.service.UserService;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Incremental changes of the users, for clients that would otherwise poll the whole list.
+ */
+@RestController
+@RequestMapping("api/v1/users/changes")
+public class UserChangeController {
+    public static final String CHANGE_EVENT = "change";
+    public static final String RESET_EVENT = "reset";
+
+    private static final int STREAM_BATCH_SIZE = 100;
+
+    private final UserService userService;
+    private final Executor changeFeedExecutor;
+    private final Duration pollTimeout;
+    private final Duration streamTimeout;
+
+    public UserChangeController(UserService userService,
+                                @Qualifier("changeFeedExecutor") Executor changeFeedExecutor,
+                                @Value("${epptec.users.change-feed.poll-timeout:30s}") Duration pollTimeout,
+                                @Value("${epptec.users.change-feed.stream-timeout:30m}") Duration streamTimeout) {
+        this.userService = userService;
+        this.changeFeedExecutor = changeFeedExecutor;
+        this.pollTimeout = pollTimeout;
+        this.streamTimeout = streamTimeout;
+    }
+
+    /**
+     * Long poll: answers right away when there are changes after {@code since}, otherwise as soon as one is
+     * made or with no changes after the poll timeout.
+     */
+    @GetMapping(params = "since")
+    public DeferredResult<UserChangesDTO> pollChanges(
+            @RequestParam long since,
+            @RequestParam(defaultValue = "100") int limit
+    ){
+        UserChangesDTO changes = userService.getChanges(since, limit);
+        DeferredResult<UserChangesDTO> result = new DeferredResult<>(pollTimeout.toMillis(), changes);
+        if (changes.isReset() || !changes.getChanges().isEmpty()) {
+            result.setResult(changes);
+        } else {
+            Subscription subscription = new Subscription();
+            result.onTimeout(subscription::close);
+            result.onCompletion(subscription::close);
+            awaitChanges(result, subscription, since, limit);
+        }
+        return result;
+    }
+
+    private void awaitChanges(DeferredResult<UserChangesDTO> result, Subscription subscription, long since, int limit) {
+        CompletableFuture<Void> changed = userService.whenChangedAfter(since);
+        if (!subscription.await(changed)) {
+            return;
+        }
+
+        changed.thenRunAsync(() -> {
+            if (result.isSetOrExpired()) {
+                return;
+            }
+            UserChangesDTO changes = userService.getChanges(since, limit);
+            if (changes.isReset() || !changes.getChanges().isEmpty()) {
+                result.setResult(changes);
+            } else {
+                awaitChanges(result, subscription, since, limit);
+            }
+        }, changeFeedExecutor);
+    }
+
+    /**
+     * Server-sent events: a {@value #CHANGE_EVENT} event per change, with the sequence as the event ID, so a
+     * reconnecting client continues where it stopped. A {@value #RESET_EVENT} event carrying the latest sequence
+     * means changes were missed and the users have to be read again.
+     */
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(
+            @RequestParam(required = false) Long since,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId
+    ){
+        long from = lastEventId != null ? lastEventId : since != null ? since : userService.getLatestChangeSequence();
+
+        SseEmitter emitter = new SseEmitter(streamTimeout.toMillis());
+        Subscription subscription = new Subscription();
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(exception -> subscription.close());
+
+        changeFeedExecutor.execute(() -> sendChanges(emitter, subscription, from));
+        return emitter;
+    }
+
+    private void sendChanges(SseEmitter emitter, Subscription subscription, long since) {
+        if (!subscription.isOpen()) {
+            return;
+        }
+
+        try {
+            UserChangesDTO changes = userService.getChanges(since, STREAM_BATCH_SIZE);
+            if (changes.isReset()) {
+                emitter.send(SseEmitter.event().name(RESET_EVENT).data(changes.getLastSequence()));
+            }
+            for (UserChangeDTO change : changes.getChanges()) {
+                emitter.send(SseEmitter.event()
+                        .id(Long.toString(change.getSequence()))
+                        .name(CHANGE_EVENT)
+                        .data(change, MediaType.APPLICATION_JSON));
+            }
+
+            long next = changes.getLastSequence();
+            CompletableFuture<Void> changed = userService.whenChangedAfter(next);
+            if (subscription.await(changed)) {
+                changed.thenRunAsync(() -> sendChanges(emitter, subscription, next), changeFeedExecutor);
+            }
+        } catch (IOException | IllegalStateException exception) {
+            subscription.close();
+            emitter.completeWithError(exception);
+        }
+    }
+
+    /**
+     * A client waiting for changes. Once it is gone, the wait for the next change is cancelled, so the change
+     * feed does not keep it until the next change.
+     */
+    private static final class Subscription {
+        private final AtomicReference<CompletableFuture<Void>> waiting = new AtomicReference<>();
+        private volatile boolean open = true;
+
+        boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * Waits for the change unless the client is gone already, in which case the wait is cancelled.
+         *
+         * @return whether the client is still there
+         */
+        boolean await(CompletableFuture<Void> changed) {
+            waiting.set(changed);
+            if (!open) {
+                changed.cancel(false);
+                return false;
+            }
+            return true;
+        }
+
+        void close() {
+            open = false;
+            CompletableFuture<Void> changed = waiting.get();
+            if (changed != null) {
+                changed.cancel(false);
+            }
+        }
+    }
+}
@@ -1,13 +1,21 @@
 package cz.zedramcak.epptecusers.controller;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import cz.zedramcak.epptecusers.cache.UserResponseCache;
 import cz.zedramcak.epptecusers.entity.User;
-import cz.zedramcak.epptecusers.entity.dto.UserDTO;
-import cz.zedramcak.epptecusers.exceptions.IncorrectBirthNumberFormatException;
-import cz.zedramcak.epptecusers.exceptions.MissingDataException;
-import cz.zedramcak.epptecusers.exceptions.UserDoesNotExistsException;
-import cz.zedramcak.epptecusers.exceptions.UserExistsException;
+import cz.zedramcak.epptecusers.entity.dto.BulkImportResultDTO;
+import cz.zedramcak.epptecusers.entity.dto.UserPageDTO;
+import cz.zedramcak.epptecusers.entity.dto.UserSearchCriteria;
+import cz.zedramcak.epptecusers.metrics.UserMetrics;
+import cz.zedramcak.epptecusers.service.UserOperationResult;
 import cz.zedramcak.epptecusers.service.UserService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -17,8 +25,18 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("api/v1/users")
@@ -26,49 +44,189 @@ import java.util.List;
 public class UserController {
 
     private final UserService userService;
+    private final ObjectMapper objectMapper;
+    private final UserMetrics userMetrics;
+    private final UserResponseCache userResponseCache;
 
-    public static final String USER_ADDED = "User added";
-    public static final String USER_REMOVED = "User removed";
+    public static final String USER_ADDED = UserOperationResult.ADDED.getMessage();
+    public static final String USER_REMOVED = UserOperationResult.REMOVED.getMessage();
+    public static final String MALFORMED_BODY = "The request body is malformed.";
+
+    /**
+     * Responses are immutable, so each outcome is answered with the same one.
+     */
+    private static final Map<UserOperationResult, ResponseEntity<String>> RESPONSES = createResponses();
 
     @GetMapping("/list")
-    public ResponseEntity<List<UserDTO>> getAllUsers(){
-        return ResponseEntity.ok(userService.getAllUsers());
+    public ResponseEntity<byte[]> getAllUsers(WebRequest request){
+        return cachedJson(request, userService::getAllUsersJson, "list");
+    }
+
+    /**
+     * Same as {@link #getAllUsers(WebRequest)}, but handled on the MVC task executor, which runs on virtual threads
+     * when {@code spring.threads.virtual.enabled} is set. The servlet thread is released immediately.
+     */
+    @GetMapping("/list/async")
+    public Callable<ResponseEntity<byte[]>> getAllUsersAsync(WebRequest request){
+        return () -> cachedJson(request, userService::getAllUsersJson, "list");
+    }
+
+    @GetMapping(value = "/list", params = "limit")
+    public ResponseEntity<UserPageDTO> getUsersPage(
+            @RequestParam int limit,
+            @RequestParam(required = false) String cursor
+    ){
+        return ResponseEntity.ok(userService.getUsersPage(cursor, limit));
+    }
+
+    @GetMapping(value = "/list", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllUsers(){
+        StreamingResponseBody body = userService::writeAllUsersJsonLines;
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
     }
 
     @GetMapping()
-    public ResponseEntity<List<UserDTO>> findUsers(
+    public ResponseEntity<byte[]> findUsers(
             @RequestParam(required = false) String firstName,
             @RequestParam(required = false) String lastName,
-            @RequestParam(required = false) String birthNumber
+            @RequestParam(required = false) String birthNumber,
+            WebRequest request
     ){
-        return ResponseEntity.ok(userService.findUsers(firstName, lastName, birthNumber));
+        return cachedJson(request, () -> userService.findUsersJson(firstName, lastName, birthNumber),
+                "find", firstName, lastName, birthNumber);
+    }
+
+    /**
+     * Answers from the response cache, or with 304 when the client's ETag matches the current data version.
+     * The version is read before the response is built, so a concurrent write can only make the body newer.
+     */
+    private ResponseEntity<byte[]> cachedJson(WebRequest request, Supplier<byte[]> json, String... keyParts){
+        String version = userService.getDataVersion();
+        if (request.checkNotModified(version)) {
+            return null;
+        }
+
+        byte[] body = userResponseCache.get(cacheKey(keyParts), version, json);
+        return ResponseEntity.ok()
+                .eTag(version)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    private static String cacheKey(String... parts) {
+        StringBuilder key = new StringBuilder();
+        for (String part : parts) {
+            if (part == null) {
+                key.append('-');
+            } else {
+                key.append(part.length()).append(':').append(part);
+            }
+        }
+        return key.toString();
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<byte[]> searchUsers(UserSearchCriteria criteria){
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(userService.searchUsersJson(criteria));
+    }
+
+    @GetMapping("/search/async")
+    public Callable<ResponseEntity<byte[]>> searchUsersAsync(UserSearchCriteria criteria){
+        return () -> searchUsers(criteria);
+    }
+
+    @GetMapping(value = "/search", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamSearchUsers(UserSearchCriteria criteria){
+        StreamingResponseBody body = userService.searchUsersJsonLines(criteria)::writeTo;
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
     }
 
     @PostMapping()
     public ResponseEntity<String> addUser(@RequestBody User user){
-        try {
-            userService.addUser(user);
-            return ResponseEntity.ok(USER_ADDED);
-        }catch (UserExistsException | MissingDataException |IncorrectBirthNumberFormatException exception){
-            return handleException(exception);
+        return respond(userService.addUser(user));
+    }
+
+    /**
+     * Reads the array elements one at a time, so the body is never held as a whole.
+     */
+    @PostMapping(value = "/bulk", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<BulkImportResultDTO> addUsers(InputStream body) throws IOException {
+        try (JsonParser parser = objectMapper.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw MismatchedInputException.from(parser, List.class, "Expected a JSON array of users");
+            }
+            return importUsers(parser.nextToken() == JsonToken.END_ARRAY
+                    ? MappingIterator.emptyIterator()
+                    : objectMapper.readerFor(User.class).readValues(parser));
         }
     }
 
+    @PostMapping(value = "/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<BulkImportResultDTO> addUsersFromStream(InputStream body) throws IOException {
+        return importUsers(objectMapper.readerFor(User.class).readValues(body));
+    }
+
+    private ResponseEntity<BulkImportResultDTO> importUsers(MappingIterator<User> users) throws IOException {
+        try (users) {
+            return ResponseEntity.ok(userService.addUsers(readUsers(users)));
+        }
+    }
+
+    /**
+     * Reads the users one at a time and reports a user that cannot be read as an {@link UncheckedIOException},
+     * where a {@link MappingIterator} would throw a plain runtime exception.
+     */
+    private static Iterator<User> readUsers(MappingIterator<User> users) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    return users.hasNextValue();
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+            }
+
+            @Override
+            public User next() {
+                try {
+                    return users.nextValue();
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+            }
+        };
+    }
+
     @DeleteMapping("/{id}")
     public ResponseEntity<String> removeUser(@PathVariable String id){
-        try {
-            userService.removeUser(id);
-            return ResponseEntity.ok(USER_REMOVED);
-        }catch (UserDoesNotExistsException | NumberFormatException exception){
-            return handleException(exception);
+        return respond(userService.removeUser(id));
+    }
+
+    private ResponseEntity<String> respond(UserOperationResult result) {
+        if (!result.isSuccessful()) {
+            userMetrics.countError(result.getErrorType());
         }
+        return RESPONSES.get(result);
     }
 
-    private ResponseEntity<String> handleException(RuntimeException exception) {
-        if (exception instanceof UserDoesNotExistsException) {
-            return ResponseEntity.status(404).body(exception.getMessage());
+    private static Map<UserOperationResult, ResponseEntity<String>> createResponses() {
+        Map<UserOperationResult, ResponseEntity<String>> responses = new EnumMap<>(UserOperationResult.class);
+        for (UserOperationResult result : UserOperationResult.values()) {
+            HttpStatus status = result.isSuccessful() ? HttpStatus.OK
+                    : result == UserOperationResult.NOT_FOUND ? HttpStatus.NOT_FOUND
+                    : HttpStatus.BAD_REQUEST;
+            responses.put(result, ResponseEntity.status(status).body(result.getMessage()));
         }
-        return ResponseEntity.badRequest().body(exception.getMessage());
+        return responses;
     }
 
 }
@@ -0,0 +1,62 @@
+package cz.zedramcak.epptecusers.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import cz.zedramcak.epptecusers.exceptions.UserIdsExhaustedException;
+import cz.zedramcak.epptecusers.exceptions.UserWriteFailedException;
+import cz.zedramcak.epptecusers.metrics.UserMetrics;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Turns rejected requests of all user endpoints into plain text responses. Messages are sent as they were
+ * thrown and malformed bodies get a constant one, so no response text is built per request.
+ */
+@RestControllerAdvice
+public class UserExceptionHandler {
+    private static final ResponseEntity<String> MALFORMED_BODY_RESPONSE =
+            ResponseEntity.badRequest().body(UserController.MALFORMED_BODY);
+    private static final ResponseEntity<String> WRITE_FAILED_RESPONSE =
+            ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("The change could not be saved.");
+
+    private final UserMetrics userMetrics;
+
+    public UserExceptionHandler(UserMetrics userMetrics) {
+        this.userMetrics = userMetrics;
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleIllegalArgument(IllegalArgumentException exception){
+        userMetrics.countError(exception);
+        return ResponseEntity.badRequest().body(exception.getMessage());
+    }
+
+    /**
+     * A full repository is not the client's mistake, and the same request may succeed once users are removed.
+     */
+    @ExceptionHandler(UserIdsExhaustedException.class)
+    public ResponseEntity<String> handleUserIdsExhausted(UserIdsExhaustedException exception){
+        userMetrics.countError(exception);
+        return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(exception.getMessage());
+    }
+
+    /**
+     * The change was rolled back, and the cause is not sent, as it is about the server's storage.
+     */
+    @ExceptionHandler(UserWriteFailedException.class)
+    public ResponseEntity<String> handleUserWriteFailed(UserWriteFailedException exception){
+        userMetrics.countError(exception);
+        return WRITE_FAILED_RESPONSE;
+    }
+
+    /**
+     * Malformed JSON either fails while Spring reads the body or, for streamed bodies, in the controller.
+     */
+    @ExceptionHandler({JsonProcessingException.class, HttpMessageNotReadableException.class})
+    public ResponseEntity<String> handleMalformedBody(Exception exception){
+        userMetrics.countError(exception);
+        return MALFORMED_BODY_RESPONSE;
+    }
+}
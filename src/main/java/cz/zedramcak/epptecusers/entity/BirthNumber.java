@@ -0,0 +1,22 @@
+package cz.zedramcak.epptecusers.entity;
+
+import lombok.Value;
+
+import java.time.LocalDate;
+
+/**
+ * Result of parsing a birth number. Holds everything the service needs from the digits
+ * (validity, canonical {@code YYMMDD/XXXX} form and date of birth), so the number is parsed once.
+ */
+@Value
+public class BirthNumber {
+    public static final BirthNumber INVALID = new BirthNumber(false, null, null);
+
+    boolean valid;
+    String canonical;
+    LocalDate dateOfBirth;
+
+    public static BirthNumber of(String canonical, LocalDate dateOfBirth) {
+        return new BirthNumber(true, canonical, dateOfBirth);
+    }
+}
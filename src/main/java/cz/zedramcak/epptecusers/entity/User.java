@@ -1,10 +1,19 @@
 package cz.zedramcak.epptecusers.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 
 @Data
 public class User {
+    public static final int UNKNOWN_DATE_OF_BIRTH = 0;
+
     private String birthNumber;
     private String firstName;
     private String lastName;
+
+    /**
+     * Date of birth as a {@code yyyyMMdd} number, derived from the birth number when the user is added.
+     */
+    @JsonIgnore
+    private int dateOfBirth = UNKNOWN_DATE_OF_BIRTH;
 }
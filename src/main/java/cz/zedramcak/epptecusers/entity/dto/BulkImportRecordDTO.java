@@ -0,0 +1,12 @@
+package cz.zedramcak.epptecusers.entity.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class BulkImportRecordDTO {
+    private int index;
+    private BulkImportStatus status;
+    private Integer id;
+}
@@ -0,0 +1,15 @@
+package cz.zedramcak.epptecusers.entity.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class BulkImportResultDTO {
+    private int total;
+    private int added;
+    private int rejected;
+    private List<BulkImportRecordDTO> records;
+}
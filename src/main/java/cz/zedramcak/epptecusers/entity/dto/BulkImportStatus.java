@@ -0,0 +1,17 @@
+package cz.zedramcak.epptecusers.entity.dto;
+
+public enum BulkImportStatus {
+    ADDED,
+    MISSING_DATA,
+    INVALID_BIRTH_NUMBER,
+    DUPLICATE_IN_BATCH,
+    ALREADY_EXISTS,
+    /**
+     * The import reached the size limit before this record, so neither it nor any record after it was read.
+     */
+    LIMIT_EXCEEDED,
+    /**
+     * The record could not be read, so neither it nor any record after it was imported.
+     */
+    MALFORMED
+}
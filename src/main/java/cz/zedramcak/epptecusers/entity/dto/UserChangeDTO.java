@@ -0,0 +1,12 @@
+package cz.zedramcak.epptecusers.entity.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class UserChangeDTO {
+    private long sequence;
+    private UserChangeType type;
+    private UserDTO user;
+}
@@ -0,0 +1,6 @@
+package cz.zedramcak.epptecusers.entity.dto;
+
+public enum UserChangeType {
+    ADDED,
+    REMOVED
+}
@@ -0,0 +1,21 @@
+package cz.zedramcak.epptecusers.entity.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class UserChangesDTO {
+    private List<UserChangeDTO> changes;
+    /**
+     * Set when the requested changes are no longer kept, or are from before a restart. The client has to
+     * read the users again and continue from {@link #lastSequence}.
+     */
+    private boolean reset;
+    /**
+     * The sequence to pass as {@code since} in the next request.
+     */
+    private long lastSequence;
+}
@@ -0,0 +1,17 @@
+package cz.zedramcak.epptecusers.entity.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class UserPageDTO {
+    private List<UserDTO> users;
+    private String nextCursor;
+    /**
+     * Version of the repository snapshot the page was read from, the same for all pages of one cursor chain.
+     */
+    private long version;
+}
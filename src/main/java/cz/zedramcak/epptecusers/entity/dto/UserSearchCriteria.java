@@ -0,0 +1,31 @@
+package cz.zedramcak.epptecusers.entity.dto;
+
+import lombok.Data;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDate;
+
+/**
+ * Criteria of the name and birth date search. Every given criterion must match; the date bounds are inclusive.
+ */
+@Data
+public class UserSearchCriteria {
+    private String firstName;
+    private String lastName;
+    private Integer minAge;
+    private Integer maxAge;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate bornFrom;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate bornTo;
+
+    public boolean hasNameCriteria() {
+        return firstName != null || lastName != null;
+    }
+
+    public boolean hasDateOfBirthCriteria() {
+        return minAge != null || maxAge != null || bornFrom != null || bornTo != null;
+    }
+}
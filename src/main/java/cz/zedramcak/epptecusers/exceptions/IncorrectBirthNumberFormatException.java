@@ -1,7 +0,0 @@
-package cz.zedramcak.epptecusers.exceptions;
-
-public class IncorrectBirthNumberFormatException extends RuntimeException {
-    public IncorrectBirthNumberFormatException(String message) {
-        super(message);
-    }
-}
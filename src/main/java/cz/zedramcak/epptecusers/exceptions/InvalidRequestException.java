@@ -0,0 +1,16 @@
+package cz.zedramcak.epptecusers.exceptions;
+
+/**
+ * Rejects request parameters. Thrown for expected client mistakes, so it skips capturing the stack trace,
+ * and its message is sent back as is.
+ */
+public class InvalidRequestException extends IllegalArgumentException {
+    public InvalidRequestException(String message) {
+        super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
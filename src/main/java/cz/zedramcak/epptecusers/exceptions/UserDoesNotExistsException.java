@@ -1,7 +0,0 @@
-package cz.zedramcak.epptecusers.exceptions;
-
-public class UserDoesNotExistsException extends RuntimeException {
-    public UserDoesNotExistsException(String message) {
-        super(message);
-    }
-}
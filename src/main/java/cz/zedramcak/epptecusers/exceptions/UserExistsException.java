@@ -1,7 +0,0 @@
-package cz.zedramcak.epptecusers.exceptions;
-
-public class UserExistsException extends RuntimeException {
-    public UserExistsException(String message) {
-        super(message);
-    }
-}
@@ -0,0 +1,11 @@
+package cz.zedramcak.epptecusers.exceptions;
+
+/**
+ * Rejects a new user because the shard owning its birth number has handed out all of its IDs. The request was
+ * fine, the repository is full, so it is answered as a storage problem rather than a client mistake.
+ */
+public class UserIdsExhaustedException extends IllegalStateException {
+    public UserIdsExhaustedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,15 @@
+package cz.zedramcak.epptecusers.exceptions;
+
+/**
+ * Reports a change that could not be persisted, because the user log is closed or failed to write it.
+ * The change has been rolled back, and as the cause lies with the server, it is answered as unavailable.
+ */
+public class UserWriteFailedException extends IllegalStateException {
+    public UserWriteFailedException(String message) {
+        super(message);
+    }
+
+    public UserWriteFailedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
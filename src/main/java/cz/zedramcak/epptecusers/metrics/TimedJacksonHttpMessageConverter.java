@@ -0,0 +1,33 @@
+package cz.zedramcak.epptecusers.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * The default Jackson converter, with response serialization recorded as the
+ * {@link UserMetrics.Stage#SERIALIZATION} stage.
+ */
+public class TimedJacksonHttpMessageConverter extends MappingJackson2HttpMessageConverter {
+    private final UserMetrics userMetrics;
+
+    public TimedJacksonHttpMessageConverter(ObjectMapper objectMapper, UserMetrics userMetrics) {
+        super(objectMapper);
+        this.userMetrics = userMetrics;
+    }
+
+    @Override
+    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        long start = System.nanoTime();
+        try {
+            super.writeInternal(object, type, outputMessage);
+        } finally {
+            userMetrics.recordNanos(UserMetrics.Stage.SERIALIZATION, System.nanoTime() - start);
+        }
+    }
+}
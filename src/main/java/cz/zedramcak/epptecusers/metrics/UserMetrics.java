@@ -0,0 +1,97 @@
+package cz.zedramcak.epptecusers.metrics;
+
+import cz.zedramcak.epptecusers.exceptions.InvalidRequestException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Per-stage timers and error counters for the user endpoints. Stage timers publish percentile
+ * histograms, so p99 per stage can be computed and alerted on from the Prometheus endpoint.
+ */
+@Component
+public class UserMetrics {
+    public static final String STAGE_TIMER = "users.stage";
+    public static final String ERROR_COUNTER = "users.errors";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final Map<String, Counter> errorCounters = new ConcurrentHashMap<>();
+
+    public UserMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder(STAGE_TIMER)
+                    .description("Time spent in one stage of handling a user request")
+                    .tag("stage", stage.tagValue)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+    }
+
+    public <T> T record(Stage stage, Supplier<T> action) {
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            recordNanos(stage, System.nanoTime() - start);
+        }
+    }
+
+    public void record(Stage stage, Runnable action) {
+        long start = System.nanoTime();
+        try {
+            action.run();
+        } finally {
+            recordNanos(stage, System.nanoTime() - start);
+        }
+    }
+
+    public void recordNanos(Stage stage, long nanos) {
+        stageTimers.get(stage).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts a rejected request under the simple name of its exception. An {@link InvalidRequestException} is
+     * counted as the {@link IllegalArgumentException} that reported these requests before it.
+     */
+    public void countError(Exception exception) {
+        countError(exception instanceof InvalidRequestException
+                ? IllegalArgumentException.class.getSimpleName()
+                : exception.getClass().getSimpleName());
+    }
+
+    /**
+     * Counts a rejected request. Counters are registered once per error type and then reused, as rejected
+     * requests may come in bulk.
+     */
+    public void countError(String errorType) {
+        errorCounters.computeIfAbsent(errorType, type -> Counter.builder(ERROR_COUNTER)
+                .description("Requests rejected with an exception")
+                .tag("exception", type)
+                .register(meterRegistry))
+                .increment();
+    }
+
+    public enum Stage {
+        VALIDATION("validation"),
+        INSERT("insert"),
+        SEARCH("search"),
+        DTO_CONVERSION("dto_conversion"),
+        SERIALIZATION("serialization");
+
+        private final String tagValue;
+
+        Stage(String tagValue) {
+            this.tagValue = tagValue;
+        }
+    }
+}
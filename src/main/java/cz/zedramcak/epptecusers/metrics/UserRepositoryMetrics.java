@@ -0,0 +1,39 @@
+package cz.zedramcak.epptecusers.metrics;
+
+import cz.zedramcak.epptecusers.repository.UserRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.function.ToDoubleFunction;
+
+@Component
+public class UserRepositoryMetrics implements MeterBinder {
+    private final UserRepository userRepository;
+
+    public UserRepositoryMetrics(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.repository.size", userRepository, UserRepository::getUserCount)
+                .description("Number of stored users")
+                .register(registry);
+
+        indexGauge(registry, "birth_number", UserRepository::getBirthNumberIndexSize);
+        indexGauge(registry, "first_name", UserRepository::getFirstNameIndexSize);
+        indexGauge(registry, "last_name", UserRepository::getLastNameIndexSize);
+        indexGauge(registry, "folded_first_name", UserRepository::getFoldedFirstNameIndexSize);
+        indexGauge(registry, "folded_last_name", UserRepository::getFoldedLastNameIndexSize);
+        indexGauge(registry, "date_of_birth", UserRepository::getDateOfBirthIndexSize);
+    }
+
+    private void indexGauge(MeterRegistry registry, String index, ToDoubleFunction<UserRepository> size) {
+        Gauge.builder("users.repository.index.size", userRepository, size)
+                .description("Number of distinct keys in a repository index")
+                .tag("index", index)
+                .register(registry);
+    }
+}
@@ -0,0 +1,55 @@
+package cz.zedramcak.epptecusers.repository;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Index of names folded to lower case without diacritics, so "novak" and "Nov" find "Novák".
+ * Prefix lookups are range lookups over the sorted folded names.
+ */
+class FoldedNameIndex {
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final char MAX_CHAR = Character.MAX_VALUE;
+
+    private final SortedIndex<String> index = new SortedIndex<>();
+
+    void add(String name, Integer userId) {
+        index.add(fold(name), userId);
+    }
+
+    void remove(String name, Integer userId) {
+        index.remove(fold(name), userId);
+    }
+
+    Set<Integer> find(String name) {
+        return index.find(fold(name));
+    }
+
+    Set<Integer> findByPrefix(String prefix) {
+        String foldedPrefix = fold(prefix);
+        return index.findRange(foldedPrefix, true, foldedPrefix + MAX_CHAR, false);
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    static String fold(String name) {
+        if (isAscii(name)) {
+            return name.toLowerCase(Locale.ROOT);
+        }
+        String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isAscii(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,63 @@
+package cz.zedramcak.epptecusers.repository;
+
+import java.util.Arrays;
+
+/**
+ * Consistent-hash ring assigning birth numbers to shards.
+ * <p>
+ * Every shard owns {@value #POINTS_PER_SHARD} pseudo-random points on the ring, and a birth number belongs to
+ * the shard owning the first point at or after its hash. The points of a shard do not depend on the number of
+ * shards, so adding or removing a shard only moves the birth numbers that the shard gains or loses.
+ */
+final class ShardRing {
+    private static final int POINTS_PER_SHARD = 128;
+
+    private final int shardCount;
+    private final int[] points;
+    private final int[] owners;
+
+    ShardRing(int shardCount) {
+        this.shardCount = shardCount;
+
+        long[] ownedPoints = new long[shardCount * POINTS_PER_SHARD];
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int point = 0; point < POINTS_PER_SHARD; point++) {
+                ownedPoints[shard * POINTS_PER_SHARD + point] = (long) mix(shard << 16 | point) << 32 | shard;
+            }
+        }
+        Arrays.sort(ownedPoints);
+
+        this.points = new int[ownedPoints.length];
+        this.owners = new int[ownedPoints.length];
+        for (int i = 0; i < ownedPoints.length; i++) {
+            points[i] = (int) (ownedPoints[i] >> 32);
+            owners[i] = (int) ownedPoints[i];
+        }
+    }
+
+    int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Returns the index of the shard owning the normalized birth number.
+     */
+    int ownerOf(String birthNumber) {
+        int index = Arrays.binarySearch(points, mix(birthNumber.hashCode()));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * Spreads the bits of a hash code. Being a bijection, it keeps the points of different shards apart.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ hash >>> 16;
+    }
+}
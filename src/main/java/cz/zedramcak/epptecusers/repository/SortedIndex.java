@@ -0,0 +1,75 @@
+package cz.zedramcak.epptecusers.repository;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Index from a key to the IDs of the users having it, with lookups of key ranges.
+ * <p>
+ * IDs are kept per key in a hash map, whose per-key atomic updates keep them consistent.
+ * The keys are additionally kept in a sorted set, updated inside the same atomic section,
+ * so a range lookup only visits the keys within the range.
+ */
+class SortedIndex<K extends Comparable<K>> {
+    private final Map<K, Set<Integer>> userIdsByKey = new ConcurrentHashMap<>();
+    private final NavigableSet<K> keys = new ConcurrentSkipListSet<>();
+
+    void add(K key, Integer userId) {
+        userIdsByKey.compute(key, (indexKey, userIds) -> {
+            Set<Integer> ids = userIds;
+            if (ids == null) {
+                ids = ConcurrentHashMap.newKeySet();
+                keys.add(indexKey);
+            }
+            ids.add(userId);
+            return ids;
+        });
+    }
+
+    void remove(K key, Integer userId) {
+        userIdsByKey.computeIfPresent(key, (indexKey, userIds) -> {
+            userIds.remove(userId);
+            if (!userIds.isEmpty()) {
+                return userIds;
+            }
+            keys.remove(indexKey);
+            return null;
+        });
+    }
+
+    Set<Integer> find(K key) {
+        Set<Integer> userIds = userIdsByKey.get(key);
+        return userIds == null ? Set.of() : Collections.unmodifiableSet(userIds);
+    }
+
+    Set<Integer> findRange(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        if (from.compareTo(to) > 0) {
+            return Set.of();
+        }
+
+        Set<Integer> userIds = new HashSet<>();
+        for (K key : keys.subSet(from, fromInclusive, to, toInclusive)) {
+            userIds.addAll(userIdsByKey.getOrDefault(key, Set.of()));
+        }
+        return userIds;
+    }
+
+    /**
+     * Counts the distinct keys within the range, without looking at the IDs.
+     */
+    int countKeys(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        if (from.compareTo(to) > 0) {
+            return 0;
+        }
+        return keys.subSet(from, fromInclusive, to, toInclusive).size();
+    }
+
+    int size() {
+        return userIdsByKey.size();
+    }
+}
@@ -0,0 +1,139 @@
+package cz.zedramcak.epptecusers.repository;
+
+import cz.zedramcak.epptecusers.entity.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded in-memory feed of added and removed users, numbered by a sequence starting at 1.
+ * <p>
+ * Changes are kept in a ring buffer, so publishing one never waits for anybody: a consumer that falls
+ * more than the capacity behind loses its place and is told to start over. Changes published by
+ * concurrent writers may land out of order, so a consumer only reads up to the first change that is
+ * not published yet. Changes made while recovering persisted state are not published, and the sequence
+ * starts over with every start of the application.
+ */
+@Component
+public class UserChangeFeed implements UserChangeListener {
+    private final AtomicReferenceArray<UserChange> changes;
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Set<CompletableFuture<Void>> waiters = ConcurrentHashMap.newKeySet();
+
+    public UserChangeFeed(@Value("${epptec.users.change-feed.capacity:65536}") int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The change feed capacity must be positive: " + capacity);
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.changes = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    @Override
+    public void userAdded(int userId, User user) {
+        publish(UserChange.Type.ADDED, userId, user);
+    }
+
+    @Override
+    public void userRemoved(int userId, User user) {
+        publish(UserChange.Type.REMOVED, userId, user);
+    }
+
+    private void publish(UserChange.Type type, int userId, User user) {
+        long changeSequence = sequence.incrementAndGet();
+        UserChange change = new UserChange(changeSequence, type, userId, user);
+        changes.accumulateAndGet(slot(changeSequence), change,
+                (current, next) -> current != null && current.sequence() > next.sequence() ? current : next);
+        for (CompletableFuture<Void> waiter : waiters) {
+            waiter.complete(null);
+        }
+    }
+
+    /**
+     * Returns the sequence of the latest change, or 0 if there was none.
+     */
+    public long getLatestSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * Reads up to {@code limit} changes following the given sequence.
+     *
+     * @return the changes, or a reset if changes following the sequence were already overwritten
+     * or the sequence is from before a restart
+     */
+    public Changes read(long since, int limit) {
+        if (since < 0 || since > sequence.get()) {
+            return Changes.reset(sequence.get());
+        }
+
+        List<UserChange> found = new ArrayList<>(Math.min(limit, 64));
+        for (long next = since + 1; found.size() < limit; next++) {
+            UserChange change = changes.get(slot(next));
+            if (change == null || change.sequence() < next) {
+                break;
+            }
+            if (change.sequence() > next) {
+                return Changes.reset(sequence.get());
+            }
+            found.add(change);
+        }
+        return new Changes(found, false, found.isEmpty() ? since : found.getLast().sequence());
+    }
+
+    /**
+     * Returns a future completed once the change following the given sequence can be read, or right away if
+     * it can be read already. Dependent actions should run asynchronously, as the future is completed by a writer.
+     * The feed forgets the future once it is done, so a caller that stops waiting cancels it, which leaves
+     * nothing behind until the next change.
+     */
+    public CompletableFuture<Void> whenChangedAfter(long since) {
+        CompletableFuture<Void> waiter = new CompletableFuture<>();
+        waiters.add(waiter);
+        waiter.whenComplete((ignored, exception) -> waiters.remove(waiter));
+        if (isReadable(since)) {
+            waiter.complete(null);
+        }
+        return waiter;
+    }
+
+    int getWaiterCount() {
+        return waiters.size();
+    }
+
+    private boolean isReadable(long since) {
+        if (since < 0 || since > sequence.get()) {
+            return true;
+        }
+        UserChange change = changes.get(slot(since + 1));
+        return change != null && change.sequence() >= since + 1;
+    }
+
+    private int slot(long changeSequence) {
+        return (int) (changeSequence & mask);
+    }
+
+    public record UserChange(long sequence, Type type, int userId, User user) {
+        public enum Type {
+            ADDED,
+            REMOVED
+        }
+    }
+
+    /**
+     * @param lastSequence the sequence to read from next; after a reset, the latest sequence
+     */
+    public record Changes(List<UserChange> changes, boolean reset, long lastSequence) {
+        static Changes reset(long latestSequence) {
+            return new Changes(List.of(), true, latestSequence);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package cz.zedramcak.epptecusers.repository;
+
+import cz.zedramcak.epptecusers.entity.User;
+
+/**
+ * Receives every change made to {@link UserRepository}.
+ * <p>
+ * {@link #userAdded} and {@link #userRemoved} are called inside the repository's atomic section for the
+ * user's birth number, so changes to one user arrive in the order they were applied. They must not block.
+ * They may throw to reject the change: the repository then undoes it, tells the listeners notified before
+ * about the opposite change and rethrows. {@link #writeCompleted()} is called on the writing thread once
+ * the repository operation has finished and may block, for example until the change is durable. If it throws,
+ * the repository rolls back the changes of the operation, reporting them as opposite changes, and rethrows.
+ * <p>
+ * Changes replayed while recovering persisted state are not new writes and are reported through
+ * {@link #restoredUserAdded} and {@link #restoredUserRemoved} instead, with the same ordering guarantees.
+ */
+public interface UserChangeListener {
+
+    void userAdded(int userId, User user);
+
+    void userRemoved(int userId, User user);
+
+    default void writeCompleted() {
+    }
+
+    default void restoredUserAdded(int userId, User user) {
+    }
+
+    default void restoredUserRemoved(int userId, User user) {
+    }
+}
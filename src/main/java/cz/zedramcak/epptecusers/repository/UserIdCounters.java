@@ -0,0 +1,33 @@
+package cz.zedramcak.epptecusers.repository;
+
+import lombok.Value;
+
+/**
+ * How the repository hands out IDs: the layout of an ID and the ID each shard hands out next from a fresh slot.
+ * It is persisted with a snapshot, so the shards never hand out an ID again after a restart, not even one of
+ * a shard whose users had all been removed. It may be restored into another number of shards.
+ */
+@Value
+public class UserIdCounters {
+    /**
+     * The low bits of an ID that a shard hands out, the bits above them hold the index of the shard.
+     */
+    int localIdBits;
+    /**
+     * The generation bits at the bottom of the local part of an ID, see
+     * {@link cz.zedramcak.epptecusers.repository.store.UserStore#getGenerationBits()}.
+     */
+    int generationBits;
+    /**
+     * The ID each shard hands out next from a fresh slot, by shard index. A shard that has not handed out any
+     * is at its first ID, {@code index << localIdBits}.
+     */
+    long[] nextUserIds;
+
+    /**
+     * Returns the counters of a single shard that owns the whole ID range.
+     */
+    public static UserIdCounters of(long nextUserId) {
+        return new UserIdCounters(Integer.SIZE - 1, 0, new long[]{nextUserId});
+    }
+}
@@ -1,43 +1,521 @@
 package cz.zedramcak.epptecusers.repository;
 
 import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.exceptions.UserIdsExhaustedException;
+import cz.zedramcak.epptecusers.repository.store.HeapUserStore;
+import cz.zedramcak.epptecusers.repository.store.UserStore;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+/**
+ * In-memory users with their indexes.
+ * <p>
+ * Users are partitioned into shards, see {@link UserShard}. The shard owning a birth number checks its
+ * uniqueness, the shard that handed out an ID stores the user, and reads of all users gather the shards in
+ * ID order. The name and date of birth indexes span all shards.
+ */
 @Repository
 @Log4j2
 public class UserRepository {
-    private final Map<Integer, User> userDatabase = new HashMap<>();
-    private Integer userIdCounter = 0;
+    public static final int NO_ID = -1;
 
-    public void addUser(User user){
-        userDatabase.put(userIdCounter, user);
+    private final UserShards shards;
+    private final Map<String, Set<Integer>> firstNameIndex = new ConcurrentHashMap<>();
+    private final Map<String, Set<Integer>> lastNameIndex = new ConcurrentHashMap<>();
+    private final FoldedNameIndex foldedFirstNameIndex = new FoldedNameIndex();
+    private final FoldedNameIndex foldedLastNameIndex = new FoldedNameIndex();
+    private final SortedIndex<Integer> dateOfBirthIndex = new SortedIndex<>();
+    private final UserSnapshots snapshots;
+    private final List<UserChangeListener> changeListeners;
 
-        raiseCounter();
+    public UserRepository() {
+        this(List.of());
     }
 
+    public UserRepository(List<UserChangeListener> changeListeners) {
+        this(HeapUserStore::new, 1, changeListeners);
+    }
+
+    @Autowired
+    public UserRepository(ObjectProvider<UserStore> userStores,
+                          @Value("${epptec.users.shards:1}") int shardCount,
+                          ObjectProvider<UserChangeListener> changeListeners) {
+        this(userStores::getObject, shardCount, changeListeners.orderedStream().toList());
+    }
+
+    /**
+     * @param userStoreFactory creates an empty store for each shard
+     */
+    public UserRepository(Supplier<UserStore> userStoreFactory, int shardCount, List<UserChangeListener> changeListeners) {
+        this.shards = new UserShards(userStoreFactory, shardCount);
+        this.snapshots = new UserSnapshots(shards);
+        this.changeListeners = List.copyOf(changeListeners);
+    }
+
+    /**
+     * Inserts the user unless a user with the same birth number is already stored.
+     * The uniqueness check and the insert run atomically for the given birth number,
+     * so concurrent inserts of different birth numbers never wait for each other.
+     *
+     * @return {@code true} if the user was added, {@code false} if the birth number is taken
+     * @throws UserIdsExhaustedException if the shard owning the birth number has no IDs left
+     * @throws RuntimeException          if a change listener rejects the user or fails to complete the write,
+     *                                   in which case the user is not kept
+     */
+    public boolean addUser(User user){
+        int userId = insertUser(user);
+        if (userId == NO_ID) {
+            return false;
+        }
+        completeWrite(() -> rollBackInsert(userId, user));
+        return true;
+    }
+
+    /**
+     * Inserts the users one by one, each with the same atomic uniqueness check as {@link #addUser(User)}.
+     *
+     * @return the ID assigned to each user, or {@link #NO_ID} where the birth number was taken
+     * @throws UserIdsExhaustedException if a shard runs out of IDs, after the users before it were added
+     */
+    public int[] addUsers(List<User> users){
+        int[] userIds = new int[users.size()];
+        Arrays.fill(userIds, NO_ID);
+        try {
+            for (int i = 0; i < userIds.length; i++) {
+                userIds[i] = insertUser(users.get(i));
+            }
+        } finally {
+            completeWrite(() -> {
+                for (int i = 0; i < userIds.length; i++) {
+                    if (userIds[i] != NO_ID) {
+                        rollBackInsert(userIds[i], users.get(i));
+                    }
+                }
+            });
+        }
+        return userIds;
+    }
+
+    private int insertUser(User user) {
+        int[] insertedUserId = {NO_ID};
+        String normalizedBirthNumber = normalizeBirthNumber(user.getBirthNumber());
+        UserShard owner = shards.ownerOf(normalizedBirthNumber);
+
+        owner.getBirthNumberIndex().computeIfAbsent(normalizedBirthNumber, birthNumber -> {
+            int userId = owner.nextUserId();
+            storeUser(userId, user);
+            try {
+                notifyChange(listener -> listener.userAdded(userId, user), listener -> listener.userRemoved(userId, user));
+            } catch (RuntimeException exception) {
+                unstoreUser(userId, user);
+                throw exception;
+            }
+            insertedUserId[0] = userId;
+            return userId;
+        });
+
+        return insertedUserId[0];
+    }
+
+    /**
+     * Removes the user. Its ID is handed out again, if the stores reuse IDs, only once the removal is complete.
+     */
+    public void removeUser(int userId){
+        User user = removeUser(userId, false);
+        if (user != null) {
+            completeWrite(() -> rollBackRemoval(userId, user));
+            shards.shardFor(userId).release(userId);
+        }
+    }
+
+    /**
+     * @return the removed user, or {@code null} if no user has the ID
+     */
+    private User removeUser(int userId, boolean restoring) {
+        User user = shards.get(userId);
+        if (user == null) {
+            return null;
+        }
+
+        User[] removed = {null};
+        String normalizedBirthNumber = normalizeBirthNumber(user.getBirthNumber());
+        shards.ownerOf(normalizedBirthNumber).getBirthNumberIndex().computeIfPresent(normalizedBirthNumber, (birthNumber, indexedUserId) -> {
+            if (indexedUserId != userId) {
+                return indexedUserId;
+            }
+            unstoreUser(userId, user);
+            if (restoring) {
+                changeListeners.forEach(listener -> listener.restoredUserRemoved(userId, user));
+            } else {
+                try {
+                    notifyChange(listener -> listener.userRemoved(userId, user), listener -> listener.userAdded(userId, user));
+                } catch (RuntimeException exception) {
+                    storeUser(userId, user);
+                    throw exception;
+                }
+            }
+            removed[0] = user;
+            return null;
+        });
+        return removed[0];
+    }
+
+    private void storeUser(int userId, User user) {
+        shards.put(userId, user);
+        addToIndex(firstNameIndex, user.getFirstName(), userId);
+        addToIndex(lastNameIndex, user.getLastName(), userId);
+        foldedFirstNameIndex.add(user.getFirstName(), userId);
+        foldedLastNameIndex.add(user.getLastName(), userId);
+        addToDateOfBirthIndex(user, userId);
+        snapshots.userAdded(userId);
+    }
+
+    private void unstoreUser(int userId, User user) {
+        snapshots.userRemoving(userId, user);
+        shards.remove(userId);
+        removeFromIndex(firstNameIndex, user.getFirstName(), userId);
+        removeFromIndex(lastNameIndex, user.getLastName(), userId);
+        foldedFirstNameIndex.remove(user.getFirstName(), userId);
+        foldedLastNameIndex.remove(user.getLastName(), userId);
+        removeFromDateOfBirthIndex(user, userId);
+        snapshots.userRemoved(userId, user);
+    }
+
+    /**
+     * Reports a change to the listeners in order. If one of them rejects it, the listeners notified before are
+     * told the opposite change and the rejection is rethrown, so the caller can undo the change it applied.
+     */
+    private void notifyChange(Consumer<UserChangeListener> change, Consumer<UserChangeListener> opposite) {
+        for (int i = 0; i < changeListeners.size(); i++) {
+            try {
+                change.accept(changeListeners.get(i));
+            } catch (RuntimeException exception) {
+                changeListeners.subList(0, i).forEach(listener -> notifyRollBack(listener, opposite));
+                throw exception;
+            }
+        }
+    }
+
+    /**
+     * Reports a change that undoes another one. A listener failing here is logged, as the change it undoes
+     * has failed already and its failure is what the caller is told.
+     */
+    private static void notifyRollBack(UserChangeListener listener, Consumer<UserChangeListener> change) {
+        try {
+            change.accept(listener);
+        } catch (RuntimeException exception) {
+            log.warn("A user change listener failed while a change was rolled back", exception);
+        }
+    }
+
+    /**
+     * Waits until the listeners have completed the changes of the current thread. If that fails, for example
+     * because the changes could not be made durable, they are rolled back before the failure is rethrown, so
+     * no change is kept that may be lost on a restart. Other writers may have read the changes meanwhile.
+     */
+    private void completeWrite(Runnable rollBack) {
+        try {
+            notifyWriteCompleted();
+        } catch (RuntimeException exception) {
+            try {
+                rollBack.run();
+            } catch (RuntimeException rollBackException) {
+                exception.addSuppressed(rollBackException);
+            }
+            throw exception;
+        }
+    }
+
+    /**
+     * Removes an inserted user again unless it was removed meanwhile. Its ID is not handed out again, as the
+     * insert may have been persisted after all.
+     */
+    private void rollBackInsert(int userId, User user) {
+        String normalizedBirthNumber = normalizeBirthNumber(user.getBirthNumber());
+        shards.ownerOf(normalizedBirthNumber).getBirthNumberIndex().computeIfPresent(normalizedBirthNumber, (birthNumber, indexedUserId) -> {
+            if (indexedUserId != userId) {
+                return indexedUserId;
+            }
+            unstoreUser(userId, user);
+            changeListeners.forEach(listener -> notifyRollBack(listener, changed -> changed.userRemoved(userId, user)));
+            return null;
+        });
+    }
+
+    /**
+     * Puts a removed user back under its ID unless its birth number was taken meanwhile.
+     */
+    private void rollBackRemoval(int userId, User user) {
+        String normalizedBirthNumber = normalizeBirthNumber(user.getBirthNumber());
+        shards.ownerOf(normalizedBirthNumber).getBirthNumberIndex().computeIfAbsent(normalizedBirthNumber, birthNumber -> {
+            storeUser(userId, user);
+            changeListeners.forEach(listener -> notifyRollBack(listener, changed -> changed.userAdded(userId, user)));
+            return userId;
+        });
+    }
+
+    /**
+     * Puts a user back under its original ID while recovering persisted state. Any stored user with
+     * the same ID or birth number is replaced, so replaying changes in the order they happened
+     * converges to the same state. Change listeners are notified through
+     * {@link UserChangeListener#restoredUserAdded}.
+     */
+    public void restoreUser(int userId, User user){
+        String normalizedBirthNumber = normalizeBirthNumber(user.getBirthNumber());
+        removeUser(userId, true);
+        Integer conflictingUserId = shards.ownerOf(normalizedBirthNumber).getBirthNumberIndex().get(normalizedBirthNumber);
+        if (conflictingUserId != null) {
+            removeUser(conflictingUserId, true);
+        }
+
+        shards.ownerOf(normalizedBirthNumber).getBirthNumberIndex().computeIfAbsent(normalizedBirthNumber, birthNumber -> {
+            storeUser(userId, user);
+            changeListeners.forEach(listener -> listener.restoredUserAdded(userId, user));
+            return userId;
+        });
+        shards.restoreNextUserId(userId + 1L);
+    }
+
+    /**
+     * Removes a user while recovering persisted state. Change listeners are notified through
+     * {@link UserChangeListener#restoredUserRemoved}.
+     */
+    public void restoreRemoval(int userId){
+        removeUser(userId, true);
+        shards.restoreNextUserId(userId + 1L);
+    }
+
+    /**
+     * Makes sure no shard hands out an ID that was handed out when the counters were taken, see
+     * {@link #getIdCounters()}.
+     *
+     * @throws IllegalStateException if the IDs were handed out with other generation bits than the stores use
+     */
+    public void restoreIdCounters(UserIdCounters counters){
+        shards.restoreIdCounters(counters);
+    }
+
+    public int getShardCount(){
+        return shards.getShardCount();
+    }
+
+    /**
+     * Returns the number of changes of the stored users that have completed without a gap. A value read
+     * before reading users is never newer than what was read, and a snapshot taken afterwards is at least as new.
+     */
+    public long getVersion(){
+        return snapshots.getStableVersion();
+    }
+
+    /**
+     * Returns an immutable view of the users at the current version. Taking a snapshot never blocks writers,
+     * and it is built at most once per version. Snapshots share the stored users and the chunks of IDs that did
+     * not change between them, so a snapshot costs four bytes per ID in the chunks it changed, plus the users
+     * removed while it is alive.
+     */
+    public UserSnapshot snapshot(){
+        return snapshots.snapshot();
+    }
+
+    /**
+     * Returns the snapshot at the given version if it is the current one or is retained.
+     */
+    public Optional<UserSnapshot> findSnapshot(long version){
+        return snapshots.findSnapshot(version);
+    }
+
+    /**
+     * Keeps the snapshot findable by its version, as long as it is looked up again within a minute each time.
+     */
+    public void retainSnapshot(UserSnapshot snapshot){
+        snapshots.retain(snapshot);
+    }
+
+    /**
+     * Returns the highest ID any shard hands out next. With a single shard, no ID lower than it was handed out.
+     */
+    public long getNextUserId(){
+        return shards.getNextUserId();
+    }
 
-    public void removeUser(Integer userId){
-        userDatabase.remove(userId);
+    /**
+     * Returns the ID layout and the ID each shard hands out next, which is what a snapshot has to persist
+     * so that no ID is handed out twice.
+     */
+    public UserIdCounters getIdCounters(){
+        return shards.getIdCounters();
     }
 
+    /**
+     * Returns a live, ID-ordered view of all users. Reading it never throws on concurrent modification,
+     * but it may reflect part of the changes made while it is read, see {@link #snapshot()}.
+     */
     public Map<Integer, User> getAllUsers(){
-        return userDatabase;
+        return shards.asMap();
     }
 
-    public boolean existsUserById(Integer userId){
-        return userDatabase.containsKey(userId);
+    /**
+     * Returns a live, ID-ordered view of the users whose ID is greater than the given one.
+     * The view never throws on concurrent modification, which lets callers walk the
+     * repository in pages or stream it without copying.
+     */
+    public Map<Integer, User> getUsersAfter(int userId){
+        return shards.tailMap(userId);
+    }
+
+    public int getUserCount(){
+        return shards.getBirthNumberCount();
+    }
+
+    public int getBirthNumberIndexSize(){
+        return shards.getBirthNumberCount();
+    }
+
+    public int getFirstNameIndexSize(){
+        return firstNameIndex.size();
+    }
+
+    public int getLastNameIndexSize(){
+        return lastNameIndex.size();
+    }
+
+    public int getFoldedFirstNameIndexSize(){
+        return foldedFirstNameIndex.size();
+    }
+
+    public int getFoldedLastNameIndexSize(){
+        return foldedLastNameIndex.size();
+    }
+
+    public int getDateOfBirthIndexSize(){
+        return dateOfBirthIndex.size();
+    }
+
+    public boolean existsUserById(int userId){
+        return shards.contains(userId);
+    }
+
+    public Optional<User> findUserById(int userId){
+        return Optional.ofNullable(shards.get(userId));
     }
 
     public boolean existsUserByBirthNumber(String birthNumber){
-        return userDatabase.values().stream()
-                .anyMatch(user -> user.getBirthNumber().equals(birthNumber));
+        return findUserIdByBirthNumber(birthNumber).isPresent();
+    }
+
+    public Optional<Integer> findUserIdByBirthNumber(String birthNumber){
+        String normalizedBirthNumber = normalizeBirthNumber(birthNumber);
+        return Optional.ofNullable(shards.ownerOf(normalizedBirthNumber).getBirthNumberIndex().get(normalizedBirthNumber));
+    }
+
+    public Set<Integer> findUserIdsByFirstName(String firstName){
+        return findInIndex(firstNameIndex, firstName);
+    }
+
+    public Set<Integer> findUserIdsByLastName(String lastName){
+        return findInIndex(lastNameIndex, lastName);
+    }
+
+    /**
+     * Finds users by first name ignoring case and diacritics.
+     */
+    public Set<Integer> findUserIdsByFoldedFirstName(String firstName){
+        return foldedFirstNameIndex.find(firstName);
+    }
+
+    public Set<Integer> findUserIdsByFoldedLastName(String lastName){
+        return foldedLastNameIndex.find(lastName);
+    }
+
+    /**
+     * Finds users whose first name starts with the prefix, ignoring case and diacritics.
+     * The cost is proportional to the number of matching names and users.
+     */
+    public Set<Integer> findUserIdsByFirstNamePrefix(String prefix){
+        return foldedFirstNameIndex.findByPrefix(prefix);
+    }
+
+    public Set<Integer> findUserIdsByLastNamePrefix(String prefix){
+        return foldedLastNameIndex.findByPrefix(prefix);
+    }
+
+    /**
+     * Finds users born within the inclusive range of {@code yyyyMMdd} dates. The cost is proportional
+     * to the number of distinct dates in the range and the users born on them.
+     */
+    public Set<Integer> findUserIdsByDateOfBirth(int from, int to){
+        return dateOfBirthIndex.findRange(from, true, to, true);
+    }
+
+    /**
+     * Returns the share of the distinct dates of birth in the index that fall within the inclusive range.
+     * Assuming users are spread evenly over their dates, this estimates the share of users in the range.
+     */
+    public double estimateDateOfBirthRangeShare(int from, int to){
+        int dates = dateOfBirthIndex.size();
+        return dates == 0 ? 0 : (double) dateOfBirthIndex.countKeys(from, true, to, true) / dates;
+    }
+
+    /**
+     * Finds users born within the inclusive range of {@code yyyyMMdd} dates by scanning the whole store in
+     * parallel. Unlike the index lookup, the cost does not grow with the number of matches, which makes it
+     * the cheaper choice for ranges that match a large part of the repository.
+     */
+    public Map<Integer, User> scanUsersByDateOfBirth(int from, int to){
+        return shards.scanByDateOfBirth(dateOfBirth -> dateOfBirth != User.UNKNOWN_DATE_OF_BIRTH
+                && dateOfBirth >= from && dateOfBirth <= to);
+    }
+
+    private static Set<Integer> findInIndex(Map<String, Set<Integer>> index, String key) {
+        Set<Integer> userIds = index.get(key);
+        return userIds == null ? Set.of() : Collections.unmodifiableSet(userIds);
+    }
+
+    private static void addToIndex(Map<String, Set<Integer>> index, String key, Integer userId) {
+        index.compute(key, (indexKey, userIds) -> {
+            Set<Integer> ids = userIds == null ? ConcurrentHashMap.newKeySet() : userIds;
+            ids.add(userId);
+            return ids;
+        });
+    }
+
+    private static void removeFromIndex(Map<String, Set<Integer>> index, String key, Integer userId) {
+        index.computeIfPresent(key, (indexKey, userIds) -> {
+            userIds.remove(userId);
+            return userIds.isEmpty() ? null : userIds;
+        });
+    }
+
+    private void addToDateOfBirthIndex(User user, int userId) {
+        if (user.getDateOfBirth() != User.UNKNOWN_DATE_OF_BIRTH) {
+            dateOfBirthIndex.add(user.getDateOfBirth(), userId);
+        }
+    }
+
+    private void removeFromDateOfBirthIndex(User user, int userId) {
+        if (user.getDateOfBirth() != User.UNKNOWN_DATE_OF_BIRTH) {
+            dateOfBirthIndex.remove(user.getDateOfBirth(), userId);
+        }
+    }
+
+    private void notifyWriteCompleted() {
+        changeListeners.forEach(UserChangeListener::writeCompleted);
     }
 
-    private void raiseCounter() {
-        userIdCounter++;
+    static String normalizeBirthNumber(String birthNumber) {
+        return birthNumber.replace("/", "");
     }
 }
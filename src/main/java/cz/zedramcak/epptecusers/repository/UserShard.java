@@ -0,0 +1,137 @@
+package cz.zedramcak.epptecusers.repository;
+
+import cz.zedramcak.epptecusers.exceptions.UserIdsExhaustedException;
+import cz.zedramcak.epptecusers.repository.store.UserStore;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One partition of the repository: a store for the users whose IDs it handed out and the birth numbers
+ * the {@link ShardRing} assigns to it.
+ * <p>
+ * IDs carry the index of the shard in their high bits, so a user is found by ID without a lookup and IDs
+ * handed out by different shards never collide. The shards take as few bits as their count needs, none for a
+ * single shard, and leave the rest of the ID to the shard, see {@link UserShards}.
+ * <p>
+ * When the store has generation bits, see {@link UserStore#getGenerationBits()}, the local part of an ID is a slot
+ * followed by its generation, and the slots of removed users are handed out again, oldest first, under the next
+ * generation. That bounds the IDs, and so the store, by the peak number of users instead of the number of users
+ * ever added. An old ID finds nothing until its slot has cycled through all generations. Released slots are not
+ * persisted, so the slots freed before a restart are not reused after it.
+ */
+final class UserShard {
+    private final int index;
+    private final int localIdBits;
+    private final UserStore userStore;
+    private final Map<String, Integer> birthNumberIndex = new ConcurrentHashMap<>();
+    private final int generationBits;
+    private final int maxSlot;
+    private final AtomicLong nextSlot = new AtomicLong();
+    private final ReleasedUserIds releasedUserIds;
+
+    /**
+     * @param localIdBits the low bits of an ID that the shard hands out, the bits above them hold its index
+     */
+    UserShard(int index, int localIdBits, UserStore userStore) {
+        this.index = index;
+        this.localIdBits = localIdBits;
+        this.userStore = userStore;
+        this.generationBits = userStore.getGenerationBits();
+        this.maxSlot = (int) (((1L << localIdBits) - 1) >>> generationBits);
+        this.releasedUserIds = generationBits > 0 ? new ReleasedUserIds() : null;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    UserStore getUserStore() {
+        return userStore;
+    }
+
+    Map<String, Integer> getBirthNumberIndex() {
+        return birthNumberIndex;
+    }
+
+    int nextUserId() {
+        if (releasedUserIds != null) {
+            int userId = releasedUserIds.poll();
+            if (userId != UserRepository.NO_ID) {
+                return userId;
+            }
+        }
+
+        long slot = nextSlot.getAndIncrement();
+        if (slot > maxSlot) {
+            nextSlot.set(maxSlot + 1L);
+            throw new UserIdsExhaustedException("No user IDs are left for this birth number.");
+        }
+        return (int) (getFirstUserId() | slot << generationBits);
+    }
+
+    /**
+     * Hands the slot of a removed user out again under the next generation of its ID. Does nothing unless the
+     * store has generation bits. Must be called once the user has left the store.
+     */
+    void release(int userId) {
+        if (releasedUserIds != null) {
+            int generationMask = (1 << generationBits) - 1;
+            releasedUserIds.offer(userId & ~generationMask | (userId + 1) & generationMask);
+        }
+    }
+
+    /**
+     * Returns the ID the shard hands out next from a fresh slot, which is its first ID if it has not handed out
+     * any, and the first ID past the shard once it has handed out all of them.
+     */
+    long getNextUserId() {
+        return getFirstUserId() + (Math.min(nextSlot.get(), maxSlot + 1L) << generationBits);
+    }
+
+    /**
+     * Makes sure the shard does not hand out fresh slots lower than the slot of the given ID, which must belong
+     * to the shard or be the first ID past it, and is rounded up to the next slot unless it is the first
+     * generation of one.
+     */
+    void restoreNextUserId(long nextUserId) {
+        long localUserId = nextUserId - getFirstUserId();
+        nextSlot.accumulateAndGet((localUserId + (1L << generationBits) - 1) >>> generationBits, Math::max);
+    }
+
+    private long getFirstUserId() {
+        return (long) index << localIdBits;
+    }
+
+    /**
+     * First-in, first-out queue of released IDs, so a slot is reused as late as possible.
+     */
+    private static final class ReleasedUserIds {
+        private int[] userIds = new int[16];
+        private int head;
+        private int size;
+
+        synchronized void offer(int userId) {
+            if (size == userIds.length) {
+                int[] grown = new int[userIds.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = userIds[(head + i) % userIds.length];
+                }
+                userIds = grown;
+                head = 0;
+            }
+            userIds[(head + size++) % userIds.length] = userId;
+        }
+
+        synchronized int poll() {
+            if (size == 0) {
+                return UserRepository.NO_ID;
+            }
+            int userId = userIds[head];
+            head = (head + 1) % userIds.length;
+            size--;
+            return userId;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package cz.zedramcak.epptecusers.repository;
+
+import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.repository.store.UserScanResult;
+import cz.zedramcak.epptecusers.repository.store.UserStore;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+
+/**
+ * The shards of the repository, routing users by ID and birth numbers through the {@link ShardRing}.
+ * <p>
+ * As a {@link UserStore} it spreads each call over the shard stores: single users go to the shard in their ID,
+ * while views and scans gather all shards. The shard index takes as many high bits of an ID as the shard count
+ * needs, so a single shard hands out the whole ID range. The users of one shard follow the users of the shards
+ * before it, and gathering them in shard order keeps them in ID order. Shards outside the ring are created when
+ * a user with their ID is restored; they keep serving the users they store but get no new ones.
+ */
+final class UserShards implements UserStore {
+    static final int MAX_SHARDS = 64;
+
+    private final Supplier<UserStore> userStoreFactory;
+    private final int localIdBits;
+    private final AtomicReferenceArray<UserShard> shards;
+    private final ShardRing ring;
+
+    UserShards(Supplier<UserStore> userStoreFactory, int shardCount) {
+        if (shardCount < 1 || shardCount > MAX_SHARDS) {
+            throw new IllegalArgumentException("The shard count must be between 1 and " + MAX_SHARDS + ": " + shardCount);
+        }
+
+        int shardBits = Integer.SIZE - Integer.numberOfLeadingZeros(shardCount - 1);
+        this.userStoreFactory = userStoreFactory;
+        this.localIdBits = Integer.SIZE - 1 - shardBits;
+        this.shards = new AtomicReferenceArray<>(1 << shardBits);
+        this.ring = new ShardRing(shardCount);
+        for (int index = 0; index < shardCount; index++) {
+            shard(index);
+        }
+    }
+
+    int getShardCount() {
+        return ring.getShardCount();
+    }
+
+    int shardOf(int userId) {
+        return userId >>> localIdBits;
+    }
+
+    /**
+     * Returns the shard that owns the normalized birth number.
+     */
+    UserShard ownerOf(String birthNumber) {
+        return shards.get(ring.ownerOf(birthNumber));
+    }
+
+    /**
+     * Returns the shard that handed out the ID, creating it if needed.
+     */
+    UserShard shardFor(int userId) {
+        if (userId < 0) {
+            throw new IllegalArgumentException("User ID must not be negative: " + userId);
+        }
+        return shard(shardOf(userId));
+    }
+
+    private UserShard shard(int index) {
+        UserShard shard = shards.get(index);
+        if (shard == null) {
+            shards.compareAndSet(index, null, new UserShard(index, localIdBits, userStoreFactory.get()));
+            shard = shards.get(index);
+        }
+        return shard;
+    }
+
+    private UserShard findShard(int userId) {
+        return userId < 0 ? null : shards.get(shardOf(userId));
+    }
+
+    private List<UserShard> existingShards() {
+        List<UserShard> existing = new ArrayList<>();
+        for (int index = 0; index < shards.length(); index++) {
+            UserShard shard = shards.get(index);
+            if (shard != null) {
+                existing.add(shard);
+            }
+        }
+        return existing;
+    }
+
+    int getBirthNumberCount() {
+        int count = 0;
+        for (UserShard shard : existingShards()) {
+            count += shard.getBirthNumberIndex().size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the highest ID a shard hands out next.
+     */
+    long getNextUserId() {
+        long nextUserId = 0;
+        for (UserShard shard : existingShards()) {
+            nextUserId = Math.max(nextUserId, shard.getNextUserId());
+        }
+        return nextUserId;
+    }
+
+    UserIdCounters getIdCounters() {
+        long[] nextUserIds = new long[shards.length()];
+        for (int index = 0; index < nextUserIds.length; index++) {
+            UserShard shard = shards.get(index);
+            nextUserIds[index] = shard == null ? (long) index << localIdBits : shard.getNextUserId();
+        }
+        return new UserIdCounters(localIdBits, getGenerationBits(), nextUserIds);
+    }
+
+    /**
+     * Makes sure no shard hands out an ID that the counters say was handed out. The counters may come from
+     * another number of shards: every ID range a counter covers advances the shards it overlaps to its end.
+     *
+     * @throws IllegalStateException if IDs were handed out with other generation bits than the stores use,
+     *                               as the stored IDs would not map to their slots
+     */
+    void restoreIdCounters(UserIdCounters counters) {
+        long[] nextUserIds = counters.getNextUserIds();
+        for (int index = 0; index < nextUserIds.length; index++) {
+            long firstUserId = (long) index << counters.getLocalIdBits();
+            if (nextUserIds[index] <= firstUserId) {
+                continue;
+            }
+            if (counters.getGenerationBits() != getGenerationBits()) {
+                throw new IllegalStateException("The user IDs were handed out with " + counters.getGenerationBits()
+                        + " generation bits, but the user stores use " + getGenerationBits());
+            }
+
+            for (int shard = shardOf((int) firstUserId); shard <= shardOf((int) (nextUserIds[index] - 1)); shard++) {
+                shard(shard).restoreNextUserId(Math.min(nextUserIds[index], (long) (shard + 1) << localIdBits));
+            }
+        }
+    }
+
+    /**
+     * Makes sure the shard that handed out the ID before the given one does not hand out IDs lower than it.
+     */
+    void restoreNextUserId(long nextUserId) {
+        if (nextUserId > 0) {
+            shardFor((int) (nextUserId - 1)).restoreNextUserId(nextUserId);
+        }
+    }
+
+    /**
+     * Returns the generation bits of the shard stores, which all come from the same factory.
+     */
+    @Override
+    public int getGenerationBits() {
+        return shards.get(0).getUserStore().getGenerationBits();
+    }
+
+    @Override
+    public void put(int userId, User user) {
+        shardFor(userId).getUserStore().put(userId, user);
+    }
+
+    @Override
+    public User get(int userId) {
+        UserShard shard = findShard(userId);
+        return shard == null ? null : shard.getUserStore().get(userId);
+    }
+
+    @Override
+    public boolean contains(int userId) {
+        UserShard shard = findShard(userId);
+        return shard != null && shard.getUserStore().contains(userId);
+    }
+
+    @Override
+    public boolean remove(int userId) {
+        UserShard shard = findShard(userId);
+        return shard != null && shard.getUserStore().remove(userId);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (UserShard shard : existingShards()) {
+            size += shard.getUserStore().size();
+        }
+        return size;
+    }
+
+    @Override
+    public Map<Integer, User> asMap() {
+        return tailMap(-1);
+    }
+
+    @Override
+    public Map<Integer, User> tailMap(int afterUserId) {
+        List<UserShard> existing = existingShards();
+        if (existing.size() == 1) {
+            return existing.getFirst().getUserStore().tailMap(afterUserId);
+        }
+
+        List<Map<Integer, User>> parts = new ArrayList<>(existing.size());
+        int firstShard = afterUserId < 0 ? 0 : shardOf(afterUserId);
+        for (UserShard shard : existing) {
+            if (shard.getIndex() == firstShard) {
+                parts.add(shard.getUserStore().tailMap(afterUserId));
+            } else if (shard.getIndex() > firstShard) {
+                parts.add(shard.getUserStore().asMap());
+            }
+        }
+        return new GatheredUsers(parts);
+    }
+
+    /**
+     * Scans the shards in parallel, each of them in parallel partitions of its own.
+     */
+    @Override
+    public UserScanResult scanByDateOfBirth(IntPredicate dateOfBirthFilter) {
+        List<UserShard> existing = existingShards();
+        if (existing.size() == 1) {
+            return existing.getFirst().getUserStore().scanByDateOfBirth(dateOfBirthFilter);
+        }
+
+        return UserScanResult.join(existing.parallelStream()
+                .map(shard -> shard.getUserStore().scanByDateOfBirth(dateOfBirthFilter))
+                .toList());
+    }
+
+    /**
+     * Read-only view joining the ID-ordered views of consecutive shards.
+     */
+    private static final class GatheredUsers extends AbstractMap<Integer, User> {
+        private final List<Map<Integer, User>> parts;
+
+        private GatheredUsers(List<Map<Integer, User>> parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public User get(Object key) {
+            for (Map<Integer, User> part : parts) {
+                User user = part.get(key);
+                if (user != null) {
+                    return user;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Map<Integer, User> part : parts) {
+                size += part.size();
+            }
+            return size;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return parts.stream().allMatch(Map::isEmpty);
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super Integer, ? super User> action) {
+            parts.forEach(part -> part.forEach(action));
+        }
+
+        @Override
+        public Set<Entry<Integer, User>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Integer, User>> iterator() {
+                    return new Iterator<>() {
+                        private final Iterator<Map<Integer, User>> remainingParts = parts.iterator();
+                        private Iterator<Entry<Integer, User>> users = Map.<Integer, User>of().entrySet().iterator();
+
+                        @Override
+                        public boolean hasNext() {
+                            while (!users.hasNext() && remainingParts.hasNext()) {
+                                users = remainingParts.next().entrySet().iterator();
+                            }
+                            return users.hasNext();
+                        }
+
+                        @Override
+                        public Entry<Integer, User> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            return users.next();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return GatheredUsers.this.size();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package cz.zedramcak.epptecusers.repository;
+
+import cz.zedramcak.epptecusers.entity.User;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * Immutable view of the users as they were at a repository version.
+ * <p>
+ * A snapshot only keeps the IDs it contains, in ascending chunks of about {@value #CHUNK_SIZE}. A snapshot taken
+ * after it copies only the chunks that changed and shares the others, so taking one costs the changes in between
+ * rather than all the IDs. Users are read from the store, and users removed after the snapshot was taken are kept
+ * aside by the snapshot that was the latest one when they were removed, so every snapshot reaches them through
+ * the snapshots taken after it.
+ */
+public final class UserSnapshot {
+    private static final IntFunction<User> NO_USERS = userId -> null;
+    private static final int CHUNK_SIZE = 1024;
+    private static final int[][] NO_CHUNKS = new int[0][];
+
+    private final long version;
+    private final int[][] chunks;
+    /**
+     * The index of the first ID of each chunk among all the IDs, followed by the number of IDs.
+     */
+    private final int[] chunkStarts;
+    private final int[] lastUserIds;
+    private final IntFunction<User> storedUsers;
+    private final IntFunction<User> pendingRemovals;
+    private final Map<Integer, User> removedUsers = new ConcurrentHashMap<>();
+    private volatile UserSnapshot next;
+
+    private UserSnapshot(long version, int[][] chunks, IntFunction<User> storedUsers, IntFunction<User> pendingRemovals) {
+        this.version = version;
+        this.chunks = chunks;
+        this.chunkStarts = new int[chunks.length + 1];
+        this.lastUserIds = new int[chunks.length];
+        this.storedUsers = storedUsers;
+        this.pendingRemovals = pendingRemovals;
+
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            chunkStarts[chunk + 1] = chunkStarts[chunk] + chunks[chunk].length;
+            lastUserIds[chunk] = chunks[chunk][chunks[chunk].length - 1];
+        }
+    }
+
+    /**
+     * Creates the snapshot of an empty repository, at version 0.
+     */
+    static UserSnapshot empty(IntFunction<User> storedUsers, IntFunction<User> pendingRemovals) {
+        return new UserSnapshot(0, NO_CHUNKS, storedUsers, pendingRemovals);
+    }
+
+    /**
+     * Creates a snapshot holding a copy of the given users, detached from any repository.
+     */
+    public static UserSnapshot of(long version, Map<Integer, User> users) {
+        TreeMap<Integer, User> copy = new TreeMap<>(users);
+        int[] userIds = copy.keySet().stream().mapToInt(Integer::intValue).toArray();
+        List<int[]> chunks = new ArrayList<>();
+        addChunk(chunks, userIds);
+        return new UserSnapshot(version, chunks.toArray(NO_CHUNKS), copy::get, NO_USERS);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return chunkStarts[chunks.length];
+    }
+
+    /**
+     * Returns the users of the snapshot as a read-only, ID-ordered map.
+     */
+    public Map<Integer, User> getUsers() {
+        return new SnapshotUsers(0);
+    }
+
+    /**
+     * Returns the users of the snapshot whose ID is greater than the given one.
+     */
+    public Map<Integer, User> getUsersAfter(int userId) {
+        int chunk = chunkOf(userId);
+        if (chunk == chunks.length) {
+            return new SnapshotUsers(size());
+        }
+        int row = Arrays.binarySearch(chunks[chunk], userId);
+        return new SnapshotUsers(chunkStarts[chunk] + (row >= 0 ? row + 1 : -row - 1));
+    }
+
+    /**
+     * Creates the snapshot at a later version from this one and the IDs that changed in between.
+     *
+     * @param changedUserIds the changed IDs in ascending order
+     * @param present        whether each changed ID holds a user at the later version
+     */
+    UserSnapshot withChanges(long laterVersion, int[] changedUserIds, boolean[] present) {
+        List<int[]> laterChunks = new ArrayList<>(chunks.length + 1);
+        int changed = 0;
+
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            int end = changed;
+            while (end < changedUserIds.length && (chunk == chunks.length - 1 || changedUserIds[end] <= lastUserIds[chunk])) {
+                end++;
+            }
+
+            if (end == changed) {
+                laterChunks.add(chunks[chunk]);
+            } else {
+                addChunk(laterChunks, merge(chunks[chunk], changedUserIds, present, changed, end));
+            }
+            changed = end;
+        }
+        if (changed < changedUserIds.length) {
+            addChunk(laterChunks, merge(new int[0], changedUserIds, present, changed, changedUserIds.length));
+        }
+
+        return new UserSnapshot(laterVersion, laterChunks.toArray(NO_CHUNKS), storedUsers, pendingRemovals);
+    }
+
+    private static int[] merge(int[] userIds, int[] changedUserIds, boolean[] present, int from, int to) {
+        int[] merged = new int[userIds.length + to - from];
+        int size = 0;
+        int changed = from;
+
+        for (int userId : userIds) {
+            while (changed < to && changedUserIds[changed] < userId) {
+                size = addIfPresent(merged, size, changedUserIds, present, changed++);
+            }
+            if (changed < to && changedUserIds[changed] == userId) {
+                size = addIfPresent(merged, size, changedUserIds, present, changed++);
+            } else {
+                merged[size++] = userId;
+            }
+        }
+        while (changed < to) {
+            size = addIfPresent(merged, size, changedUserIds, present, changed++);
+        }
+
+        return Arrays.copyOf(merged, size);
+    }
+
+    private static int addIfPresent(int[] userIds, int size, int[] changedUserIds, boolean[] present, int changed) {
+        if (!present[changed]) {
+            return size;
+        }
+        userIds[size] = changedUserIds[changed];
+        return size + 1;
+    }
+
+    /**
+     * Adds a changed chunk, split if it grew past twice the chunk size, and joined to the chunk before it
+     * if it shrank below a quarter of it, so removals do not leave many tiny chunks behind.
+     */
+    private static void addChunk(List<int[]> chunks, int[] userIds) {
+        if (userIds.length < CHUNK_SIZE / 4 && !chunks.isEmpty()) {
+            int[] previous = chunks.removeLast();
+            int[] joined = Arrays.copyOf(previous, previous.length + userIds.length);
+            System.arraycopy(userIds, 0, joined, previous.length, userIds.length);
+            userIds = joined;
+        }
+        if (userIds.length == 0) {
+            return;
+        }
+
+        int from = 0;
+        while (userIds.length - from > 2 * CHUNK_SIZE) {
+            chunks.add(Arrays.copyOfRange(userIds, from, from + CHUNK_SIZE));
+            from += CHUNK_SIZE;
+        }
+        chunks.add(from == 0 ? userIds : Arrays.copyOfRange(userIds, from, userIds.length));
+    }
+
+    /**
+     * Returns the first chunk whose IDs reach the given one, or the number of chunks if none does.
+     */
+    private int chunkOf(int userId) {
+        int chunk = Arrays.binarySearch(lastUserIds, userId);
+        return chunk >= 0 ? chunk : -chunk - 1;
+    }
+
+    /**
+     * Keeps a user removed after this snapshot, unless a user removed earlier under the same ID is kept already.
+     */
+    void keepRemovedUser(int userId, User user) {
+        removedUsers.putIfAbsent(userId, user);
+    }
+
+    void setNext(UserSnapshot next) {
+        this.next = next;
+    }
+
+    /**
+     * Removed users are looked up before and, for a removal that happens meanwhile, after the store. A removal
+     * is pending before the user leaves the store and is kept by a snapshot before it stops being pending.
+     */
+    private User userAt(int userId) {
+        User removed = findRemovedUser(userId);
+        if (removed != null) {
+            return removed;
+        }
+
+        User user = storedUsers.apply(userId);
+        return user != null ? user : findRemovedUser(userId);
+    }
+
+    private User findRemovedUser(int userId) {
+        User pending = pendingRemovals.apply(userId);
+        if (pending != null) {
+            return pending;
+        }
+
+        for (UserSnapshot snapshot = this; snapshot != null; snapshot = snapshot.next) {
+            User removed = snapshot.removedUsers.get(userId);
+            if (removed != null) {
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    private final class SnapshotUsers extends AbstractMap<Integer, User> {
+        private final int from;
+
+        private SnapshotUsers(int from) {
+            this.from = from;
+        }
+
+        @Override
+        public int size() {
+            return UserSnapshot.this.size() - from;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return userIdOf(key) != null;
+        }
+
+        @Override
+        public User get(Object key) {
+            Integer userId = userIdOf(key);
+            return userId == null ? null : userAt(userId);
+        }
+
+        private Integer userIdOf(Object key) {
+            if (!(key instanceof Integer userId)) {
+                return null;
+            }
+            int chunk = chunkOf(userId);
+            if (chunk == chunks.length) {
+                return null;
+            }
+            int row = Arrays.binarySearch(chunks[chunk], userId);
+            return row >= 0 && chunkStarts[chunk] + row >= from ? userId : null;
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super Integer, ? super User> action) {
+            for (SnapshotIterator userIds = new SnapshotIterator(from); userIds.hasNext(); ) {
+                int userId = userIds.nextUserId();
+                action.accept(userId, userAt(userId));
+            }
+        }
+
+        @Override
+        public Set<Entry<Integer, User>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Integer, User>> iterator() {
+                    SnapshotIterator userIds = new SnapshotIterator(from);
+                    return new Iterator<>() {
+                        @Override
+                        public boolean hasNext() {
+                            return userIds.hasNext();
+                        }
+
+                        @Override
+                        public Entry<Integer, User> next() {
+                            int userId = userIds.nextUserId();
+                            return new SimpleImmutableEntry<>(userId, userAt(userId));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return SnapshotUsers.this.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Walks the IDs in order, starting at the given index among all of them.
+     */
+    private final class SnapshotIterator {
+        private int chunk;
+        private int row;
+
+        private SnapshotIterator(int from) {
+            int start = Arrays.binarySearch(chunkStarts, from);
+            this.chunk = start >= 0 ? start : -start - 2;
+            this.row = from - chunkStarts[chunk];
+        }
+
+        private boolean hasNext() {
+            return chunk < chunks.length;
+        }
+
+        private int nextUserId() {
+            if (chunk >= chunks.length) {
+                throw new NoSuchElementException();
+            }
+            int userId = chunks[chunk][row++];
+            if (row == chunks[chunk].length) {
+                chunk++;
+                row = 0;
+            }
+            return userId;
+        }
+    }
+}
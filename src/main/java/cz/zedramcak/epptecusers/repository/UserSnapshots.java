@@ -0,0 +1,162 @@
+package cz.zedramcak.epptecusers.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.repository.store.UserStore;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Versions the changes of the repository and builds {@link UserSnapshot}s from them without ever making
+ * a writer wait.
+ * <p>
+ * Every change gets the next version inside the repository's atomic section for its birth number and is
+ * logged right after. The stable version is the highest one up to which every change is logged, so the
+ * state at it is fully known while later changes are still in flight. A new snapshot is the latest one
+ * with the logged changes up to the stable version merged into the chunks of IDs they fall into.
+ * Snapshots are built by readers, at most once per version, and writers start building one in the
+ * background when the log outgrows a quarter of the latest snapshot, so the log stays bounded when
+ * nobody reads. Snapshots a page cursor refers to are kept until no page has been read from them for
+ * a while, however many were taken since, so paging clients can finish the version they started.
+ */
+final class UserSnapshots {
+    private static final int MIN_COMPACTION_CHANGES = 1 << 16;
+    private static final Duration RETENTION = Duration.ofMinutes(1);
+
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong stableVersion = new AtomicLong();
+    private final Map<Long, Change> changes = new ConcurrentHashMap<>();
+    private final Map<Integer, User> pendingRemovals = new ConcurrentHashMap<>();
+    private final Cache<Long, UserSnapshot> retainedSnapshots = Caffeine.newBuilder()
+            .expireAfterAccess(RETENTION)
+            .build();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final UserStore userStore;
+    private volatile UserSnapshot latest;
+
+    UserSnapshots(UserStore userStore) {
+        this.userStore = userStore;
+        this.latest = UserSnapshot.empty(userStore::get, pendingRemovals::get);
+    }
+
+    /**
+     * Logs an added user. Must be called inside the atomic section of the change, after the user is stored.
+     */
+    void userAdded(int userId) {
+        log(new Change(userId, null));
+    }
+
+    /**
+     * Must be called inside the atomic section of the change, before the user leaves the store.
+     */
+    void userRemoving(int userId, User user) {
+        pendingRemovals.putIfAbsent(userId, user);
+    }
+
+    /**
+     * Logs a removed user. Must be called inside the atomic section of the change, after the user left the store.
+     */
+    void userRemoved(int userId, User user) {
+        log(new Change(userId, user));
+    }
+
+    long getStableVersion() {
+        return stableVersion.get();
+    }
+
+    UserSnapshot snapshot() {
+        UserSnapshot snapshot = latest;
+        if (snapshot.getVersion() == stableVersion.get()) {
+            return snapshot;
+        }
+        return fold();
+    }
+
+    Optional<UserSnapshot> findSnapshot(long snapshotVersion) {
+        UserSnapshot snapshot = latest;
+        if (snapshot.getVersion() == snapshotVersion) {
+            return Optional.of(snapshot);
+        }
+        return Optional.ofNullable(retainedSnapshots.getIfPresent(snapshotVersion));
+    }
+
+    /**
+     * Keeps the snapshot findable by its version until it has not been looked up for the retention time.
+     */
+    void retain(UserSnapshot snapshot) {
+        retainedSnapshots.asMap().putIfAbsent(snapshot.getVersion(), snapshot);
+    }
+
+    private void log(Change change) {
+        long changeVersion = version.incrementAndGet();
+        changes.put(changeVersion, change);
+
+        for (long stable = stableVersion.get(); changes.containsKey(stable + 1); stable = stableVersion.get()) {
+            stableVersion.compareAndSet(stable, stable + 1);
+        }
+
+        UserSnapshot snapshot = latest;
+        if (changeVersion - snapshot.getVersion() > Math.max(MIN_COMPACTION_CHANGES, snapshot.size() / 4)
+                && compacting.compareAndSet(false, true)) {
+            ForkJoinPool.commonPool().execute(() -> {
+                try {
+                    fold();
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        }
+    }
+
+    private synchronized UserSnapshot fold() {
+        UserSnapshot base = latest;
+        long targetVersion = stableVersion.get();
+        if (base.getVersion() >= targetVersion) {
+            return base;
+        }
+
+        Map<Integer, Change> lastChanges = new HashMap<>();
+        for (long changeVersion = base.getVersion() + 1; changeVersion <= targetVersion; changeVersion++) {
+            Change change = changes.get(changeVersion);
+            lastChanges.put(change.userId(), change);
+            if (change.isRemoval()) {
+                base.keepRemovedUser(change.userId(), change.removedUser());
+            }
+        }
+
+        int[] changedUserIds = lastChanges.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        boolean[] present = new boolean[changedUserIds.length];
+        for (int i = 0; i < changedUserIds.length; i++) {
+            present[i] = !lastChanges.get(changedUserIds[i]).isRemoval();
+        }
+
+        UserSnapshot snapshot = base.withChanges(targetVersion, changedUserIds, present);
+        base.setNext(snapshot);
+        latest = snapshot;
+
+        for (long changeVersion = base.getVersion() + 1; changeVersion <= targetVersion; changeVersion++) {
+            Change change = changes.remove(changeVersion);
+            if (change.isRemoval()) {
+                pendingRemovals.remove(change.userId(), change.removedUser());
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * A user added under the ID, or removed from it when {@code removedUser} is set.
+     */
+    private record Change(int userId, User removedUser) {
+        boolean isRemoval() {
+            return removedUser != null;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package cz.zedramcak.epptecusers.repository.persistence;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Makes changes to directory entries durable.
+ */
+final class Directories {
+    private static final boolean WINDOWS = System.getProperty("os.name", "").startsWith("Windows");
+
+    private Directories() {
+    }
+
+    /**
+     * Forces the entries of the directory to disk, so a file created, renamed or deleted in it stays so after a
+     * crash. Windows cannot open a directory as a channel and journals its entries anyway, so it is skipped there.
+     */
+    static void force(Path directory) throws IOException {
+        if (WINDOWS) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+}
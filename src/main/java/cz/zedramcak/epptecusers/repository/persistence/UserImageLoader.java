@@ -0,0 +1,62 @@
+package cz.zedramcak.epptecusers.repository.persistence;
+
+import cz.zedramcak.epptecusers.repository.UserRepository;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills an empty repository from a prebuilt image on startup, so a fresh deployment serves its users without
+ * reloading them through the API. The image is a snapshot file as written by {@link UserSnapshotFile}, for
+ * example one taken from the persistence directory of another instance.
+ * <p>
+ * The image is mapped and its users restored in parallel while the context is refreshed, which is before the
+ * web server starts accepting connections. Users recovered by {@link UserPersistence} take precedence, and an
+ * image loaded while persistence is enabled is written to a snapshot right away, so users added afterwards
+ * never get recovered without it.
+ */
+@Log4j2
+public class UserImageLoader implements InitializingBean {
+    private final UserRepository userRepository;
+    private final UserPersistence userPersistence;
+    private final Path image;
+
+    /**
+     * @param userPersistence the persistence of the repository, or {@code null} if it is disabled
+     */
+    public UserImageLoader(UserRepository userRepository, UserPersistence userPersistence, Path image) {
+        this.userRepository = userRepository;
+        this.userPersistence = userPersistence;
+        this.image = image;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        load();
+    }
+
+    /**
+     * @return whether the image was loaded
+     */
+    boolean load() throws IOException {
+        int recoveredUsers = userRepository.getUserCount();
+        if (recoveredUsers > 0) {
+            log.info("Skipping the user image {}, {} users were recovered already", image, recoveredUsers);
+            return false;
+        }
+
+        long start = System.nanoTime();
+        userRepository.restoreIdCounters(UserSnapshotFile.readHeader(image).getIdCounters());
+        UserSnapshotFile.Header header = UserSnapshotFile.readInParallel(image, userRepository::restoreUser);
+        log.info("Loaded {} users from the image {} in {} ms",
+                header.getUserCount(), image, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        if (userPersistence != null) {
+            userPersistence.snapshot();
+        }
+        return true;
+    }
+}
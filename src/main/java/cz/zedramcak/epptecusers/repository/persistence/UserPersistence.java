@@ -0,0 +1,100 @@
+package cz.zedramcak.epptecusers.repository.persistence;
+
+import cz.zedramcak.epptecusers.repository.UserIdCounters;
+import cz.zedramcak.epptecusers.repository.UserRepository;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restores the repository on startup from the latest snapshot plus the log written after it,
+ * then periodically writes a new snapshot and drops the log segments it covers.
+ * <p>
+ * Snapshots are taken without stopping writers. Every change is logged after it was applied in memory,
+ * so a change with a sequence number up to the one read before the snapshot started is always in the
+ * snapshot, and replaying the newer log entries over it yields the latest state. A snapshot holds every ID
+ * and birth number once, so its users are restored in parallel, while the log is replayed in order.
+ */
+@Log4j2
+public class UserPersistence implements InitializingBean, DisposableBean {
+    static final String SNAPSHOT_FILE = "users.snapshot";
+
+    private final UserRepository userRepository;
+    private final UserWriteAheadLog writeAheadLog;
+    private final UserPersistenceProperties properties;
+    private final Path snapshotFile;
+    private ScheduledExecutorService scheduler;
+
+    public UserPersistence(UserRepository userRepository, UserWriteAheadLog writeAheadLog, UserPersistenceProperties properties) {
+        this.userRepository = userRepository;
+        this.writeAheadLog = writeAheadLog;
+        this.properties = properties;
+        this.snapshotFile = properties.getDirectory().resolve(SNAPSHOT_FILE);
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        recover();
+        writeAheadLog.start();
+
+        long interval = properties.getSnapshotInterval().toMillis();
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("user-snapshot").daemon().factory());
+        scheduler.scheduleWithFixedDelay(this::scheduledSnapshot, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    void recover() throws IOException {
+        long start = System.nanoTime();
+        long logSequence = 0;
+        long snapshotUsers = 0;
+
+        if (Files.exists(snapshotFile)) {
+            userRepository.restoreIdCounters(UserSnapshotFile.readHeader(snapshotFile).getIdCounters());
+            UserSnapshotFile.Header header = UserSnapshotFile.readInParallel(snapshotFile, userRepository::restoreUser);
+            logSequence = header.getLogSequence();
+            snapshotUsers = header.getUserCount();
+        }
+
+        long replayed = writeAheadLog.replay(logSequence, userRepository);
+        log.info("Recovered {} users from the snapshot and {} changes from the log in {} ms",
+                snapshotUsers, replayed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    public synchronized UserSnapshotFile.Header snapshot() throws IOException {
+        long coveredSequence = writeAheadLog.currentSequence();
+        UserIdCounters idCounters = userRepository.getIdCounters();
+        writeAheadLog.roll();
+
+        UserSnapshotFile.Header header = UserSnapshotFile.write(snapshotFile, coveredSequence, idCounters,
+                userRepository.getAllUsers().entrySet());
+        writeAheadLog.deleteSegmentsUpTo(coveredSequence);
+        return header;
+    }
+
+    private void scheduledSnapshot() {
+        try {
+            long start = System.nanoTime();
+            UserSnapshotFile.Header header = snapshot();
+            log.info("Wrote a snapshot of {} users in {} ms",
+                    header.getUserCount(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException | RuntimeException exception) {
+            log.error("Writing the user snapshot failed", exception);
+        }
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        scheduler.shutdownNow();
+        try {
+            snapshot();
+        } finally {
+            writeAheadLog.close();
+        }
+    }
+}
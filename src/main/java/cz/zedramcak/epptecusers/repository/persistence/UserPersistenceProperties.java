@@ -0,0 +1,30 @@
+package cz.zedramcak.epptecusers.repository.persistence;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "epptec.users.persistence")
+public class UserPersistenceProperties {
+
+    /**
+     * Whether users are persisted to a write-ahead log and snapshots in {@link #directory}.
+     */
+    private boolean enabled = false;
+
+    private Path directory = Path.of("data");
+
+    /**
+     * How often a snapshot is written, after which older log segments are deleted.
+     */
+    private Duration snapshotInterval = Duration.ofMinutes(10);
+
+    /**
+     * Whether every group commit is forced to disk. Turning it off keeps the log but may lose the last
+     * writes when the machine (not just the JVM) crashes.
+     */
+    private boolean fsync = true;
+}
@@ -0,0 +1,59 @@
+package cz.zedramcak.epptecusers.repository.persistence;
+
+import cz.zedramcak.epptecusers.entity.User;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary encoding of a user shared by the write-ahead log and the snapshot file:
+ * date of birth, then birth number, first name and last name as length-prefixed UTF-8.
+ */
+final class UserRecords {
+
+    private UserRecords() {
+    }
+
+    static byte[][] encodeStrings(User user) {
+        return new byte[][]{
+                user.getBirthNumber().getBytes(StandardCharsets.UTF_8),
+                user.getFirstName().getBytes(StandardCharsets.UTF_8),
+                user.getLastName().getBytes(StandardCharsets.UTF_8)
+        };
+    }
+
+    static int encodedSize(byte[][] strings) {
+        int size = Integer.BYTES;
+        for (byte[] string : strings) {
+            size += Integer.BYTES + string.length;
+        }
+        return size;
+    }
+
+    static void write(ByteBuffer buffer, User user, byte[][] strings) {
+        buffer.putInt(user.getDateOfBirth());
+        for (byte[] string : strings) {
+            buffer.putInt(string.length);
+            buffer.put(string);
+        }
+    }
+
+    static User read(ByteBuffer buffer) {
+        User user = new User();
+        user.setDateOfBirth(buffer.getInt());
+        user.setBirthNumber(readString(buffer));
+        user.setFirstName(readString(buffer));
+        user.setLastName(readString(buffer));
+        return user;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalStateException("Corrupted user record");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,300 @@
+package cz.zedramcak.epptecusers.repository.persistence;
+
+import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.repository.UserIdCounters;
+import lombok.Value;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary image of the repository, written and read through memory-mapped regions.
+ * <p>
+ * Layout: a header (magic, format version, the log sequence the image covers, the user count and the
+ * {@link UserIdCounters} as the local and generation bits of an ID, the shard count and the next ID of each
+ * shard) followed by records of {@code [int length][int id][user]}. Format version 1 kept a single next ID,
+ * which is read as the counter of one shard owning the whole ID range.
+ * A snapshot is written to a temporary file and atomically renamed, so a crash never leaves
+ * a half-written snapshot behind, and the directory is forced so the rename survives a crash too.
+ * <p>
+ * A snapshot can also be read in parallel: one pass hops over the record lengths to split the records
+ * into segments, and the segments are then mapped and decoded on the fork-join pool.
+ */
+public final class UserSnapshotFile {
+    static final int MAGIC = 0x45505553;
+    static final int FORMAT_VERSION = 2;
+
+    private static final int SINGLE_COUNTER_FORMAT_VERSION = 1;
+    private static final int SINGLE_COUNTER_HEADER_SIZE = 32;
+    private static final int FIXED_HEADER_SIZE = 36;
+    private static final int MIN_LOCAL_ID_BITS = 16;
+
+    private static final long REGION_SIZE = 64L << 20;
+    private static final int SEGMENT_RECORDS = 1 << 16;
+    private static final long SEGMENT_SIZE = 16L << 20;
+
+    private UserSnapshotFile() {
+    }
+
+    public static Header write(Path file, long logSequence, UserIdCounters idCounters,
+                               Iterable<Map.Entry<Integer, User>> users) throws IOException {
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        long[] nextUserIds = idCounters.getNextUserIds();
+        int headerSize = FIXED_HEADER_SIZE + nextUserIds.length * Long.BYTES;
+        long userCount = 0;
+        long size;
+
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             MappedRegions regions = new MappedRegions(channel, FileChannel.MapMode.READ_WRITE, headerSize, Long.MAX_VALUE)) {
+
+            for (Map.Entry<Integer, User> user : users) {
+                byte[][] strings = UserRecords.encodeStrings(user.getValue());
+                int recordSize = Integer.BYTES + UserRecords.encodedSize(strings);
+
+                ByteBuffer buffer = regions.ensure(Integer.BYTES + recordSize);
+                buffer.putInt(recordSize);
+                buffer.putInt(user.getKey());
+                UserRecords.write(buffer, user.getValue(), strings);
+                userCount++;
+            }
+
+            size = regions.position();
+            regions.force();
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerSize);
+            header.putInt(MAGIC)
+                    .putInt(FORMAT_VERSION)
+                    .putLong(logSequence)
+                    .putLong(userCount)
+                    .putInt(idCounters.getLocalIdBits())
+                    .putInt(idCounters.getGenerationBits())
+                    .putInt(nextUserIds.length);
+            for (long nextUserId : nextUserIds) {
+                header.putLong(nextUserId);
+            }
+            header.force();
+            channel.truncate(size);
+        }
+
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Directories.force(file.toAbsolutePath().getParent());
+        return new Header(logSequence, idCounters, userCount, headerSize);
+    }
+
+    public static Header read(Path file, UserSink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+
+            try (MappedRegions regions = new MappedRegions(channel, FileChannel.MapMode.READ_ONLY, header.getSize(), channel.size())) {
+                for (long i = 0; i < header.getUserCount(); i++) {
+                    int recordSize = regions.ensure(Integer.BYTES).getInt();
+                    ByteBuffer buffer = regions.ensure(recordSize);
+                    int userId = buffer.getInt();
+                    sink.accept(userId, UserRecords.read(buffer));
+                }
+            }
+
+            return header;
+        }
+    }
+
+    /**
+     * Reads the users like {@link #read(Path, UserSink)}, but hands them to the sink from several threads
+     * at once and in no particular order, so the sink must be thread-safe.
+     */
+    public static Header readInParallel(Path file, UserSink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            List<Segment> segments = splitIntoSegments(channel, header);
+
+            try {
+                segments.parallelStream().forEach(segment -> readSegment(channel, segment, sink));
+            } catch (UncheckedIOException exception) {
+                throw exception.getCause();
+            }
+            return header;
+        }
+    }
+
+    private static List<Segment> splitIntoSegments(FileChannel channel, Header header) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        long userCount = header.getUserCount();
+
+        try (MappedRegions regions = new MappedRegions(channel, FileChannel.MapMode.READ_ONLY, header.getSize(), channel.size())) {
+            long segmentStart = header.getSize();
+            int segmentRecords = 0;
+            for (long i = 0; i < userCount; i++) {
+                int recordSize = regions.ensure(Integer.BYTES).getInt();
+                ByteBuffer buffer = regions.ensure(recordSize);
+                buffer.position(buffer.position() + recordSize);
+                segmentRecords++;
+
+                long position = regions.position();
+                if (segmentRecords == SEGMENT_RECORDS || position - segmentStart >= SEGMENT_SIZE || i == userCount - 1) {
+                    segments.add(new Segment(segmentStart, position, segmentRecords));
+                    segmentStart = position;
+                    segmentRecords = 0;
+                }
+            }
+        }
+        return segments;
+    }
+
+    private static void readSegment(FileChannel channel, Segment segment, UserSink sink) {
+        try {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, segment.start(), segment.end() - segment.start());
+            for (int i = 0; i < segment.records(); i++) {
+                int recordSize = buffer.getInt();
+                int recordEnd = buffer.position() + recordSize;
+                int userId = buffer.getInt();
+                sink.accept(userId, UserRecords.read(buffer));
+                buffer.position(recordEnd);
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Reads the header alone, so the ID counters can be checked before any user is read.
+     */
+    public static Header readHeader(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readHeader(channel);
+        }
+    }
+
+    static Header readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = mapHeader(channel, 0, Integer.BYTES * 2);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Unsupported snapshot format");
+        }
+
+        int formatVersion = header.getInt();
+        if (formatVersion == SINGLE_COUNTER_FORMAT_VERSION) {
+            header = mapHeader(channel, 0, SINGLE_COUNTER_HEADER_SIZE).position(Integer.BYTES * 2);
+            long logSequence = header.getLong();
+            int nextUserId = header.getInt();
+            return new Header(logSequence, UserIdCounters.of(nextUserId), header.getLong(), SINGLE_COUNTER_HEADER_SIZE);
+        }
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported snapshot format version " + formatVersion);
+        }
+
+        header = mapHeader(channel, 0, FIXED_HEADER_SIZE).position(Integer.BYTES * 2);
+        long logSequence = header.getLong();
+        long userCount = header.getLong();
+        int localIdBits = header.getInt();
+        int generationBits = header.getInt();
+        int shardCount = header.getInt();
+        if (localIdBits < MIN_LOCAL_ID_BITS || localIdBits >= Integer.SIZE || generationBits < 0 || generationBits > localIdBits
+                || shardCount < 1 || shardCount > 1 << (Integer.SIZE - 1 - localIdBits)) {
+            throw new IOException("The snapshot has an invalid ID layout");
+        }
+
+        int headerSize = FIXED_HEADER_SIZE + shardCount * Long.BYTES;
+        header = mapHeader(channel, FIXED_HEADER_SIZE, headerSize - FIXED_HEADER_SIZE);
+        long[] nextUserIds = new long[shardCount];
+        for (int index = 0; index < shardCount; index++) {
+            nextUserIds[index] = header.getLong();
+            if (nextUserIds[index] > (long) (index + 1) << localIdBits) {
+                throw new IOException("The snapshot has an invalid ID counter");
+            }
+        }
+        return new Header(logSequence, new UserIdCounters(localIdBits, generationBits, nextUserIds), userCount, headerSize);
+    }
+
+    private static ByteBuffer mapHeader(FileChannel channel, long position, int size) throws IOException {
+        if (channel.size() < position + size) {
+            throw new IOException("The snapshot is too short");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * Records {@code [start, end)} of the file.
+     */
+    private record Segment(long start, long end, int records) {
+    }
+
+    @FunctionalInterface
+    public interface UserSink {
+        void accept(int userId, User user);
+    }
+
+    @Value
+    public static class Header {
+        long logSequence;
+        UserIdCounters idCounters;
+        long userCount;
+        /**
+         * The size of the header in bytes, where the records start.
+         */
+        int size;
+    }
+
+    /**
+     * Walks a file through consecutive mapped regions, remapping whenever the next record does not fit
+     * into the current one. Records therefore never straddle two regions.
+     */
+    static final class MappedRegions implements Closeable {
+        private final FileChannel channel;
+        private final FileChannel.MapMode mode;
+        private final long fileSize;
+        private long regionStart;
+        private MappedByteBuffer buffer;
+
+        MappedRegions(FileChannel channel, FileChannel.MapMode mode, long start, long fileSize) {
+            this.channel = channel;
+            this.mode = mode;
+            this.regionStart = start;
+            this.fileSize = fileSize;
+        }
+
+        ByteBuffer ensure(int bytes) throws IOException {
+            if (buffer != null && buffer.remaining() >= bytes) {
+                return buffer;
+            }
+
+            long position = position();
+            long size = mode == FileChannel.MapMode.READ_ONLY
+                    ? Math.min(REGION_SIZE, fileSize - position)
+                    : Math.max(REGION_SIZE, bytes);
+            if (size < bytes) {
+                throw new IOException("Unexpected end of snapshot");
+            }
+
+            force();
+            buffer = channel.map(mode, position, size);
+            regionStart = position;
+            return buffer;
+        }
+
+        long position() {
+            return buffer == null ? regionStart : regionStart + buffer.position();
+        }
+
+        void force() {
+            if (buffer != null && mode == FileChannel.MapMode.READ_WRITE) {
+                buffer.force();
+            }
+        }
+
+        @Override
+        public void close() {
+            buffer = null;
+        }
+    }
+}
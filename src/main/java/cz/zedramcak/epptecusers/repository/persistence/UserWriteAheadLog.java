@@ -0,0 +1,423 @@
+package cz.zedramcak.epptecusers.repository.persistence;
+
+import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.exceptions.UserWriteFailedException;
+import cz.zedramcak.epptecusers.repository.UserChangeListener;
+import cz.zedramcak.epptecusers.repository.UserRepository;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of repository changes with group commit.
+ * <p>
+ * Writers only enqueue their change and, in {@link #writeCompleted()}, wait until a single writer thread
+ * has written and forced it to disk together with every other change queued meanwhile. Records are
+ * {@code [int length][int crc32][payload]}; replay stops at the first torn or corrupted record of a segment.
+ * The log is split into segments, so segments covered by a snapshot can be deleted.
+ * <p>
+ * A batch that fails to be written or forced is written again into a new segment, as the pages of the failed
+ * one may be lost. If that fails too, the log stops: the batch and every later change are rejected with a
+ * {@link UserWriteFailedException}, which makes the repository roll them back.
+ */
+@Log4j2
+public class UserWriteAheadLog implements UserChangeListener, Closeable {
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int REMOVE_PAYLOAD_SIZE = 1 + Long.BYTES + Integer.BYTES;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final String SEGMENT_PREFIX = "users-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private final Path directory;
+    private final boolean fsync;
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentLinkedQueue<PendingRecord> queue = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<CompletableFuture<Void>> lastAppend = new ThreadLocal<>();
+    private final List<Segment> closedSegments = new ArrayList<>();
+
+    private Thread writer;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private volatile CompletableFuture<Void> rollRequest;
+    private Segment currentSegment;
+    private FileChannel channel;
+
+    public UserWriteAheadLog(Path directory, boolean fsync) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.fsync = fsync;
+    }
+
+    @Override
+    public void userAdded(int userId, User user) {
+        append(new PendingRecord(ADD, sequence.incrementAndGet(), userId, user));
+    }
+
+    @Override
+    public void userRemoved(int userId, User user) {
+        append(new PendingRecord(REMOVE, sequence.incrementAndGet(), userId, null));
+    }
+
+    /**
+     * Blocks until every change the current thread has logged is on disk.
+     *
+     * @throws UserWriteFailedException if the log failed to write them
+     */
+    @Override
+    public void writeCompleted() {
+        CompletableFuture<Void> append = lastAppend.get();
+        if (append == null) {
+            return;
+        }
+
+        lastAppend.remove();
+        try {
+            append.join();
+        } catch (CompletionException exception) {
+            throw new UserWriteFailedException("Writing the user log failed", exception.getCause());
+        }
+    }
+
+    /**
+     * Queues the record, or rejects it if the log cannot write it. A record queued while the log is closed is
+     * taken back unless the writer thread took it before exiting, in which case it is written.
+     */
+    private void append(PendingRecord record) {
+        if (closed) {
+            throw new UserWriteFailedException("The user log is closed");
+        }
+        if (failure != null) {
+            throw new UserWriteFailedException("The user log failed", failure);
+        }
+        if (record.payloadSize > BUFFER_SIZE - RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("The user is too large to be logged.");
+        }
+
+        queue.add(record);
+        if (closed && queue.remove(record)) {
+            throw new UserWriteFailedException("The user log is closed");
+        }
+        lastAppend.set(record.written);
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Returns the sequence number of the last logged change. Every change with a lower or equal
+     * sequence number has already been applied to the repository.
+     */
+    public long currentSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * Replays every logged change with a sequence number above {@code afterSequence} into the repository,
+     * in log order. Must be called before {@link #start()}.
+     */
+    public long replay(long afterSequence, UserRepository userRepository) throws IOException {
+        long replayed = 0;
+        long lastSequence = afterSequence;
+
+        for (Path segmentFile : listSegments()) {
+            Segment segment = new Segment(segmentFile, segmentNumber(segmentFile));
+
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentFile), BUFFER_SIZE))) {
+                ByteBuffer payload;
+                while ((payload = readRecord(input)) != null) {
+                    byte type = payload.get();
+                    long recordSequence = payload.getLong();
+                    int userId = payload.getInt();
+
+                    segment.maxSequence = Math.max(segment.maxSequence, recordSequence);
+                    lastSequence = Math.max(lastSequence, recordSequence);
+                    if (recordSequence <= afterSequence) {
+                        continue;
+                    }
+
+                    if (type == ADD) {
+                        userRepository.restoreUser(userId, UserRecords.read(payload));
+                    } else {
+                        userRepository.restoreRemoval(userId);
+                    }
+                    replayed++;
+                }
+            }
+
+            closedSegments.add(segment);
+        }
+
+        sequence.set(lastSequence);
+        return replayed;
+    }
+
+    private static ByteBuffer readRecord(DataInputStream input) throws IOException {
+        try {
+            int length = input.readInt();
+            int checksum = input.readInt();
+            if (length < REMOVE_PAYLOAD_SIZE || length > BUFFER_SIZE) {
+                return null;
+            }
+
+            byte[] payload = new byte[length];
+            input.readFully(payload);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return (int) crc.getValue() == checksum ? ByteBuffer.wrap(payload) : null;
+        } catch (EOFException exception) {
+            return null;
+        }
+    }
+
+    public synchronized void start() throws IOException {
+        long lastSegmentNumber = closedSegments.stream().mapToLong(segment -> segment.number).max().orElse(0);
+        openSegment(lastSegmentNumber + 1);
+
+        writer = Thread.ofPlatform().name("user-wal-writer").daemon().start(this::writeLoop);
+    }
+
+    /**
+     * Starts a new segment, so that everything logged so far ends up in segments that
+     * {@link #deleteSegmentsUpTo(long)} can remove once a snapshot covers them.
+     */
+    public void roll() {
+        CompletableFuture<Void> roll = new CompletableFuture<>();
+        rollRequest = roll;
+        LockSupport.unpark(writer);
+        roll.join();
+    }
+
+    public void deleteSegmentsUpTo(long coveredSequence) throws IOException {
+        List<Segment> deletable;
+        synchronized (closedSegments) {
+            deletable = closedSegments.stream().filter(segment -> segment.maxSequence <= coveredSequence).toList();
+            closedSegments.removeAll(deletable);
+        }
+
+        for (Segment segment : deletable) {
+            Files.deleteIfExists(segment.file);
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        while (true) {
+            PendingRecord record;
+            while ((record = queue.poll()) != null) {
+                batch.add(record);
+            }
+
+            if (!batch.isEmpty()) {
+                writeBatch(batch, buffer);
+                batch.clear();
+                continue;
+            }
+
+            CompletableFuture<Void> roll = rollRequest;
+            if (roll != null) {
+                rollRequest = null;
+                rollSegment(roll);
+                continue;
+            }
+
+            if (closed) {
+                return;
+            }
+
+            LockSupport.park(this);
+        }
+    }
+
+    private void writeBatch(List<PendingRecord> batch, ByteBuffer buffer) {
+        if (failure != null) {
+            batch.forEach(record -> record.written.completeExceptionally(failure));
+            return;
+        }
+
+        try {
+            writeRecords(batch, buffer);
+        } catch (IOException exception) {
+            log.error("Writing the user log failed, writing the changes again into a new segment", exception);
+            try {
+                buffer.clear();
+                replaceFailedSegment();
+                writeRecords(batch, buffer);
+            } catch (IOException retryException) {
+                retryException.addSuppressed(exception);
+                log.error("Writing the user log failed again, rejecting all further changes", retryException);
+                buffer.clear();
+                failure = retryException;
+                batch.forEach(record -> record.written.completeExceptionally(retryException));
+                return;
+            }
+        }
+        batch.forEach(record -> record.written.complete(null));
+    }
+
+    private void writeRecords(List<PendingRecord> batch, ByteBuffer buffer) throws IOException {
+        for (PendingRecord record : batch) {
+            encode(record, buffer);
+            currentSegment.maxSequence = Math.max(currentSegment.maxSequence, record.sequence);
+        }
+        flush(buffer);
+
+        if (fsync) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Leaves the failed segment as it is, since replay stops at its first broken record, and continues in a new one.
+     */
+    private void replaceFailedSegment() throws IOException {
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            log.warn("Closing the failed user log segment {} failed", currentSegment.file, exception);
+        }
+        synchronized (closedSegments) {
+            closedSegments.add(currentSegment);
+        }
+        openSegment(currentSegment.number + 1);
+    }
+
+    private void encode(PendingRecord record, ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < RECORD_HEADER_SIZE + record.payloadSize) {
+            flush(buffer);
+        }
+
+        int recordStart = buffer.position();
+        buffer.position(recordStart + RECORD_HEADER_SIZE);
+        buffer.put(record.type).putLong(record.sequence).putInt(record.userId);
+        if (record.strings != null) {
+            UserRecords.write(buffer, record.user, record.strings);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(recordStart + RECORD_HEADER_SIZE).limit(buffer.position()));
+        buffer.putInt(recordStart, record.payloadSize);
+        buffer.putInt(recordStart + Integer.BYTES, (int) crc.getValue());
+    }
+
+    private void flush(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void rollSegment(CompletableFuture<Void> roll) {
+        try {
+            channel.force(false);
+            channel.close();
+            synchronized (closedSegments) {
+                closedSegments.add(currentSegment);
+            }
+            openSegment(currentSegment.number + 1);
+            roll.complete(null);
+        } catch (IOException exception) {
+            log.error("Rolling the user log failed", exception);
+            roll.completeExceptionally(exception);
+        }
+    }
+
+    private void openSegment(long number) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        currentSegment = new Segment(file, number);
+        if (fsync) {
+            Directories.force(directory);
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        if (writer == null) {
+            return;
+        }
+
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        channel.force(false);
+        channel.close();
+    }
+
+    private static final class PendingRecord {
+        private final byte type;
+        private final long sequence;
+        private final int userId;
+        private final User user;
+        private final byte[][] strings;
+        private final int payloadSize;
+        private final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        /**
+         * Encodes the strings of the user right away, on the thread making the change.
+         */
+        private PendingRecord(byte type, long sequence, int userId, User user) {
+            this.type = type;
+            this.sequence = sequence;
+            this.userId = userId;
+            this.user = user;
+            this.strings = user == null ? null : UserRecords.encodeStrings(user);
+            this.payloadSize = REMOVE_PAYLOAD_SIZE + (strings == null ? 0 : UserRecords.encodedSize(strings));
+        }
+    }
+
+    private static final class Segment {
+        private final Path file;
+        private final long number;
+        private long maxSequence;
+
+        private Segment(Path file, long number) {
+            this.file = file;
+            this.number = number;
+        }
+    }
+}
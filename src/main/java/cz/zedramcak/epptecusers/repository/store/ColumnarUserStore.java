@@ -0,0 +1,409 @@
+package cz.zedramcak.epptecusers.repository.store;
+
+import cz.zedramcak.epptecusers.entity.User;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntPredicate;
+
+/**
+ * Keeps users in primitive columns instead of one object graph per user.
+ * <p>
+ * IDs are handed out densely, so the slot of an ID is the row number and no map from ID to row is needed. Rows live
+ * in fixed-size chunks allocated on first use, so the table grows without copying. A birth number is packed
+ * into a {@code long} together with its format, names are dictionary-encoded and the date of birth is kept
+ * as is, which is about 20 bytes per user instead of the {@link User}, its strings and the map entry.
+ * With generation bits, a column of full IDs tells a reused row from the one an older ID points to.
+ * <p>
+ * The packed birth number is written last with release semantics and read first with acquire semantics,
+ * so a reader that sees a row also sees the rest of its columns. A reused row gets its new ID before any other
+ * column is overwritten, and readers check the ID before and after reading the row, so they never return a row
+ * that was reused while they read it. Users are materialized on every read.
+ */
+public class ColumnarUserStore implements UserStore {
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final long EMPTY = 0;
+    private static final long UNPACKED = -1;
+    private static final int PACKED_FLAG = 0b100;
+    private static final int TEN_DIGITS_FLAG = 0b010;
+    private static final int SLASH_FLAG = 0b001;
+    private static final int FLAG_BITS = 3;
+    private static final int SLASH_POSITION = 6;
+
+    private static final VarHandle BIRTH_NUMBERS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle USER_IDS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final int generationBits;
+    private final AtomicReferenceArray<Chunk> chunks;
+    private final NameDictionary names = new NameDictionary();
+    private final Map<Integer, String> unpackedBirthNumbers = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger highestSlot = new AtomicInteger(-1);
+
+    public ColumnarUserStore() {
+        this(0);
+    }
+
+    /**
+     * @param generationBits see {@link UserStore#getGenerationBits()}
+     */
+    public ColumnarUserStore(int generationBits) {
+        if (generationBits < 0 || generationBits > MAX_GENERATION_BITS) {
+            throw new IllegalArgumentException("Generation bits must be between 0 and " + MAX_GENERATION_BITS
+                    + ": " + generationBits);
+        }
+        this.generationBits = generationBits;
+        this.chunks = new AtomicReferenceArray<>(1 << (Integer.SIZE - 1 - CHUNK_BITS - generationBits));
+    }
+
+    @Override
+    public int getGenerationBits() {
+        return generationBits;
+    }
+
+    @Override
+    public void put(int userId, User user) {
+        Chunk chunk = chunkForWrite(userId);
+        int slot = userId >>> generationBits;
+        int row = slot & CHUNK_MASK;
+        if (chunk.userIds != null) {
+            USER_IDS.setRelease(chunk.userIds, row, userId);
+            VarHandle.releaseFence();
+        }
+
+        long birthNumber = pack(user.getBirthNumber());
+        if (birthNumber == UNPACKED) {
+            unpackedBirthNumbers.put(userId, user.getBirthNumber());
+        } else {
+            unpackedBirthNumbers.remove(userId);
+        }
+        chunk.firstNames[row] = names.encode(user.getFirstName());
+        chunk.lastNames[row] = names.encode(user.getLastName());
+        chunk.datesOfBirth[row] = user.getDateOfBirth();
+
+        long previous = (long) BIRTH_NUMBERS.getAndSetRelease(chunk.birthNumbers, row, birthNumber);
+        if (previous == EMPTY) {
+            size.incrementAndGet();
+        }
+        if (slot > highestSlot.get()) {
+            highestSlot.accumulateAndGet(slot, Math::max);
+        }
+    }
+
+    @Override
+    public User get(int userId) {
+        Chunk chunk = chunk(userId);
+        if (chunk == null) {
+            return null;
+        }
+
+        int row = (userId >>> generationBits) & CHUNK_MASK;
+        return chunk.holds(row, userId) ? read(chunk, row, userId) : null;
+    }
+
+    /**
+     * Materializes the row read as holding the given ID, or returns {@code null} if it is empty or no longer
+     * holds the ID.
+     */
+    private User read(Chunk chunk, int row, int userId) {
+        long birthNumber = (long) BIRTH_NUMBERS.getAcquire(chunk.birthNumbers, row);
+        if (birthNumber == EMPTY) {
+            return null;
+        }
+        User user = materialize(chunk, row, userId, birthNumber);
+        return chunk.stillHolds(row, userId) ? user : null;
+    }
+
+    private User materialize(Chunk chunk, int row, int userId, long birthNumber) {
+        User user = new User();
+        user.setBirthNumber(birthNumber == UNPACKED ? unpackedBirthNumbers.get(userId) : unpack(birthNumber));
+        user.setFirstName(names.decode(chunk.firstNames[row]));
+        user.setLastName(names.decode(chunk.lastNames[row]));
+        user.setDateOfBirth(chunk.datesOfBirth[row]);
+        return user;
+    }
+
+    @Override
+    public boolean contains(int userId) {
+        Chunk chunk = chunk(userId);
+        if (chunk == null) {
+            return false;
+        }
+
+        int row = (userId >>> generationBits) & CHUNK_MASK;
+        return chunk.holds(row, userId) && (long) BIRTH_NUMBERS.getAcquire(chunk.birthNumbers, row) != EMPTY
+                && chunk.holds(row, userId);
+    }
+
+    @Override
+    public boolean remove(int userId) {
+        Chunk chunk = chunk(userId);
+        if (chunk == null) {
+            return false;
+        }
+
+        int row = (userId >>> generationBits) & CHUNK_MASK;
+        long previous = chunk.holds(row, userId) ? (long) BIRTH_NUMBERS.getAcquire(chunk.birthNumbers, row) : EMPTY;
+        if (previous == EMPTY || !chunk.holds(row, userId)
+                || !BIRTH_NUMBERS.compareAndSet(chunk.birthNumbers, row, previous, EMPTY)) {
+            return false;
+        }
+        if (previous == UNPACKED) {
+            unpackedBirthNumbers.remove(userId);
+        }
+        size.decrementAndGet();
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    int dictionarySize() {
+        return names.size();
+    }
+
+    @Override
+    public Map<Integer, User> asMap() {
+        return new UserView(-1);
+    }
+
+    @Override
+    public Map<Integer, User> tailMap(int afterUserId) {
+        return new UserView(afterUserId);
+    }
+
+    /**
+     * Scans one chunk per partition. Only the date of birth column is read for rows that do not match.
+     */
+    @Override
+    public UserScanResult scanByDateOfBirth(IntPredicate dateOfBirthFilter) {
+        return ParallelScan.scan(0, highestSlot.get(), CHUNK_SIZE, (fromSlot, toSlot, matches) -> {
+            Chunk chunk = chunks.get(fromSlot >>> CHUNK_BITS);
+            if (chunk == null) {
+                return;
+            }
+
+            for (int slot = fromSlot; slot < toSlot; slot++) {
+                int row = slot & CHUNK_MASK;
+                int userId = chunk.userIdAt(row, slot);
+                long birthNumber = (long) BIRTH_NUMBERS.getAcquire(chunk.birthNumbers, row);
+                if (birthNumber != EMPTY && dateOfBirthFilter.test(chunk.datesOfBirth[row])) {
+                    User user = materialize(chunk, row, userId, birthNumber);
+                    if (chunk.stillHolds(row, userId)) {
+                        matches.add(userId, user);
+                    }
+                }
+            }
+        });
+    }
+
+    private Chunk chunk(int userId) {
+        return userId < 0 ? null : chunks.get(userId >>> generationBits >>> CHUNK_BITS);
+    }
+
+    private Chunk chunkForWrite(int userId) {
+        if (userId < 0) {
+            throw new IllegalArgumentException("User ID must not be negative: " + userId);
+        }
+
+        int index = userId >>> generationBits >>> CHUNK_BITS;
+        Chunk chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new Chunk(generationBits > 0));
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+
+    /**
+     * Packs a birth number made of nine or ten digits, optionally with a slash after the sixth one.
+     * Anything else is kept as a string on the side.
+     */
+    static long pack(String birthNumber) {
+        int length = birthNumber.length();
+        boolean slash = length > SLASH_POSITION && birthNumber.charAt(SLASH_POSITION) == '/';
+        int digits = slash ? length - 1 : length;
+        if (digits != 9 && digits != 10) {
+            return UNPACKED;
+        }
+
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            if (slash && i == SLASH_POSITION) {
+                continue;
+            }
+
+            char c = birthNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return UNPACKED;
+            }
+            value = value * 10 + (c - '0');
+        }
+
+        return value << FLAG_BITS | PACKED_FLAG | (digits == 10 ? TEN_DIGITS_FLAG : 0) | (slash ? SLASH_FLAG : 0);
+    }
+
+    static String unpack(long birthNumber) {
+        boolean slash = (birthNumber & SLASH_FLAG) != 0;
+        int digits = (birthNumber & TEN_DIGITS_FLAG) != 0 ? 10 : 9;
+        long value = birthNumber >>> FLAG_BITS;
+
+        char[] chars = new char[slash ? digits + 1 : digits];
+        for (int i = chars.length - 1; i >= 0; i--) {
+            if (slash && i == SLASH_POSITION) {
+                chars[i] = '/';
+                continue;
+            }
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(chars);
+    }
+
+    private static final class Chunk {
+        private final long[] birthNumbers = new long[CHUNK_SIZE];
+        private final int[] firstNames = new int[CHUNK_SIZE];
+        private final int[] lastNames = new int[CHUNK_SIZE];
+        private final int[] datesOfBirth = new int[CHUNK_SIZE];
+        private final int[] userIds;
+
+        private Chunk(boolean tagged) {
+            this.userIds = tagged ? new int[CHUNK_SIZE] : null;
+        }
+
+        private boolean holds(int row, int userId) {
+            return userIds == null || (int) USER_IDS.getAcquire(userIds, row) == userId;
+        }
+
+        /**
+         * Checks the ID again after the other columns of the row were read, which keeps those reads before it.
+         */
+        private boolean stillHolds(int row, int userId) {
+            if (userIds == null) {
+                return true;
+            }
+            VarHandle.acquireFence();
+            return (int) USER_IDS.getAcquire(userIds, row) == userId;
+        }
+
+        private int userIdAt(int row, int slot) {
+            return userIds == null ? slot : (int) USER_IDS.getAcquire(userIds, row);
+        }
+    }
+
+    private final class UserView extends AbstractMap<Integer, User> {
+        private final int afterUserId;
+
+        private UserView(int afterUserId) {
+            this.afterUserId = afterUserId;
+        }
+
+        @Override
+        public User get(Object key) {
+            return key instanceof Integer userId && userId > afterUserId ? ColumnarUserStore.this.get(userId) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Integer userId && userId > afterUserId && contains(userId);
+        }
+
+        @Override
+        public int size() {
+            if (afterUserId < 0) {
+                return ColumnarUserStore.this.size();
+            }
+
+            int count = 0;
+            for (Iterator<Entry<Integer, User>> users = entrySet().iterator(); users.hasNext(); users.next()) {
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !entrySet().iterator().hasNext();
+        }
+
+        @Override
+        public Set<Entry<Integer, User>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Integer, User>> iterator() {
+                    return new UserIterator(afterUserId);
+                }
+
+                @Override
+                public int size() {
+                    return UserView.this.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Walks the rows in order, which is the ID order as a row holds a single ID at a time.
+     */
+    private final class UserIterator implements Iterator<Map.Entry<Integer, User>> {
+        private final int afterUserId;
+        private int slot;
+        private Map.Entry<Integer, User> next;
+
+        private UserIterator(int afterUserId) {
+            this.afterUserId = afterUserId;
+            this.slot = afterUserId < 0 ? -1 : (afterUserId >>> generationBits) - 1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+
+            int highest = highestSlot.get();
+            while (slot < highest) {
+                int current = ++slot;
+                Chunk chunk = chunks.get(current >>> CHUNK_BITS);
+                if (chunk == null) {
+                    slot = current | CHUNK_MASK;
+                    continue;
+                }
+
+                int row = current & CHUNK_MASK;
+                int userId = chunk.userIdAt(row, current);
+                User user = userId > afterUserId ? read(chunk, row, userId) : null;
+                if (user != null) {
+                    next = Map.entry(userId, user);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Map.Entry<Integer, User> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Map.Entry<Integer, User> user = next;
+            next = null;
+            return user;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package cz.zedramcak.epptecusers.repository.store;
+
+import cz.zedramcak.epptecusers.entity.User;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntPredicate;
+
+/**
+ * Keeps the {@link User} objects as they were added in a table of slots indexed by ID.
+ * <p>
+ * IDs are handed out densely, so the slot of an ID is found by shifting off its generation bits, with no hashing
+ * and no boxed keys. Slots live in fixed-size chunks allocated on first use, so the table grows without copying.
+ * With generation bits, a chunk also keeps the full ID of each slot, which tells a reused slot from the one an
+ * older ID points to.
+ * <p>
+ * The ID is written before the user, both with release semantics, and readers read the ID before and after
+ * the user, both with acquire semantics. A reader that reads the same ID twice has read a user stored under it,
+ * as a reused slot gets its new ID before its new user, and only after the old user has left.
+ */
+public class HeapUserStore implements UserStore {
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final VarHandle USERS = MethodHandles.arrayElementVarHandle(User[].class);
+    private static final VarHandle USER_IDS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final int generationBits;
+    private final AtomicReferenceArray<Chunk> chunks;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger lowestSlot = new AtomicInteger(Integer.MAX_VALUE);
+    private final AtomicInteger highestSlot = new AtomicInteger(-1);
+
+    public HeapUserStore() {
+        this(0);
+    }
+
+    /**
+     * @param generationBits see {@link UserStore#getGenerationBits()}
+     */
+    public HeapUserStore(int generationBits) {
+        if (generationBits < 0 || generationBits > MAX_GENERATION_BITS) {
+            throw new IllegalArgumentException("Generation bits must be between 0 and " + MAX_GENERATION_BITS
+                    + ": " + generationBits);
+        }
+        this.generationBits = generationBits;
+        this.chunks = new AtomicReferenceArray<>(1 << (Integer.SIZE - 1 - CHUNK_BITS - generationBits));
+    }
+
+    @Override
+    public int getGenerationBits() {
+        return generationBits;
+    }
+
+    @Override
+    public void put(int userId, User user) {
+        if (userId < 0) {
+            throw new IllegalArgumentException("User ID must not be negative: " + userId);
+        }
+
+        int slot = userId >>> generationBits;
+        Chunk chunk = chunkForWrite(slot);
+        int row = slot & CHUNK_MASK;
+        if (chunk.userIds != null) {
+            USER_IDS.setRelease(chunk.userIds, row, userId);
+        }
+
+        if (USERS.getAndSetRelease(chunk.users, row, user) == null) {
+            size.incrementAndGet();
+        }
+        if (slot < lowestSlot.get()) {
+            lowestSlot.accumulateAndGet(slot, Math::min);
+        }
+        if (slot > highestSlot.get()) {
+            highestSlot.accumulateAndGet(slot, Math::max);
+        }
+    }
+
+    @Override
+    public User get(int userId) {
+        Chunk chunk = chunkOf(userId);
+        if (chunk == null) {
+            return null;
+        }
+
+        int row = (userId >>> generationBits) & CHUNK_MASK;
+        if (!chunk.holds(row, userId)) {
+            return null;
+        }
+        User user = (User) USERS.getAcquire(chunk.users, row);
+        return user != null && chunk.holds(row, userId) ? user : null;
+    }
+
+    @Override
+    public boolean contains(int userId) {
+        return get(userId) != null;
+    }
+
+    @Override
+    public boolean remove(int userId) {
+        Chunk chunk = chunkOf(userId);
+        if (chunk == null) {
+            return false;
+        }
+
+        int row = (userId >>> generationBits) & CHUNK_MASK;
+        User user = chunk.holds(row, userId) ? (User) USERS.getAcquire(chunk.users, row) : null;
+        if (user == null || !chunk.holds(row, userId) || !USERS.compareAndSet(chunk.users, row, user, null)) {
+            return false;
+        }
+        size.decrementAndGet();
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public Map<Integer, User> asMap() {
+        return new UserView(-1);
+    }
+
+    @Override
+    public Map<Integer, User> tailMap(int afterUserId) {
+        return new UserView(afterUserId);
+    }
+
+    /**
+     * Scans one chunk per partition.
+     */
+    @Override
+    public UserScanResult scanByDateOfBirth(IntPredicate dateOfBirthFilter) {
+        return ParallelScan.scan(lowestSlot.get(), highestSlot.get(), CHUNK_SIZE, (fromSlot, toSlot, matches) -> {
+            Chunk chunk = chunks.get(fromSlot >>> CHUNK_BITS);
+            if (chunk == null) {
+                return;
+            }
+
+            for (int slot = fromSlot; slot < toSlot; slot++) {
+                int row = slot & CHUNK_MASK;
+                int userId = chunk.userIdAt(row, slot);
+                User user = (User) USERS.getAcquire(chunk.users, row);
+                if (user != null && chunk.holds(row, userId) && dateOfBirthFilter.test(user.getDateOfBirth())) {
+                    matches.add(userId, user);
+                }
+            }
+        });
+    }
+
+    private Chunk chunkOf(int userId) {
+        return userId < 0 ? null : chunks.get(userId >>> generationBits >>> CHUNK_BITS);
+    }
+
+    private Chunk chunkForWrite(int slot) {
+        int index = slot >>> CHUNK_BITS;
+        Chunk chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new Chunk(generationBits > 0));
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+
+    private static final class Chunk {
+        private final User[] users = new User[CHUNK_SIZE];
+        private final int[] userIds;
+
+        private Chunk(boolean tagged) {
+            this.userIds = tagged ? new int[CHUNK_SIZE] : null;
+        }
+
+        private boolean holds(int row, int userId) {
+            return userIds == null || (int) USER_IDS.getAcquire(userIds, row) == userId;
+        }
+
+        private int userIdAt(int row, int slot) {
+            return userIds == null ? slot : (int) USER_IDS.getAcquire(userIds, row);
+        }
+    }
+
+    private final class UserView extends AbstractMap<Integer, User> {
+        private final int afterUserId;
+
+        private UserView(int afterUserId) {
+            this.afterUserId = afterUserId;
+        }
+
+        @Override
+        public User get(Object key) {
+            return key instanceof Integer userId && userId > afterUserId ? HeapUserStore.this.get(userId) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            if (afterUserId < 0) {
+                return HeapUserStore.this.size();
+            }
+
+            int count = 0;
+            for (Iterator<Entry<Integer, User>> users = entrySet().iterator(); users.hasNext(); users.next()) {
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !entrySet().iterator().hasNext();
+        }
+
+        @Override
+        public Set<Entry<Integer, User>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Integer, User>> iterator() {
+                    return new UserIterator(afterUserId);
+                }
+
+                @Override
+                public int size() {
+                    return UserView.this.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Walks the slots in order, which is the ID order as a slot holds a single ID at a time.
+     */
+    private final class UserIterator implements Iterator<Map.Entry<Integer, User>> {
+        private final int afterUserId;
+        private int slot;
+        private Map.Entry<Integer, User> next;
+
+        private UserIterator(int afterUserId) {
+            this.afterUserId = afterUserId;
+            this.slot = Math.max(afterUserId < 0 ? 0 : afterUserId >>> generationBits, lowestSlot.get()) - 1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+
+            int highest = highestSlot.get();
+            while (slot < highest) {
+                int current = ++slot;
+                Chunk chunk = chunks.get(current >>> CHUNK_BITS);
+                if (chunk == null) {
+                    slot = current | CHUNK_MASK;
+                    continue;
+                }
+
+                int row = current & CHUNK_MASK;
+                int userId = chunk.userIdAt(row, current);
+                User user = (User) USERS.getAcquire(chunk.users, row);
+                if (user != null && chunk.holds(row, userId) && userId > afterUserId) {
+                    next = Map.entry(userId, user);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Map.Entry<Integer, User> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Map.Entry<Integer, User> user = next;
+            next = null;
+            return user;
+        }
+    }
+}
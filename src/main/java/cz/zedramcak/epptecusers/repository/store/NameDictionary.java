@@ -0,0 +1,49 @@
+package cz.zedramcak.epptecusers.repository.store;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns a dense code to every distinct name, so a stored name costs one {@code int}.
+ * Codes are never released: names repeat a lot and the dictionary stays small compared to the users.
+ */
+class NameDictionary {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[INITIAL_CAPACITY];
+    private int size;
+
+    int encode(String name) {
+        Integer code = codes.get(name);
+        return code != null ? code : addName(name);
+    }
+
+    private synchronized int addName(String name) {
+        Integer code = codes.get(name);
+        if (code != null) {
+            return code;
+        }
+
+        String[] currentNames = names;
+        if (size == currentNames.length) {
+            currentNames = Arrays.copyOf(currentNames, size * 2);
+        }
+        currentNames[size] = name;
+        names = currentNames;
+        codes.put(name, size);
+        return size++;
+    }
+
+    /**
+     * Callers must have obtained the code through a happens-before edge with its {@link #encode} call.
+     */
+    String decode(int code) {
+        return names[code];
+    }
+
+    int size() {
+        return codes.size();
+    }
+}
@@ -0,0 +1,43 @@
+package cz.zedramcak.epptecusers.repository.store;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Splits the slots of a store into equal partitions and scans them in parallel on the
+ * fork-join pool of the calling thread, or the common pool. Each partition collects its own
+ * matches, and the partial results are concatenated once in slot order, which is ID order.
+ */
+final class ParallelScan {
+    private ParallelScan() {
+    }
+
+    @FunctionalInterface
+    interface PartitionScanner {
+        /**
+         * Adds the matching users whose slot is within {@code [fromSlot, toSlot)}, in slot order.
+         */
+        void scan(int fromSlot, int toSlot, UserScanResult.Builder matches);
+    }
+
+    /**
+     * Scans the partitions between the ones holding the lowest and the highest used slot.
+     */
+    static UserScanResult scan(int lowestSlot, int highestSlot, int partitionSize, PartitionScanner scanner) {
+        int firstPartition = Math.max(lowestSlot, 0) / partitionSize;
+        int partitions = highestSlot < 0 ? firstPartition : highestSlot / partitionSize + 1;
+
+        List<UserScanResult> matches = IntStream.range(firstPartition, partitions)
+                .parallel()
+                .mapToObj(partition -> {
+                    int fromSlot = partition * partitionSize;
+                    int toSlot = (int) Math.min((long) fromSlot + partitionSize, (long) highestSlot + 1);
+                    UserScanResult.Builder partitionMatches = new UserScanResult.Builder();
+                    scanner.scan(fromSlot, toSlot, partitionMatches);
+                    return partitionMatches.build();
+                })
+                .toList();
+
+        return UserScanResult.join(matches);
+    }
+}
@@ -0,0 +1,124 @@
+package cz.zedramcak.epptecusers.repository.store;
+
+import cz.zedramcak.epptecusers.entity.User;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only, ID-ordered map of the users found by a scan, backed by an array of IDs and an array of users.
+ */
+public final class UserScanResult extends AbstractMap<Integer, User> {
+    private final int[] userIds;
+    private final User[] users;
+    private final int size;
+
+    private UserScanResult(int[] userIds, User[] users, int size) {
+        this.userIds = userIds;
+        this.users = users;
+        this.size = size;
+    }
+
+    /**
+     * Joins results that are each ordered by ID and come in ID order.
+     */
+    public static UserScanResult join(List<UserScanResult> results) {
+        int size = 0;
+        for (UserScanResult result : results) {
+            size += result.size;
+        }
+
+        int[] userIds = new int[size];
+        User[] users = new User[size];
+        int offset = 0;
+        for (UserScanResult result : results) {
+            System.arraycopy(result.userIds, 0, userIds, offset, result.size);
+            System.arraycopy(result.users, 0, users, offset, result.size);
+            offset += result.size;
+        }
+        return new UserScanResult(userIds, users, size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public User get(Object key) {
+        int index = indexOf(key);
+        return index < 0 ? null : users[index];
+    }
+
+    private int indexOf(Object key) {
+        return key instanceof Integer userId ? Arrays.binarySearch(userIds, 0, size, userId) : -1;
+    }
+
+    @Override
+    public Set<Entry<Integer, User>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<Integer, User>> iterator() {
+                return new Iterator<>() {
+                    private int index;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < size;
+                    }
+
+                    @Override
+                    public Entry<Integer, User> next() {
+                        if (index >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<Integer, User> entry = new SimpleImmutableEntry<>(userIds[index], users[index]);
+                        index++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Collects the users found in one partition, in ID order.
+     */
+    static final class Builder {
+        private int[] userIds = new int[16];
+        private User[] users = new User[16];
+        private int size;
+
+        void add(int userId, User user) {
+            if (size == userIds.length) {
+                userIds = Arrays.copyOf(userIds, size * 2);
+                users = Arrays.copyOf(users, size * 2);
+            }
+            userIds[size] = userId;
+            users[size] = user;
+            size++;
+        }
+
+        /**
+         * Wraps the collected users without copying them, so the builder must not be added to afterwards.
+         */
+        UserScanResult build() {
+            return new UserScanResult(userIds, users, size);
+        }
+    }
+}
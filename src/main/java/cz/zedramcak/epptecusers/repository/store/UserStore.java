@@ -0,0 +1,54 @@
+package cz.zedramcak.epptecusers.repository.store;
+
+import cz.zedramcak.epptecusers.entity.User;
+
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Storage of users by ID behind {@link cz.zedramcak.epptecusers.repository.UserRepository}.
+ * <p>
+ * The repository serializes changes per birth number and never stores two users under the same ID
+ * outside of recovery, so implementations only need to be safe for concurrent changes of different IDs.
+ */
+public interface UserStore {
+    int MAX_GENERATION_BITS = 8;
+
+    /**
+     * Returns the number of low ID bits that count how many times the slot of an ID was reused, or 0 if every ID
+     * has a slot of its own. The store keeps at most one user per {@code userId >>> getGenerationBits()} and
+     * finds nothing under an ID whose slot holds another generation, so the repository may hand the slot of a
+     * removed user out again under the next generation.
+     */
+    int getGenerationBits();
+
+    void put(int userId, User user);
+
+    User get(int userId);
+
+    boolean contains(int userId);
+
+    /**
+     * @return {@code true} if a user was stored under the ID
+     */
+    boolean remove(int userId);
+
+    int size();
+
+    /**
+     * Returns a live, ID-ordered, read-only view of all users. Iterating it never throws on concurrent modification.
+     */
+    Map<Integer, User> asMap();
+
+    /**
+     * Returns the same view as {@link #asMap()} restricted to users whose ID is greater than the given one.
+     */
+    Map<Integer, User> tailMap(int afterUserId);
+
+    /**
+     * Returns the users whose date of birth passes the filter, in ID order. The filter gets the date as
+     * {@code yyyyMMdd}, or {@link User#UNKNOWN_DATE_OF_BIRTH}. The ID range is scanned in parallel partitions,
+     * so the scan sees each user as it was when its partition got to it.
+     */
+    UserScanResult scanByDateOfBirth(IntPredicate dateOfBirthFilter);
+}
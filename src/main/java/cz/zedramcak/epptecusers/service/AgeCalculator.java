@@ -0,0 +1,94 @@
+package cz.zedramcak.epptecusers.service;
+
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+/**
+ * Computes ages from {@code yyyyMMdd} dates of birth. The current date is derived from the
+ * clock once per day, so computing an age is a subtraction and a division.
+ */
+@Component
+public class AgeCalculator {
+    private final Clock clock;
+    private volatile Today today;
+
+    public AgeCalculator(Clock clock) {
+        this.clock = clock;
+    }
+
+    public static int toDateOfBirth(LocalDate date) {
+        return date.getYear() * 10_000 + date.getMonthValue() * 100 + date.getDayOfMonth();
+    }
+
+    /**
+     * Returns the current date. Callers handling many users capture it once, which also keeps
+     * the ages in one response consistent if it is built across midnight.
+     */
+    public Today today() {
+        Today cached = today;
+        long now = clock.millis();
+
+        if (cached == null || now < cached.validFrom || now >= cached.validUntil) {
+            cached = Today.of(LocalDate.now(clock), clock.getZone());
+            today = cached;
+        }
+
+        return cached;
+    }
+
+    public static final class Today {
+        private final LocalDate date;
+        private final int comparableDate;
+        private final long validFrom;
+        private final long validUntil;
+
+        private Today(LocalDate date, int comparableDate, long validFrom, long validUntil) {
+            this.date = date;
+            this.comparableDate = comparableDate;
+            this.validFrom = validFrom;
+            this.validUntil = validUntil;
+        }
+
+        static Today of(LocalDate date, ZoneId zone) {
+            int comparableDate = toDateOfBirth(date);
+
+            // People born on 29 February have their birthday on 28 February in common years.
+            if (!date.isLeapYear() && date.getMonthValue() == 2 && date.getDayOfMonth() == 28) {
+                comparableDate++;
+            }
+
+            long validFrom = date.atStartOfDay(zone).toInstant().toEpochMilli();
+            long validUntil = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            return new Today(date, comparableDate, validFrom, validUntil);
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        /**
+         * Returns the age in whole years, rounded down, so a date of birth in the future gives a negative age.
+         */
+        public int ageOf(int dateOfBirth) {
+            return Math.floorDiv(comparableDate - dateOfBirth, 10_000);
+        }
+
+        /**
+         * Returns the latest {@code yyyyMMdd} date of birth of someone who is at least the given age today.
+         */
+        public int latestDateOfBirthForAge(int age) {
+            return comparableDate - age * 10_000;
+        }
+
+        /**
+         * Returns the earliest {@code yyyyMMdd} date of birth of someone who is at most the given age today.
+         * The result is only meant for comparisons and need not be a valid date.
+         */
+        public int earliestDateOfBirthForAge(int age) {
+            return comparableDate - (age + 1) * 10_000 + 1;
+        }
+    }
+}
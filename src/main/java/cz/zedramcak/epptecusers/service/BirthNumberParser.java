@@ -0,0 +1,102 @@
+package cz.zedramcak.epptecusers.service;
+
+import cz.zedramcak.epptecusers.entity.BirthNumber;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.LocalDate;
+
+/**
+ * Parses birth numbers in the {@code YYMMDDXXXX} or {@code YYMMDD/XXXX} form in a single pass
+ * over the characters, without regular expressions or substrings.
+ */
+@Component
+public class BirthNumberParser {
+    private static final int DIGITS = 10;
+    private static final int DATE_DIGITS = 6;
+    private static final int FEMALE_MONTH_OFFSET = 50;
+    private static final char SEPARATOR = '/';
+
+    private final Clock clock;
+
+    public BirthNumberParser(Clock clock) {
+        this.clock = clock;
+    }
+
+    public BirthNumber parse(String birthNumber) {
+        if (birthNumber == null) {
+            return BirthNumber.INVALID;
+        }
+
+        boolean hasSeparator = birthNumber.length() == DIGITS + 1;
+        if (!hasSeparator && birthNumber.length() != DIGITS) {
+            return BirthNumber.INVALID;
+        }
+        if (hasSeparator && birthNumber.charAt(DATE_DIGITS) != SEPARATOR) {
+            return BirthNumber.INVALID;
+        }
+        if (!hasOnlyDigits(birthNumber, hasSeparator)) {
+            return BirthNumber.INVALID;
+        }
+
+        int year = twoDigits(birthNumber, 0);
+        int month = twoDigits(birthNumber, 2);
+        int day = twoDigits(birthNumber, 4);
+
+        if (month > FEMALE_MONTH_OFFSET) {
+            month = month - FEMALE_MONTH_OFFSET;
+        }
+
+        if (month < 1 || month > 12) {
+            return BirthNumber.INVALID;
+        }
+
+        int fullYear = fullYear(year);
+
+        if (day < 1 || day > getMaxDayInMonth(fullYear, month)) {
+            return BirthNumber.INVALID;
+        }
+
+        String canonical = hasSeparator ? birthNumber : withSeparator(birthNumber);
+        return BirthNumber.of(canonical, LocalDate.of(fullYear, month, day));
+    }
+
+    private static boolean hasOnlyDigits(String birthNumber, boolean hasSeparator) {
+        for (int i = 0; i < birthNumber.length(); i++) {
+            if (hasSeparator && i == DATE_DIGITS) {
+                continue;
+            }
+            char character = birthNumber.charAt(i);
+            if (character < '0' || character > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int twoDigits(String birthNumber, int index) {
+        return (birthNumber.charAt(index) - '0') * 10 + (birthNumber.charAt(index + 1) - '0');
+    }
+
+    private int fullYear(int year) {
+        int thisYear = LocalDate.now(clock).getYear() % 100;
+        int century = (year > thisYear) ? 1900 : 2000;
+        return century + year;
+    }
+
+    private static String withSeparator(String birthNumber) {
+        char[] canonical = new char[DIGITS + 1];
+        birthNumber.getChars(0, DATE_DIGITS, canonical, 0);
+        canonical[DATE_DIGITS] = SEPARATOR;
+        birthNumber.getChars(DATE_DIGITS, DIGITS, canonical, DATE_DIGITS + 1);
+        return new String(canonical);
+    }
+
+    private static int getMaxDayInMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> ((year % 4 == 0 && year % 100 != 0) || (year % 400 == 0)) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+}
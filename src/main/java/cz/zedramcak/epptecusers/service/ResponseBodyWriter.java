@@ -0,0 +1,13 @@
+package cz.zedramcak.epptecusers.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a response body prepared while the request was handled. Rejections are thrown while preparing it,
+ * so the body itself can be streamed after the response status is sent.
+ */
+@FunctionalInterface
+public interface ResponseBodyWriter {
+    void writeTo(OutputStream outputStream) throws IOException;
+}
@@ -0,0 +1,190 @@
+package cz.zedramcak.epptecusers.service;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.repository.UserChangeListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Writes users as the JSON of {@link cz.zedramcak.epptecusers.entity.dto.UserDTO} without building DTOs.
+ * <p>
+ * Everything but the age never changes after a user is added, so that part is encoded once, when the user
+ * is added or restored, and a response only appends the age to each fragment. Fragments of users added
+ * before this writer existed are encoded on every read.
+ */
+@Component
+public class UserJsonWriter implements UserChangeListener {
+    private static final int FLUSH_SIZE = 64 * 1024;
+    private static final JsonStringEncoder ENCODER = JsonStringEncoder.getInstance();
+    private static final byte[] ID = ascii("{\"id\":");
+    private static final byte[] BIRTH_NUMBER = ascii(",\"birthNumber\":\"");
+    private static final byte[] FIRST_NAME = ascii("\",\"firstName\":\"");
+    private static final byte[] LAST_NAME = ascii("\",\"lastName\":\"");
+    private static final byte[] AGE = ascii("\",\"age\":");
+
+    private final Map<Integer, byte[]> fragments = new ConcurrentHashMap<>();
+    private final boolean cacheFragments;
+
+    public UserJsonWriter() {
+        this(true);
+    }
+
+    /**
+     * @param cacheFragments whether fragments are kept for every user, at about 100 bytes per user. By default
+     *                       they are, unless the users are stored in columns, which would take more than the
+     *                       columns save.
+     */
+    @Autowired
+    public UserJsonWriter(@Value("${epptec.users.json-fragments.enabled:#{'${epptec.users.storage:heap}' != 'columnar'}}")
+                          boolean cacheFragments) {
+        this.cacheFragments = cacheFragments;
+    }
+
+    @Override
+    public void userAdded(int userId, User user) {
+        if (cacheFragments) {
+            fragments.put(userId, encode(userId, user));
+        }
+    }
+
+    @Override
+    public void userRemoved(int userId, User user) {
+        fragments.remove(userId);
+    }
+
+    @Override
+    public void restoredUserAdded(int userId, User user) {
+        userAdded(userId, user);
+    }
+
+    @Override
+    public void restoredUserRemoved(int userId, User user) {
+        userRemoved(userId, user);
+    }
+
+    /**
+     * Returns the users as a JSON array in iteration order.
+     */
+    public byte[] toJsonArray(Map<Integer, User> users, ToIntFunction<User> age) {
+        JsonBytes json = new JsonBytes(FLUSH_SIZE);
+        json.append('[');
+        users.forEach((userId, user) -> {
+            if (json.size() > 1) {
+                json.append(',');
+            }
+            appendUser(json, userId, user, age);
+        });
+        json.append(']');
+        return json.toByteArray();
+    }
+
+    /**
+     * Writes the users as one JSON object per line, flushing to the stream in chunks.
+     */
+    public void writeJsonLines(Map<Integer, User> users, ToIntFunction<User> age, OutputStream outputStream) throws IOException {
+        JsonBytes json = new JsonBytes(FLUSH_SIZE + 1024);
+        for (Map.Entry<Integer, User> user : users.entrySet()) {
+            appendUser(json, user.getKey(), user.getValue(), age);
+            json.append('\n');
+            if (json.size() >= FLUSH_SIZE) {
+                json.writeTo(outputStream);
+            }
+        }
+        json.writeTo(outputStream);
+    }
+
+    private void appendUser(JsonBytes json, int userId, User user, ToIntFunction<User> age) {
+        byte[] fragment = fragments.get(userId);
+        json.append(fragment != null ? fragment : encode(userId, user));
+        json.append(age.applyAsInt(user));
+        json.append('}');
+    }
+
+    static byte[] encode(int userId, User user) {
+        JsonBytes json = new JsonBytes(96);
+        json.append(ID);
+        json.append(userId);
+        json.append(BIRTH_NUMBER);
+        json.append(ENCODER.quoteAsUTF8(user.getBirthNumber()));
+        json.append(FIRST_NAME);
+        json.append(ENCODER.quoteAsUTF8(user.getFirstName()));
+        json.append(LAST_NAME);
+        json.append(ENCODER.quoteAsUTF8(user.getLastName()));
+        json.append(AGE);
+        return json.toByteArray();
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Unsynchronized growable byte buffer.
+     */
+    private static final class JsonBytes {
+        private byte[] bytes;
+        private int size;
+
+        private JsonBytes(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        void append(byte[] value) {
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, bytes, size, value.length);
+            size += value.length;
+        }
+
+        void append(char asciiCharacter) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) asciiCharacter;
+        }
+
+        void append(int value) {
+            ensureCapacity(11);
+            if (value < 0) {
+                bytes[size++] = '-';
+                value = -value;
+            }
+
+            int digits = 1;
+            for (int rest = value / 10; rest > 0; rest /= 10) {
+                digits++;
+            }
+            for (int i = size + digits - 1; i >= size; i--) {
+                bytes[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            size += digits;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void writeTo(OutputStream outputStream) throws IOException {
+            outputStream.write(bytes, 0, size);
+            size = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensureCapacity(int additional) {
+            if (size + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+            }
+        }
+    }
+}
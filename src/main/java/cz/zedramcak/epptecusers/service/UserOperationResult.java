@@ -0,0 +1,39 @@
+package cz.zedramcak.epptecusers.service;
+
+/**
+ * Outcome of adding or removing a single user. Rejected input is an expected outcome, so it is returned
+ * rather than thrown, and every outcome carries a constant message.
+ */
+public enum UserOperationResult {
+    ADDED("User added", null),
+    REMOVED("User removed", null),
+    MISSING_DATA("First name and last name are required", "MissingDataException"),
+    INVALID_BIRTH_NUMBER("The Birth Number is invalid.", "IncorrectBirthNumberFormatException"),
+    ALREADY_EXISTS("User with this Birth Number already exists.", "UserExistsException"),
+    INVALID_USER_ID("The userId is invalid.", "IllegalArgumentException"),
+    NOT_FOUND("The user does not exist.", "UserDoesNotExistsException");
+
+    private final String message;
+    private final String errorType;
+
+    UserOperationResult(String message, String errorType) {
+        this.message = message;
+        this.errorType = errorType;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isSuccessful() {
+        return errorType == null;
+    }
+
+    /**
+     * Returns the type errors are counted under, or {@code null} for a success. The types are the names of
+     * the exceptions that used to report these errors, so the error counters carry on.
+     */
+    public String getErrorType() {
+        return errorType;
+    }
+}
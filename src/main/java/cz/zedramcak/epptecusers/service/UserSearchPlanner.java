@@ -0,0 +1,165 @@
+package cz.zedramcak.epptecusers.service;
+
+import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.entity.dto.UserSearchCriteria;
+import cz.zedramcak.epptecusers.repository.UserRepository;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Resolves user searches through the repository indexes. The search starts from the
+ * smallest matching index and checks the remaining ones per candidate, so its cost
+ * depends on the size of the result rather than on the size of the repository.
+ */
+class UserSearchPlanner {
+    static final String WILDCARD = "*";
+    static final int MIN_SCAN_USERS = 1 << 16;
+    static final double MIN_SCAN_SHARE = 0.1;
+
+    private final UserRepository userRepository;
+
+    UserSearchPlanner(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    Map<Integer, User> findUsers(String firstName, String lastName, String birthNumber) {
+        List<Set<Integer>> indexes = matchingIndexes(firstName, lastName, birthNumber);
+
+        if (indexes.isEmpty()) {
+            return userRepository.snapshot().getUsers();
+        }
+
+        return intersect(indexes, user -> true);
+    }
+
+    /**
+     * Searches names ignoring case and diacritics. A term ending with {@value #WILDCARD} matches
+     * every name starting with the rest of the term.
+     * <p>
+     * The date of birth range is only looked up when no name is given. Otherwise it is checked per
+     * candidate, because a range like "adults" would match most of the repository. For the same reason,
+     * a range estimated to match at least {@value #MIN_SCAN_SHARE} of a large repository is answered by a
+     * parallel scan of the store instead of collecting the IDs from the index.
+     */
+    Map<Integer, User> searchUsers(UserSearchCriteria criteria, AgeCalculator.Today today) {
+        List<Set<Integer>> indexes = nameIndexes(criteria.getFirstName(), criteria.getLastName());
+
+        if (!criteria.hasDateOfBirthCriteria()) {
+            return intersect(indexes, user -> true);
+        }
+
+        int bornFrom = earliestDateOfBirth(criteria, today);
+        int bornTo = latestDateOfBirth(criteria, today);
+        if (indexes.isEmpty()) {
+            if (prefersScan(bornFrom, bornTo)) {
+                return userRepository.scanUsersByDateOfBirth(bornFrom, bornTo);
+            }
+            indexes.add(userRepository.findUserIdsByDateOfBirth(bornFrom, bornTo));
+            return intersect(indexes, user -> true);
+        }
+
+        return intersect(indexes, user -> user.getDateOfBirth() >= bornFrom && user.getDateOfBirth() <= bornTo);
+    }
+
+    private boolean prefersScan(int bornFrom, int bornTo) {
+        return userRepository.getUserCount() >= MIN_SCAN_USERS
+                && userRepository.estimateDateOfBirthRangeShare(bornFrom, bornTo) >= MIN_SCAN_SHARE;
+    }
+
+    private static int earliestDateOfBirth(UserSearchCriteria criteria, AgeCalculator.Today today) {
+        int earliest = Integer.MIN_VALUE;
+        if (criteria.getBornFrom() != null) {
+            earliest = AgeCalculator.toDateOfBirth(criteria.getBornFrom());
+        }
+        if (criteria.getMaxAge() != null) {
+            earliest = Math.max(earliest, today.earliestDateOfBirthForAge(criteria.getMaxAge()));
+        }
+        return Math.max(earliest, User.UNKNOWN_DATE_OF_BIRTH + 1);
+    }
+
+    private static int latestDateOfBirth(UserSearchCriteria criteria, AgeCalculator.Today today) {
+        int latest = Integer.MAX_VALUE;
+        if (criteria.getBornTo() != null) {
+            latest = AgeCalculator.toDateOfBirth(criteria.getBornTo());
+        }
+        if (criteria.getMinAge() != null) {
+            latest = Math.min(latest, today.latestDateOfBirthForAge(criteria.getMinAge()));
+        }
+        return latest;
+    }
+
+    private List<Set<Integer>> nameIndexes(String firstName, String lastName) {
+        List<Set<Integer>> indexes = new ArrayList<>(2);
+
+        if (firstName != null) {
+            indexes.add(isPrefix(firstName)
+                    ? userRepository.findUserIdsByFirstNamePrefix(withoutWildcard(firstName))
+                    : userRepository.findUserIdsByFoldedFirstName(firstName));
+        }
+        if (lastName != null) {
+            indexes.add(isPrefix(lastName)
+                    ? userRepository.findUserIdsByLastNamePrefix(withoutWildcard(lastName))
+                    : userRepository.findUserIdsByFoldedLastName(lastName));
+        }
+
+        return indexes;
+    }
+
+    private static boolean isPrefix(String term) {
+        return term.endsWith(WILDCARD);
+    }
+
+    private static String withoutWildcard(String term) {
+        return term.substring(0, term.length() - WILDCARD.length());
+    }
+
+    private Map<Integer, User> intersect(List<Set<Integer>> indexes, Predicate<User> filter) {
+        indexes.sort(Comparator.comparingInt(Set::size));
+
+        Set<Integer> candidates = indexes.getFirst();
+        List<Set<Integer>> otherIndexes = indexes.subList(1, indexes.size());
+
+        Map<Integer, User> foundUsers = new LinkedHashMap<>();
+        for (Integer userId : candidates) {
+            if (isInAll(otherIndexes, userId)) {
+                userRepository.findUserById(userId)
+                        .filter(filter)
+                        .ifPresent(user -> foundUsers.put(userId, user));
+            }
+        }
+        return foundUsers;
+    }
+
+    private List<Set<Integer>> matchingIndexes(String firstName, String lastName, String birthNumber) {
+        List<Set<Integer>> indexes = new ArrayList<>(3);
+
+        if (birthNumber != null) {
+            indexes.add(userRepository.findUserIdByBirthNumber(birthNumber)
+                    .map(Set::of)
+                    .orElseGet(Set::of));
+        }
+        if (firstName != null) {
+            indexes.add(userRepository.findUserIdsByFirstName(firstName));
+        }
+        if (lastName != null) {
+            indexes.add(userRepository.findUserIdsByLastName(lastName));
+        }
+
+        return indexes;
+    }
+
+    private static boolean isInAll(List<Set<Integer>> indexes, Integer userId) {
+        for (Set<Integer> index : indexes) {
+            if (!index.contains(userId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
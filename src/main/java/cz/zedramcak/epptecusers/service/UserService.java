@@ -1,13 +1,52 @@
 package cz.zedramcak.epptecusers.service;
 
 import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.entity.dto.BulkImportResultDTO;
+import cz.zedramcak.epptecusers.entity.dto.UserChangesDTO;
 import cz.zedramcak.epptecusers.entity.dto.UserDTO;
+import cz.zedramcak.epptecusers.entity.dto.UserPageDTO;
+import cz.zedramcak.epptecusers.entity.dto.UserSearchCriteria;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface UserService {
-    void addUser(User user);
-    void removeUser(String userId);
+    UserOperationResult addUser(User user);
+
+    /**
+     * Imports users as the iterator reads them, which may parse them from the request body on the way.
+     * A user the iterator fails to read with an {@link java.io.UncheckedIOException} ends the import.
+     */
+    BulkImportResultDTO addUsers(Iterator<User> users);
+    UserOperationResult removeUser(String userId);
     List<UserDTO> getAllUsers();
+    byte[] getAllUsersJson();
+    UserPageDTO getUsersPage(String cursor, int limit);
+    void writeAllUsersJsonLines(OutputStream outputStream) throws IOException;
     List<UserDTO> findUsers(String firstName, String lastName, String birthNumber);
+    byte[] findUsersJson(String firstName, String lastName, String birthNumber);
+    List<UserDTO> searchUsers(UserSearchCriteria criteria);
+    byte[] searchUsersJson(UserSearchCriteria criteria);
+    ResponseBodyWriter searchUsersJsonLines(UserSearchCriteria criteria);
+
+    /**
+     * Returns up to {@code limit} users added or removed after the given change sequence.
+     */
+    UserChangesDTO getChanges(long since, int limit);
+
+    /**
+     * Completes once a change after the given sequence can be read. Completed by a writing thread,
+     * so dependent actions have to run asynchronously. Cancel it to stop waiting.
+     */
+    CompletableFuture<Void> whenChangedAfter(long since);
+    long getLatestChangeSequence();
+
+    /**
+     * Identifies the state every returned user list is computed from. It changes with every write
+     * and at midnight, when ages may change.
+     */
+    String getDataVersion();
 }
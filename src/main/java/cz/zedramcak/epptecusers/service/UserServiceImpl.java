@@ -1,194 +1,520 @@
 package cz.zedramcak.epptecusers.service;
 
+import cz.zedramcak.epptecusers.entity.BirthNumber;
 import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.entity.dto.BulkImportRecordDTO;
+import cz.zedramcak.epptecusers.entity.dto.BulkImportResultDTO;
+import cz.zedramcak.epptecusers.entity.dto.BulkImportStatus;
+import cz.zedramcak.epptecusers.entity.dto.UserChangeDTO;
+import cz.zedramcak.epptecusers.entity.dto.UserChangeType;
+import cz.zedramcak.epptecusers.entity.dto.UserChangesDTO;
 import cz.zedramcak.epptecusers.entity.dto.UserDTO;
-import cz.zedramcak.epptecusers.exceptions.IncorrectBirthNumberFormatException;
-import cz.zedramcak.epptecusers.exceptions.MissingDataException;
-import cz.zedramcak.epptecusers.exceptions.UserDoesNotExistsException;
-import cz.zedramcak.epptecusers.exceptions.UserExistsException;
+import cz.zedramcak.epptecusers.entity.dto.UserPageDTO;
+import cz.zedramcak.epptecusers.entity.dto.UserSearchCriteria;
+import cz.zedramcak.epptecusers.exceptions.InvalidRequestException;
+import cz.zedramcak.epptecusers.metrics.UserMetrics;
+import cz.zedramcak.epptecusers.metrics.UserMetrics.Stage;
+import cz.zedramcak.epptecusers.repository.UserChangeFeed;
 import cz.zedramcak.epptecusers.repository.UserRepository;
+import cz.zedramcak.epptecusers.repository.UserSnapshot;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDate;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
 
 @Service
 @Log4j2
 public class UserServiceImpl implements UserService{
-    private final UserRepository userRepository;
+    public static final int MAX_PAGE_SIZE = 1000;
+    public static final int MAX_BULK_SIZE = 100_000;
+    public static final int MAX_CHANGES = 1000;
+    public static final int MAX_AGE = 200;
+    private static final int BULK_INSERT_BATCH_SIZE = 1000;
+    private static final int FIRST_PAGE = -1;
+    private static final int MAX_USER_ID_DIGITS = 10;
+    static final long NOT_A_USER_ID = Long.MIN_VALUE;
 
-    public UserServiceImpl(UserRepository userRepository) {
+    private final UserRepository userRepository;
+    private final UserSearchPlanner userSearchPlanner;
+    private final BirthNumberParser birthNumberParser;
+    private final AgeCalculator ageCalculator;
+    private final UserMetrics userMetrics;
+    private final UserJsonWriter userJsonWriter;
+    private final UserChangeFeed userChangeFeed;
+
+    public UserServiceImpl(UserRepository userRepository, BirthNumberParser birthNumberParser, AgeCalculator ageCalculator,
+                           UserMetrics userMetrics, UserJsonWriter userJsonWriter, UserChangeFeed userChangeFeed) {
         this.userRepository = userRepository;
+        this.birthNumberParser = birthNumberParser;
+        this.ageCalculator = ageCalculator;
+        this.userMetrics = userMetrics;
+        this.userJsonWriter = userJsonWriter;
+        this.userChangeFeed = userChangeFeed;
+        this.userSearchPlanner = new UserSearchPlanner(userRepository);
     }
 
     @Override
-    public void addUser(User user) {
-        validateUserFields(user);
+    public UserOperationResult addUser(User user) {
+        if (hasMissingData(user)) {
+            return UserOperationResult.MISSING_DATA;
+        }
 
-        setBirthNumberFormat(user);
+        BirthNumber birthNumber = userMetrics.record(Stage.VALIDATION, () -> birthNumberParser.parse(user.getBirthNumber()));
+        if (!birthNumber.isValid()) {
+            return UserOperationResult.INVALID_BIRTH_NUMBER;
+        }
 
-        ensureUserDoesNotExist(user.getBirthNumber());
+        setBirthNumberFormat(user, birthNumber);
+        user.setDateOfBirth(AgeCalculator.toDateOfBirth(birthNumber.getDateOfBirth()));
 
-        userRepository.addUser(user);
+        if (!userMetrics.record(Stage.INSERT, () -> userRepository.addUser(user))) {
+            return UserOperationResult.ALREADY_EXISTS;
+        }
+        return UserOperationResult.ADDED;
     }
 
-    private void validateUserFields(User user) {
-        ensureFieldsAreNotEmpty(user);
+    private static boolean hasMissingData(User user) {
+        return isBlank(user.getFirstName()) || isBlank(user.getLastName()) || isBlank(user.getBirthNumber());
+    }
 
-        validateBirthNumber(user.getBirthNumber());
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
     }
 
-    private static void ensureFieldsAreNotEmpty(User user) {
-        if (user.getFirstName().isBlank() || user.getLastName().isBlank() || user.getBirthNumber().isBlank()){
-            throw new MissingDataException("First name and last name are required");
+    /**
+     * Reads, validates and inserts the users a batch at a time, so at most one batch of them is held besides
+     * the result. Reading stops at a record past the size limit or at one that cannot be read, which is reported
+     * with the records before it, as those may be imported already.
+     */
+    @Override
+    public BulkImportResultDTO addUsers(Iterator<User> users) {
+        List<BulkImportRecordDTO> records = new ArrayList<>();
+        Set<String> birthNumbers = new HashSet<>();
+        List<User> batch = new ArrayList<>(BULK_INSERT_BATCH_SIZE);
+        int added = 0;
+
+        while (true) {
+            batch.clear();
+            BulkImportStatus unread = readBatch(users, batch, records.size());
+            added += importBatch(batch, birthNumbers, records);
+
+            if (unread != null) {
+                records.add(new BulkImportRecordDTO(records.size(), unread, null));
+                break;
+            }
+            if (batch.size() < BULK_INSERT_BATCH_SIZE) {
+                break;
+            }
         }
+
+        return new BulkImportResultDTO(records.size(), added, records.size() - added, records);
     }
 
-    private void validateBirthNumber(String birthNumber) {
-        if (!isBirthNumberValid(birthNumber)){
-            throw new IncorrectBirthNumberFormatException("The Birth Number is invalid.");
+    /**
+     * Reads up to a batch of users.
+     *
+     * @param imported the number of records read before
+     * @return the status of the next record if reading has to stop at it, or {@code null}
+     */
+    private static BulkImportStatus readBatch(Iterator<User> users, List<User> batch, int imported) {
+        try {
+            while (batch.size() < BULK_INSERT_BATCH_SIZE && users.hasNext()) {
+                if (imported + batch.size() == MAX_BULK_SIZE) {
+                    return BulkImportStatus.LIMIT_EXCEEDED;
+                }
+                batch.add(users.next());
+            }
+            return null;
+        } catch (UncheckedIOException exception) {
+            return BulkImportStatus.MALFORMED;
         }
     }
 
-    private void ensureUserDoesNotExist(String birthNumber) {
-        if (userRepository.existsUserByBirthNumber(birthNumber))
-            throw new UserExistsException("User with this Birth Number already exists.");
+    /**
+     * @param birthNumbers the birth numbers of the valid users of the earlier batches, to tell duplicates
+     * @return the number of added users
+     */
+    private int importBatch(List<User> batch, Set<String> birthNumbers, List<BulkImportRecordDTO> records) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        BulkImportStatus[] statuses = userMetrics.record(Stage.VALIDATION, () -> validateForImport(batch));
+
+        markDuplicatesInBatch(batch, statuses, birthNumbers);
+
+        Integer[] userIds = new Integer[batch.size()];
+        userMetrics.record(Stage.INSERT, () -> insertBatch(batch, statuses, userIds));
+
+        int added = 0;
+        for (int index = 0; index < statuses.length; index++) {
+            if (statuses[index] == BulkImportStatus.ADDED) {
+                added++;
+            }
+            records.add(new BulkImportRecordDTO(records.size(), statuses[index], userIds[index]));
+        }
+        return added;
     }
 
-    @Override
-    public void removeUser(String userId) {
-        Integer id = parsedUserId(userId);
+    private BulkImportStatus[] validateForImport(List<User> users) {
+        BulkImportStatus[] statuses = new BulkImportStatus[users.size()];
 
-        ensureUserExists(id);
+        IntStream.range(0, users.size()).parallel().forEach(index -> {
+            User user = users.get(index);
+            if (user == null || hasMissingData(user)) {
+                statuses[index] = BulkImportStatus.MISSING_DATA;
+                return;
+            }
 
-        userRepository.removeUser(id);
+            BirthNumber birthNumber = birthNumberParser.parse(user.getBirthNumber());
+            if (!birthNumber.isValid()) {
+                statuses[index] = BulkImportStatus.INVALID_BIRTH_NUMBER;
+                return;
+            }
+
+            setBirthNumberFormat(user, birthNumber);
+            user.setDateOfBirth(AgeCalculator.toDateOfBirth(birthNumber.getDateOfBirth()));
+        });
+
+        return statuses;
     }
 
-    private void ensureUserExists(Integer id) {
-        if (!userRepository.existsUserById(id))
-            throw new UserDoesNotExistsException("User with id " + id + " does not exists");
+    private static void markDuplicatesInBatch(List<User> users, BulkImportStatus[] statuses, Set<String> birthNumbers) {
+        for (int index = 0; index < statuses.length; index++) {
+            if (statuses[index] == null && !birthNumbers.add(users.get(index).getBirthNumber())) {
+                statuses[index] = BulkImportStatus.DUPLICATE_IN_BATCH;
+            }
+        }
     }
 
-    private static int parsedUserId(String userId) {
-        try {
-            return Integer.parseInt(userId);
-        } catch (NumberFormatException exception) {
-            throw new IllegalArgumentException("The userId is invalid.");
+    private void insertBatch(List<User> users, BulkImportStatus[] statuses, Integer[] userIds) {
+        List<User> validUsers = new ArrayList<>(users.size());
+        int[] indexes = new int[users.size()];
+
+        for (int index = 0; index < statuses.length; index++) {
+            if (statuses[index] == null) {
+                indexes[validUsers.size()] = index;
+                validUsers.add(users.get(index));
+            }
+        }
+        if (validUsers.isEmpty()) {
+            return;
+        }
+
+        int[] insertedUserIds = userRepository.addUsers(validUsers);
+
+        for (int i = 0; i < insertedUserIds.length; i++) {
+            int index = indexes[i];
+            if (insertedUserIds[i] == UserRepository.NO_ID) {
+                statuses[index] = BulkImportStatus.ALREADY_EXISTS;
+            } else {
+                statuses[index] = BulkImportStatus.ADDED;
+                userIds[index] = insertedUserIds[i];
+            }
+        }
+    }
+
+    @Override
+    public UserOperationResult removeUser(String userId) {
+        long id = parseUserId(userId);
+        if (id == NOT_A_USER_ID) {
+            return UserOperationResult.INVALID_USER_ID;
+        }
+        if (id < 0 || !userRepository.existsUserById((int) id)) {
+            return UserOperationResult.NOT_FOUND;
+        }
+
+        userRepository.removeUser((int) id);
+        return UserOperationResult.REMOVED;
+    }
+
+    /**
+     * Parses a user ID without throwing, accepting what {@link Integer#parseInt(String)} accepts. A negative
+     * ID is well formed, it just never belongs to a user.
+     *
+     * @return the ID, or {@link #NOT_A_USER_ID} if it is not an int
+     */
+    static long parseUserId(String userId) {
+        if (userId == null || userId.isEmpty()) {
+            return NOT_A_USER_ID;
         }
+
+        boolean negative = userId.charAt(0) == '-';
+        int start = negative || userId.charAt(0) == '+' ? 1 : 0;
+        if (start == userId.length() || userId.length() - start > MAX_USER_ID_DIGITS) {
+            return NOT_A_USER_ID;
+        }
+
+        long id = 0;
+        for (int i = start; i < userId.length(); i++) {
+            char digit = userId.charAt(i);
+            if (digit < '0' || digit > '9') {
+                return NOT_A_USER_ID;
+            }
+            id = id * 10 + (digit - '0');
+        }
+        id = negative ? -id : id;
+        return id < Integer.MIN_VALUE || id > Integer.MAX_VALUE ? NOT_A_USER_ID : id;
     }
 
     @Override
     public List<UserDTO> getAllUsers() {
-        Map<Integer, User> users = userRepository.getAllUsers();
+        Map<Integer, User> users = userRepository.snapshot().getUsers();
         return convertToUserDTOs(users);
     }
 
     @Override
-    public List<UserDTO> findUsers(String firstName, String lastName, String birthNumber) {
-        Map<Integer, User> foundUsers = userRepository.getAllUsers()
+    public byte[] getAllUsersJson() {
+        return toJsonArray(userRepository.snapshot().getUsers());
+    }
+
+    @Override
+    public UserPageDTO getUsersPage(String cursor, int limit) {
+        if (limit < 1) {
+            throw new InvalidRequestException("The limit must be positive.");
+        }
+
+        return userMetrics.record(Stage.DTO_CONVERSION, () -> createUsersPage(cursor, limit));
+    }
+
+    /**
+     * Pages through one snapshot. The cursor carries the snapshot version, so all pages show the users as
+     * they were when the first page was read. The snapshot is kept while its cursors keep being used.
+     */
+    private UserPageDTO createUsersPage(String cursor, int limit) {
+        int pageSize = Math.min(limit, MAX_PAGE_SIZE);
+        PageCursor pageCursor = PageCursor.decode(cursor);
+        UserSnapshot snapshot = pageCursor == null
+                ? userRepository.snapshot()
+                : userRepository.findSnapshot(pageCursor.version())
+                        .orElseThrow(() -> new InvalidRequestException("The cursor has expired."));
+        Iterator<Map.Entry<Integer, User>> users = snapshot
+                .getUsersAfter(pageCursor == null ? FIRST_PAGE : pageCursor.lastUserId())
                 .entrySet()
-                .stream()
-                .filter(user -> firstName == null || user.getValue().getFirstName().equals(firstName))
-                .filter(user -> lastName == null || user.getValue().getLastName().equals(lastName))
-                .filter(user -> birthNumber == null || user.getValue().getBirthNumber().equals(birthNumber))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+                .iterator();
+
+        AgeCalculator.Today today = ageCalculator.today();
+        List<UserDTO> page = new ArrayList<>(Math.min(pageSize, 64));
+        Integer lastUserId = null;
+        while (page.size() < pageSize && users.hasNext()) {
+            Map.Entry<Integer, User> user = users.next();
+            page.add(createUserDTO(user.getKey(), user.getValue(), today));
+            lastUserId = user.getKey();
+        }
 
-        return convertToUserDTOs(foundUsers);
+        if (!users.hasNext()) {
+            return new UserPageDTO(page, null, snapshot.getVersion());
+        }
+        userRepository.retainSnapshot(snapshot);
+        return new UserPageDTO(page, new PageCursor(snapshot.getVersion(), lastUserId).encode(), snapshot.getVersion());
+    }
 
+    @Override
+    public void writeAllUsersJsonLines(OutputStream outputStream) throws IOException {
+        AgeCalculator.Today today = ageCalculator.today();
+        long start = System.nanoTime();
+        try {
+            userJsonWriter.writeJsonLines(userRepository.snapshot().getUsers(), user -> ageOf(user, today), outputStream);
+        } finally {
+            userMetrics.recordNanos(Stage.SERIALIZATION, System.nanoTime() - start);
+        }
     }
 
-    private List<UserDTO> convertToUserDTOs(Map<Integer, User> users) {
-        List<UserDTO> filteredUsers = new ArrayList<>();
+    /**
+     * Position after the last user of a page within the snapshot at the version.
+     */
+    private record PageCursor(long version, int lastUserId) {
+        private static final char SEPARATOR = ':';
 
-        users.forEach((userId, user) -> {
-            UserDTO userDTO = createUserDTO(userId, user);
-            filteredUsers.add(userDTO);
-        });
+        String encode() {
+            return Base64.getUrlEncoder()
+                    .withoutPadding()
+                    .encodeToString((version + String.valueOf(SEPARATOR) + lastUserId).getBytes(StandardCharsets.US_ASCII));
+        }
 
-        return filteredUsers;
+        static PageCursor decode(String cursor) {
+            if (cursor == null || cursor.isEmpty()) {
+                return null;
+            }
+
+            try {
+                String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+                int separator = decoded.indexOf(SEPARATOR);
+                return new PageCursor(Long.parseLong(decoded.substring(0, separator)),
+                        Integer.parseInt(decoded.substring(separator + 1)));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException exception) {
+                throw new InvalidRequestException("The cursor is invalid.");
+            }
+        }
     }
 
-    private UserDTO createUserDTO(Integer userId, User user) {
-        int age = calculateAgeFromBirthNumber(user.getBirthNumber());
-        return new UserDTO(userId, user.getBirthNumber(), user.getFirstName(), user.getLastName(), age);
+    @Override
+    public List<UserDTO> findUsers(String firstName, String lastName, String birthNumber) {
+        return convertToUserDTOs(findUserMap(firstName, lastName, birthNumber));
     }
 
-    private Integer calculateAgeFromBirthNumber(String birthNumber) {
-        
-        int year = Integer.parseInt(birthNumber.substring(0, 2));
-        int month = Integer.parseInt(birthNumber.substring(2, 4));
-        int day = Integer.parseInt(birthNumber.substring(4, 6));
+    @Override
+    public byte[] findUsersJson(String firstName, String lastName, String birthNumber) {
+        return toJsonArray(findUserMap(firstName, lastName, birthNumber));
+    }
 
-        if (month > 50) {
-            month = month - 50;
-        }
+    private Map<Integer, User> findUserMap(String firstName, String lastName, String birthNumber) {
+        return userMetrics.record(Stage.SEARCH, () -> userSearchPlanner.findUsers(firstName, lastName, birthNumber));
+    }
+
+    @Override
+    public List<UserDTO> searchUsers(UserSearchCriteria criteria) {
+        return convertToUserDTOs(searchUserMap(criteria));
+    }
 
-        int thisYear = LocalDate.now().getYear() % 100;
-        int century = (year > thisYear) ? 1900 : 2000;
-        int fullYear = century + year;
+    @Override
+    public byte[] searchUsersJson(UserSearchCriteria criteria) {
+        return toJsonArray(searchUserMap(criteria));
+    }
 
-        LocalDate dateOfBirth = LocalDate.of(fullYear, month, day);
-        LocalDate today = LocalDate.now();
+    /**
+     * Searches right away and returns a writer of the found users, which holds no more than the search result.
+     */
+    @Override
+    public ResponseBodyWriter searchUsersJsonLines(UserSearchCriteria criteria) {
+        Map<Integer, User> foundUsers = searchUserMap(criteria);
+        AgeCalculator.Today today = ageCalculator.today();
+        return outputStream -> {
+            long start = System.nanoTime();
+            try {
+                userJsonWriter.writeJsonLines(foundUsers, user -> ageOf(user, today), outputStream);
+            } finally {
+                userMetrics.recordNanos(Stage.SERIALIZATION, System.nanoTime() - start);
+            }
+        };
+    }
 
-        int age =  today.getYear() - dateOfBirth.getYear();
+    private Map<Integer, User> searchUserMap(UserSearchCriteria criteria) {
+        validateSearchCriteria(criteria);
 
-        if (today.isBefore(dateOfBirth.plusYears(age))) {
-            age--;
-        }
+        AgeCalculator.Today today = ageCalculator.today();
+        return userMetrics.record(Stage.SEARCH, () -> userSearchPlanner.searchUsers(criteria, today));
+    }
 
-        return age;
+    private byte[] toJsonArray(Map<Integer, User> users) {
+        AgeCalculator.Today today = ageCalculator.today();
+        return userMetrics.record(Stage.SERIALIZATION, () -> userJsonWriter.toJsonArray(users, user -> ageOf(user, today)));
     }
 
-    private void setBirthNumberFormat(User user) {
-        String birthNumber = user.getBirthNumber();
+    private static void validateSearchCriteria(UserSearchCriteria criteria) {
+        if (!criteria.hasNameCriteria() && !criteria.hasDateOfBirthCriteria()) {
+            throw new InvalidRequestException("At least one search criterion is required.");
+        }
+        ensureSearchTermIsNotEmpty(criteria.getFirstName());
+        ensureSearchTermIsNotEmpty(criteria.getLastName());
 
-        if (birthNumber.matches("\\d{10}")) {
-            user.setBirthNumber(birthNumber.substring(0, 6) + "/" + birthNumber.substring(6));
+        if (isNegative(criteria.getMinAge()) || isNegative(criteria.getMaxAge())) {
+            throw new InvalidRequestException("The age must not be negative.");
+        }
+        if (isAboveMaxAge(criteria.getMinAge()) || isAboveMaxAge(criteria.getMaxAge())) {
+            throw new InvalidRequestException("The age must not be greater than " + MAX_AGE + ".");
+        }
+        if (criteria.getMinAge() != null && criteria.getMaxAge() != null && criteria.getMinAge() > criteria.getMaxAge()) {
+            throw new InvalidRequestException("The minimum age must not be greater than the maximum age.");
+        }
+        if (criteria.getBornFrom() != null && criteria.getBornTo() != null && criteria.getBornFrom().isAfter(criteria.getBornTo())) {
+            throw new InvalidRequestException("The bornFrom date must not be after the bornTo date.");
         }
     }
 
-    private Boolean isBirthNumberValid(String birthNumber) {
-        String regex = "(\\d{2})(\\d{2})(\\d{2})/?(\\d{4})";
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(birthNumber);
+    private static boolean isNegative(Integer value) {
+        return value != null && value < 0;
+    }
+
+    /**
+     * An age far above any real one would overflow the {@code yyyyMMdd} date of birth bounds it is turned into.
+     */
+    private static boolean isAboveMaxAge(Integer age) {
+        return age != null && age > MAX_AGE;
+    }
 
-        if (!matcher.matches()) {
-            return false;
+    private static void ensureSearchTermIsNotEmpty(String term) {
+        if (term != null && isBlank(term.replace(UserSearchPlanner.WILDCARD, ""))) {
+            throw new InvalidRequestException("The search term must not be empty.");
         }
+    }
 
-        int year = Integer.parseInt(matcher.group(1));
-        int month = Integer.parseInt(matcher.group(2));
-        int day = Integer.parseInt(matcher.group(3));
+    @Override
+    public UserChangesDTO getChanges(long since, int limit) {
+        if (limit < 1) {
+            throw new InvalidRequestException("The limit must be positive.");
+        }
 
-        if (month > 50) {
-            month = month - 50;
+        UserChangeFeed.Changes changes = userChangeFeed.read(since, Math.min(limit, MAX_CHANGES));
+        AgeCalculator.Today today = ageCalculator.today();
+        List<UserChangeDTO> changeDTOs = new ArrayList<>(changes.changes().size());
+        for (UserChangeFeed.UserChange change : changes.changes()) {
+            changeDTOs.add(new UserChangeDTO(change.sequence(), UserChangeType.valueOf(change.type().name()),
+                    createUserDTO(change.userId(), change.user(), today)));
         }
+        return new UserChangesDTO(changeDTOs, changes.reset(), changes.lastSequence());
+    }
 
-        int thisYear = LocalDate.now().getYear() % 100;
-        int century = (year > thisYear) ? 1900 : 2000;
-        int fullYear = century + year;
+    @Override
+    public CompletableFuture<Void> whenChangedAfter(long since) {
+        return userChangeFeed.whenChangedAfter(since);
+    }
 
-        if (month < 1 || month > 12) {
-            return false;
-        }
+    @Override
+    public long getLatestChangeSequence() {
+        return userChangeFeed.getLatestSequence();
+    }
+
+    @Override
+    public String getDataVersion() {
+        return userRepository.getVersion() + "-" + ageCalculator.today().getDate();
+    }
+
+    private List<UserDTO> convertToUserDTOs(Map<Integer, User> users) {
+        return userMetrics.record(Stage.DTO_CONVERSION, () -> createUserDTOs(users));
+    }
 
-        int maxDayInMonth = getMaxDayInMonth(fullYear, month);
+    private List<UserDTO> createUserDTOs(Map<Integer, User> users) {
+        AgeCalculator.Today today = ageCalculator.today();
+        List<UserDTO> filteredUsers = new ArrayList<>(users.size());
 
-        return day >= 1 && day <= maxDayInMonth;
+        users.forEach((userId, user) -> {
+            UserDTO userDTO = createUserDTO(userId, user, today);
+            filteredUsers.add(userDTO);
+        });
 
+        return filteredUsers;
     }
 
-    private int getMaxDayInMonth(int year, int month) {
-        return switch (month) {
-            case 2 -> ((year % 4 == 0 && year % 100 != 0) || (year % 400 == 0)) ? 29 : 28;
-            case 4, 6, 9, 11 -> 30;
-            default -> 31;
-        };
+    private int ageOf(User user, AgeCalculator.Today today) {
+        return today.ageOf(dateOfBirthOf(user));
+    }
+
+    private UserDTO createUserDTO(Integer userId, User user, AgeCalculator.Today today) {
+        int age = ageOf(user, today);
+        return new UserDTO(userId, user.getBirthNumber(), user.getFirstName(), user.getLastName(), age);
+    }
+
+    private int dateOfBirthOf(User user) {
+        if (user.getDateOfBirth() != User.UNKNOWN_DATE_OF_BIRTH) {
+            return user.getDateOfBirth();
+        }
+        return AgeCalculator.toDateOfBirth(birthNumberParser.parse(user.getBirthNumber()).getDateOfBirth());
+    }
+
+    private static void setBirthNumberFormat(User user, BirthNumber birthNumber) {
+        user.setBirthNumber(birthNumber.getCanonical());
     }
 }
@@ -0,0 +1,121 @@
+package cz.zedramcak.epptecusers.benchmark;
+
+import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.metrics.UserMetrics;
+import cz.zedramcak.epptecusers.repository.UserChangeFeed;
+import cz.zedramcak.epptecusers.repository.UserChangeListener;
+import cz.zedramcak.epptecusers.repository.UserRepository;
+import cz.zedramcak.epptecusers.repository.store.UserStore;
+import cz.zedramcak.epptecusers.service.AgeCalculator;
+import cz.zedramcak.epptecusers.service.BirthNumberParser;
+import cz.zedramcak.epptecusers.service.UserJsonWriter;
+import cz.zedramcak.epptecusers.service.UserServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Deterministic test data for the benchmarks. User {@code i} always gets the same unique, valid
+ * birth number, and names are drawn from small pools so name searches have realistic selectivity.
+ */
+final class BenchmarkUsers {
+    static final int FIRST_NAMES = 200;
+    static final int LAST_NAMES = 2_000;
+
+    private static final int SUFFIXES = 10_000;
+    private static final int DAYS = 28;
+    private static final int MONTHS = 24;
+
+    private static final int CURRENT_YEAR = LocalDate.now().getYear() % 100;
+
+    private static final String[] FIRST_NAME_POOL = namePool("First", FIRST_NAMES);
+    private static final String[] LAST_NAME_POOL = namePool("Last", LAST_NAMES);
+
+    private BenchmarkUsers() {
+    }
+
+    static User user(long index) {
+        User user = new User();
+        user.setBirthNumber(birthNumber(index));
+        user.setFirstName(firstName(index));
+        user.setLastName(lastName(index));
+        user.setDateOfBirth(dateOfBirth(index));
+        return user;
+    }
+
+    static String firstName(long index) {
+        return FIRST_NAME_POOL[(int) (index % FIRST_NAMES)];
+    }
+
+    static String lastName(long index) {
+        return LAST_NAME_POOL[(int) ((index / FIRST_NAMES) % LAST_NAMES)];
+    }
+
+    static String birthNumber(long index) {
+        long date = index / SUFFIXES;
+        int suffix = (int) (index % SUFFIXES);
+        int day = (int) (date % DAYS) + 1;
+        int month = (int) (date / DAYS % MONTHS);
+        int year = (int) (date / DAYS / MONTHS % 100);
+        int encodedMonth = month < 12 ? month + 1 : month - 12 + 51;
+
+        char[] birthNumber = new char[11];
+        writeTwoDigits(birthNumber, 0, year);
+        writeTwoDigits(birthNumber, 2, encodedMonth);
+        writeTwoDigits(birthNumber, 4, day);
+        birthNumber[6] = '/';
+        writeTwoDigits(birthNumber, 7, suffix / 100);
+        writeTwoDigits(birthNumber, 9, suffix % 100);
+        return new String(birthNumber);
+    }
+
+    static UserRepository repository(int size, UserChangeListener... changeListeners) {
+        return fill(new UserRepository(List.of(changeListeners)), size);
+    }
+
+    static UserRepository repository(Supplier<UserStore> userStoreFactory, int shardCount, int size) {
+        return fill(new UserRepository(userStoreFactory, shardCount, List.of()), size);
+    }
+
+    private static UserRepository fill(UserRepository userRepository, int size) {
+        for (int i = 0; i < size; i++) {
+            userRepository.addUser(user(i));
+        }
+        return userRepository;
+    }
+
+    static UserServiceImpl service(UserRepository userRepository) {
+        return service(userRepository, new UserJsonWriter(false));
+    }
+
+    static UserServiceImpl service(UserRepository userRepository, UserJsonWriter userJsonWriter) {
+        Clock clock = Clock.systemDefaultZone();
+        return new UserServiceImpl(userRepository, new BirthNumberParser(clock), new AgeCalculator(clock),
+                new UserMetrics(new SimpleMeterRegistry()), userJsonWriter, new UserChangeFeed(1));
+    }
+
+    private static int dateOfBirth(long index) {
+        long date = index / SUFFIXES;
+        int day = (int) (date % DAYS) + 1;
+        int month = (int) (date / DAYS % MONTHS) % 12 + 1;
+        int year = (int) (date / DAYS / MONTHS % 100);
+        int century = year > CURRENT_YEAR ? 1900 : 2000;
+        return (century + year) * 10_000 + month * 100 + day;
+    }
+
+    private static void writeTwoDigits(char[] target, int index, int value) {
+        target[index] = (char) ('0' + value / 10);
+        target[index + 1] = (char) ('0' + value % 10);
+    }
+
+    private static String[] namePool(String prefix, int size) {
+        String[] names = new String[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = prefix + i;
+        }
+        return names;
+    }
+}
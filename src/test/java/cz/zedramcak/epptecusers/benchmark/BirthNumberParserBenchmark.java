@@ -0,0 +1,135 @@
+package cz.zedramcak.epptecusers.benchmark;
+
+import cz.zedramcak.epptecusers.entity.BirthNumber;
+import cz.zedramcak.epptecusers.service.BirthNumberParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the single-pass {@link BirthNumberParser} with the previous regex based validation,
+ * formatting and age calculation, which parsed every birth number three times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BirthNumberParserBenchmark {
+
+    @Param({"8201011234", "830202/2345", "invalidBirthNumber"})
+    private String birthNumber;
+
+    private final BirthNumberParser birthNumberParser = new BirthNumberParser(Clock.systemDefaultZone());
+
+    @Benchmark
+    public void parser(Blackhole blackhole) {
+        BirthNumber parsed = birthNumberParser.parse(birthNumber);
+        if (parsed.isValid()) {
+            blackhole.consume(parsed.getCanonical());
+            blackhole.consume(LegacyBirthNumber.calculateAge(parsed.getDateOfBirth()));
+        }
+    }
+
+    @Benchmark
+    public void legacy(Blackhole blackhole) {
+        if (LegacyBirthNumber.isBirthNumberValid(birthNumber)) {
+            blackhole.consume(LegacyBirthNumber.format(birthNumber));
+            blackhole.consume(LegacyBirthNumber.calculateAge(LegacyBirthNumber.format(birthNumber)));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(BirthNumberParserBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+
+    /**
+     * The birth number handling from {@code UserServiceImpl} before it was replaced by {@link BirthNumberParser}.
+     */
+    private static final class LegacyBirthNumber {
+
+        static boolean isBirthNumberValid(String birthNumber) {
+            Pattern pattern = Pattern.compile("(\\d{2})(\\d{2})(\\d{2})/?(\\d{4})");
+            Matcher matcher = pattern.matcher(birthNumber);
+
+            if (!matcher.matches()) {
+                return false;
+            }
+
+            int year = Integer.parseInt(matcher.group(1));
+            int month = Integer.parseInt(matcher.group(2));
+            int day = Integer.parseInt(matcher.group(3));
+
+            if (month > 50) {
+                month = month - 50;
+            }
+
+            int thisYear = LocalDate.now().getYear() % 100;
+            int fullYear = ((year > thisYear) ? 1900 : 2000) + year;
+
+            if (month < 1 || month > 12) {
+                return false;
+            }
+
+            int maxDayInMonth = switch (month) {
+                case 2 -> ((fullYear % 4 == 0 && fullYear % 100 != 0) || (fullYear % 400 == 0)) ? 29 : 28;
+                case 4, 6, 9, 11 -> 30;
+                default -> 31;
+            };
+            return day >= 1 && day <= maxDayInMonth;
+        }
+
+        static String format(String birthNumber) {
+            if (birthNumber.matches("\\d{10}")) {
+                return birthNumber.substring(0, 6) + "/" + birthNumber.substring(6);
+            }
+            return birthNumber;
+        }
+
+        static int calculateAge(String birthNumber) {
+            int year = Integer.parseInt(birthNumber.substring(0, 2));
+            int month = Integer.parseInt(birthNumber.substring(2, 4));
+            int day = Integer.parseInt(birthNumber.substring(4, 6));
+
+            if (month > 50) {
+                month = month - 50;
+            }
+
+            int thisYear = LocalDate.now().getYear() % 100;
+            int fullYear = ((year > thisYear) ? 1900 : 2000) + year;
+
+            return calculateAge(LocalDate.of(fullYear, month, day));
+        }
+
+        static int calculateAge(LocalDate dateOfBirth) {
+            LocalDate today = LocalDate.now();
+
+            int age = today.getYear() - dateOfBirth.getYear();
+            if (today.isBefore(dateOfBirth.plusYears(age))) {
+                age--;
+            }
+            return age;
+        }
+    }
+}
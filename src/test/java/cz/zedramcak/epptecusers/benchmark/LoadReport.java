@@ -0,0 +1,123 @@
+package cz.zedramcak.epptecusers.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Machine-readable result of a load test run, and its comparison to a stored baseline.
+ *
+ * @param operations the statistics of each operation of the mix, by operation name
+ */
+record LoadReport(String mix, int targetRps, int clients, long durationMillis,
+                  OperationStats total, Map<String, OperationStats> operations) {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    /**
+     * @param latencies the latency of every request of each operation in nanoseconds, negated for failed requests
+     */
+    static LoadReport of(TrafficMix mix, int targetRps, int clients, Duration duration, Map<String, long[]> latencies) {
+        Map<String, OperationStats> operations = new LinkedHashMap<>();
+        latencies.forEach((operation, operationLatencies) ->
+                operations.put(operation, OperationStats.of(operationLatencies, duration)));
+        long[] all = latencies.values().stream().flatMapToLong(Arrays::stream).toArray();
+        return new LoadReport(mix.toString(), targetRps, clients, duration.toMillis(),
+                OperationStats.of(all, duration), operations);
+    }
+
+    static LoadReport read(Path file) throws IOException {
+        return OBJECT_MAPPER.readValue(file.toFile(), LoadReport.class);
+    }
+
+    void write(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        OBJECT_MAPPER.writeValue(file.toFile(), this);
+    }
+
+    /**
+     * Lists what got worse than the baseline. Throughput may drop and the p50 and p99 latencies may grow by the
+     * tolerance, latencies by one more millisecond so sub-millisecond noise does not count, and the error rate
+     * may grow by 0.1 percentage point. A baseline of another mix, rate or number of clients is a regression too,
+     * as the numbers cannot be compared.
+     */
+    List<String> regressionsAgainst(LoadReport baseline, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        if (!mix.equals(baseline.mix) || targetRps != baseline.targetRps || clients != baseline.clients) {
+            regressions.add(String.format("The baseline ran %s at %d req/s with %d clients, this run %s at %d req/s with %d clients",
+                    baseline.mix, baseline.targetRps, baseline.clients, mix, targetRps, clients));
+            return regressions;
+        }
+
+        total.addRegressions("total", baseline.total, tolerance, regressions);
+        baseline.operations.forEach((operation, baselineStats) -> {
+            OperationStats stats = operations.get(operation);
+            if (stats != null) {
+                stats.addRegressions(operation, baselineStats, tolerance, regressions);
+            }
+        });
+        return regressions;
+    }
+
+    String format() {
+        StringBuilder table = new StringBuilder(String.format("%n%s at %d req/s with %d clients%n%-8s %10s %10s %10s %10s %10s %8s%n",
+                mix, targetRps, clients, "request", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "requests", "errors"));
+        operations.forEach((operation, stats) -> table.append(stats.format(operation)).append('\n'));
+        return table.append(total.format("total")).toString();
+    }
+
+    record OperationStats(long requests, long errors, double errorRate, double throughput,
+                          double p50Millis, double p99Millis, double p999Millis) {
+
+        private static final double LATENCY_SLACK_MILLIS = 1;
+        private static final double ERROR_RATE_SLACK = 0.001;
+
+        static OperationStats of(long[] latencies, Duration duration) {
+            long[] sorted = Arrays.stream(latencies).map(Math::abs).sorted().toArray();
+            long errors = Arrays.stream(latencies).filter(latency -> latency < 0).count();
+            return new OperationStats(sorted.length, errors,
+                    sorted.length == 0 ? 0 : (double) errors / sorted.length,
+                    sorted.length / (duration.toMillis() / 1000.0),
+                    percentile(sorted, 0.5), percentile(sorted, 0.99), percentile(sorted, 0.999));
+        }
+
+        private static double percentile(long[] sortedLatencies, double percentile) {
+            if (sortedLatencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(index, 0)] / 1_000_000.0;
+        }
+
+        private void addRegressions(String operation, OperationStats baseline, double tolerance, List<String> regressions) {
+            if (throughput < baseline.throughput * (1 - tolerance)) {
+                regressions.add(String.format("%s throughput dropped from %.0f to %.0f req/s", operation, baseline.throughput, throughput));
+            }
+            if (p50Millis > baseline.p50Millis * (1 + tolerance) + LATENCY_SLACK_MILLIS) {
+                regressions.add(String.format("%s p50 grew from %.1f to %.1f ms", operation, baseline.p50Millis, p50Millis));
+            }
+            if (p99Millis > baseline.p99Millis * (1 + tolerance) + LATENCY_SLACK_MILLIS) {
+                regressions.add(String.format("%s p99 grew from %.1f to %.1f ms", operation, baseline.p99Millis, p99Millis));
+            }
+            if (errorRate > baseline.errorRate + ERROR_RATE_SLACK) {
+                regressions.add(String.format("%s error rate grew from %.2f%% to %.2f%%", operation, baseline.errorRate * 100, errorRate * 100));
+            }
+        }
+
+        private String format(String operation) {
+            return String.format("%-8s %10.0f %10.1f %10.1f %10.1f %10d %8d",
+                    operation, throughput, p50Millis, p99Millis, p999Millis, requests, errors);
+        }
+    }
+}
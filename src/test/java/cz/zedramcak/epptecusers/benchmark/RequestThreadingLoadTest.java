@@ -0,0 +1,163 @@
+package cz.zedramcak.epptecusers.benchmark;
+
+import cz.zedramcak.epptecusers.EpptecUsersApplication;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares request handling on platform and on virtual threads under high concurrency.
+ * <p>
+ * Every client adds users, which blocks the request on the write-ahead log's fsync, and searches them
+ * through the async endpoint. Run it with the {@code load-test} profile:
+ * <pre>
+ * ./mvnw -Pload-test test -Dload.clients=1000 -Dload.duration=PT30S
+ * </pre>
+ */
+@Tag("load")
+public class RequestThreadingLoadTest {
+    private static final int CLIENTS = Integer.getInteger("load.clients", 500);
+    private static final Duration DURATION = Duration.parse(System.getProperty("load.duration", "PT15S"));
+    private static final Duration WARMUP = Duration.ofSeconds(3);
+
+    private final AtomicLong nextUser = new AtomicLong();
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    public void virtualThreads_ShouldHandleBlockingRequests_AtHighConcurrency() throws Exception {
+        LoadResult platformThreads = run(false);
+        LoadResult virtualThreads = run(true);
+
+        System.out.printf("%n%-10s %10s %10s %10s %10s %8s%n", "threads", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "errors");
+        System.out.println(platformThreads.format("platform"));
+        System.out.println(virtualThreads.format("virtual"));
+
+        assertEquals(0, platformThreads.errors);
+        assertEquals(0, virtualThreads.errors);
+    }
+
+    private LoadResult run(boolean virtualThreads) throws Exception {
+        String mode = virtualThreads ? "virtual" : "platform";
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(EpptecUsersApplication.class)
+                .properties(
+                        "server.port=0",
+                        "spring.threads.virtual.enabled=" + virtualThreads,
+                        "epptec.users.persistence.enabled=true",
+                        "epptec.users.persistence.directory=" + directory.resolve(mode))
+                .run()) {
+            String baseUri = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/v1/users";
+
+            load(baseUri, WARMUP);
+            return load(baseUri, DURATION);
+        }
+    }
+
+    private LoadResult load(String baseUri, Duration duration) throws Exception {
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Future<long[]>> clients = new ArrayList<>(CLIENTS);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+             HttpClient httpClient = HttpClient.newBuilder().executor(executor).build()) {
+            for (int i = 0; i < CLIENTS; i++) {
+                clients.add(executor.submit(() -> runClient(httpClient, baseUri, deadline)));
+            }
+
+            LoadResult result = new LoadResult(duration);
+            for (Future<long[]> client : clients) {
+                result.add(client.get());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns the latency of every request in nanoseconds, negated for failed requests.
+     */
+    private long[] runClient(HttpClient httpClient, String baseUri, long deadline) throws InterruptedException {
+        long[] latencies = new long[1024];
+        int count = 0;
+
+        while (System.nanoTime() < deadline) {
+            long index = nextUser.getAndIncrement();
+            HttpRequest request = index % 2 == 0
+                    ? HttpRequest.newBuilder(URI.create(baseUri))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(userJson(index)))
+                    .build()
+                    : HttpRequest.newBuilder(URI.create(baseUri + "/search/async?lastName="
+                    + BenchmarkUsers.lastName(index) + "*")).build();
+
+            long start = System.nanoTime();
+            boolean succeeded;
+            try {
+                succeeded = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+            } catch (IOException exception) {
+                succeeded = false;
+            }
+            long latency = System.nanoTime() - start;
+
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = succeeded ? latency : -latency;
+        }
+
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private static String userJson(long index) {
+        return String.format("{\"birthNumber\":\"%s\",\"firstName\":\"%s\",\"lastName\":\"%s\"}",
+                BenchmarkUsers.birthNumber(index), BenchmarkUsers.firstName(index), BenchmarkUsers.lastName(index));
+    }
+
+    private static final class LoadResult {
+        private final Duration duration;
+        private final List<long[]> latencies = new ArrayList<>();
+        private long errors;
+
+        private LoadResult(Duration duration) {
+            this.duration = duration;
+        }
+
+        private void add(long[] clientLatencies) {
+            latencies.add(clientLatencies);
+            errors += Arrays.stream(clientLatencies).filter(latency -> latency < 0).count();
+        }
+
+        private String format(String mode) {
+            long[] all = latencies.stream().flatMapToLong(Arrays::stream).map(Math::abs).sorted().toArray();
+            return String.format("%-10s %10.0f %10.1f %10.1f %10.1f %8d", mode,
+                    all.length / (duration.toMillis() / 1000.0),
+                    percentile(all, 0.5), percentile(all, 0.99), percentile(all, 0.999), errors);
+        }
+
+        private static double percentile(long[] sortedLatencies, double percentile) {
+            if (sortedLatencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(index, 0)] / 1_000_000.0;
+        }
+    }
+}
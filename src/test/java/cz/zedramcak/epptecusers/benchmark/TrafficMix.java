@@ -0,0 +1,103 @@
+package cz.zedramcak.epptecusers.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Weighted mix of the requests a load test sends, written as {@code search=80,add=15,delete=5}.
+ * The weights are relative, so they do not have to add up to 100.
+ */
+final class TrafficMix {
+
+    enum Operation {
+        /** {@code GET /search} by a last name prefix. */
+        SEARCH,
+        /** {@code GET /} by an exact last name, served from the response cache. */
+        FIND,
+        /** {@code GET /list} for a page of users. */
+        LIST,
+        /** {@code POST /} of a new user. */
+        ADD,
+        /** {@code DELETE /{id}} of a preloaded user. */
+        DELETE,
+        /**
+         * A request the server rejects, in turn a user with an invalid birth number, a user without a name and
+         * {@code DELETE} of an ID that is not a number. It succeeds when it is answered with 400.
+         */
+        MALFORMED(400);
+
+        private final int expectedStatus;
+
+        Operation() {
+            this(200);
+        }
+
+        Operation(int expectedStatus) {
+            this.expectedStatus = expectedStatus;
+        }
+
+        int getExpectedStatus() {
+            return expectedStatus;
+        }
+    }
+
+    private final List<Operation> operations;
+    private final int[] cumulativeWeights;
+    private final String spec;
+
+    private TrafficMix(List<Operation> operations, int[] cumulativeWeights, String spec) {
+        this.operations = operations;
+        this.cumulativeWeights = cumulativeWeights;
+        this.spec = spec;
+    }
+
+    static TrafficMix parse(String spec) {
+        List<Operation> operations = new ArrayList<>();
+        List<String> normalized = new ArrayList<>();
+        int[] cumulativeWeights = new int[Operation.values().length];
+        int total = 0;
+
+        for (String part : spec.split(",")) {
+            String[] operationAndWeight = part.trim().split("=");
+            if (operationAndWeight.length != 2) {
+                throw new IllegalArgumentException("Expected operation=weight in the traffic mix: " + part);
+            }
+
+            Operation operation = Operation.valueOf(operationAndWeight[0].trim().toUpperCase(Locale.ROOT));
+            int weight = Integer.parseInt(operationAndWeight[1].trim());
+            if (weight <= 0 || operations.contains(operation)) {
+                throw new IllegalArgumentException("Each operation needs a single positive weight: " + spec);
+            }
+
+            total += weight;
+            cumulativeWeights[operations.size()] = total;
+            operations.add(operation);
+            normalized.add(operation.name().toLowerCase(Locale.ROOT) + "=" + weight);
+        }
+
+        return new TrafficMix(List.copyOf(operations), Arrays.copyOf(cumulativeWeights, operations.size()),
+                String.join(",", normalized));
+    }
+
+    List<Operation> getOperations() {
+        return operations;
+    }
+
+    Operation next() {
+        int draw = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (draw < cumulativeWeights[i]) {
+                return operations.get(i);
+            }
+        }
+        throw new IllegalStateException("The draw is below the total weight");
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
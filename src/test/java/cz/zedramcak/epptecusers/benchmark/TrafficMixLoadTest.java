@@ -0,0 +1,221 @@
+package cz.zedramcak.epptecusers.benchmark;
+
+import cz.zedramcak.epptecusers.EpptecUsersApplication;
+import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.repository.UserRepository;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Replays a traffic mix against the application on an embedded server at a fixed request rate.
+ * <p>
+ * Requests are scheduled at even intervals whether or not earlier ones have completed, and each latency counts
+ * from the scheduled start, so waiting for a free client while the server falls behind shows up in the
+ * latencies instead of lowering the rate. The report goes to {@code load.report}, and is compared to the
+ * baseline at {@code load.baseline} if there is one. Run it with the {@code load-test} profile:
+ * <pre>
+ * ./mvnw -Pload-test test -Dtest=TrafficMixLoadTest -Dload.mix=search=80,add=15,delete=5 -Dload.rps=2000
+ * ./mvnw -Pload-test test -Dtest=TrafficMixLoadTest -Dload.update-baseline=true
+ * ./mvnw -Pload-test test -Dtest=TrafficMixLoadTest -Dload.mix=add=50,malformed=50
+ * </pre>
+ */
+@Tag("load")
+public class TrafficMixLoadTest {
+    private static final TrafficMix MIX = TrafficMix.parse(System.getProperty("load.mix", "search=80,add=15,delete=5"));
+    private static final int RPS = Integer.getInteger("load.rps", 500);
+    private static final int CLIENTS = Integer.getInteger("load.clients", 200);
+    private static final int USERS = Integer.getInteger("load.users", 100_000);
+    private static final Duration DURATION = Duration.parse(System.getProperty("load.duration", "PT30S"));
+    private static final Duration WARMUP = Duration.parse(System.getProperty("load.warmup", "PT5S"));
+    private static final Path REPORT = Path.of(System.getProperty("load.report", "target/load-report.json"));
+    private static final Path BASELINE = Path.of(System.getProperty("load.baseline", "src/test/resources/load-baseline.json"));
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty("load.tolerance", "0.2"));
+    private static final boolean UPDATE_BASELINE = Boolean.getBoolean("load.update-baseline");
+
+    private static final int PAGE_SIZE = 100;
+
+    private final AtomicLong nextUser = new AtomicLong(USERS);
+    private final AtomicInteger nextRemovedUser = new AtomicInteger();
+    private int[] preloadedUserIds;
+
+    @Test
+    public void trafficMix_ShouldNotRegress_AgainstBaseline() throws Exception {
+        LoadReport report;
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(EpptecUsersApplication.class)
+                .properties("server.port=0")
+                .run()) {
+            preload(context.getBean(UserRepository.class));
+            String baseUri = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/v1/users";
+
+            load(baseUri, WARMUP);
+            report = load(baseUri, DURATION);
+        }
+
+        report.write(REPORT);
+        System.out.println(report.format());
+
+        if (UPDATE_BASELINE) {
+            report.write(BASELINE);
+        } else if (Files.exists(BASELINE)) {
+            List<String> regressions = report.regressionsAgainst(LoadReport.read(BASELINE), TOLERANCE);
+            assertTrue(regressions.isEmpty(), "Regressed against " + BASELINE + ":\n" + String.join("\n", regressions));
+        } else {
+            System.out.println("No baseline at " + BASELINE + ", record one with -Dload.update-baseline=true");
+        }
+    }
+
+    private void preload(UserRepository userRepository) {
+        List<User> users = LongStream.range(0, USERS).mapToObj(BenchmarkUsers::user).toList();
+        preloadedUserIds = userRepository.addUsers(users);
+    }
+
+    private LoadReport load(String baseUri, Duration duration) throws Exception {
+        long intervalNanos = 1_000_000_000L / RPS;
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+        AtomicLong nextRequest = new AtomicLong();
+        List<Future<long[][]>> clients = new ArrayList<>(CLIENTS);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+             HttpClient httpClient = HttpClient.newBuilder().executor(executor).build()) {
+            for (int i = 0; i < CLIENTS; i++) {
+                clients.add(executor.submit(() -> runClient(httpClient, baseUri, start, intervalNanos, deadline, nextRequest)));
+            }
+
+            List<long[]> latencies = new ArrayList<>();
+            for (int i = 0; i < TrafficMix.Operation.values().length; i++) {
+                latencies.add(new long[0]);
+            }
+            for (Future<long[][]> client : clients) {
+                long[][] clientLatencies = client.get();
+                for (int i = 0; i < clientLatencies.length; i++) {
+                    latencies.set(i, concat(latencies.get(i), clientLatencies[i]));
+                }
+            }
+
+            Map<String, long[]> latenciesByOperation = new LinkedHashMap<>();
+            for (TrafficMix.Operation operation : MIX.getOperations()) {
+                latenciesByOperation.put(operation.name().toLowerCase(Locale.ROOT), latencies.get(operation.ordinal()));
+            }
+            Duration elapsed = Duration.ofNanos(Math.max(System.nanoTime() - start, duration.toNanos()));
+            return LoadReport.of(MIX, RPS, CLIENTS, elapsed, latenciesByOperation);
+        }
+    }
+
+    /**
+     * Takes the next scheduled request until the deadline, waits for its start and sends it.
+     *
+     * @return the latency of every request by operation ordinal in nanoseconds, negated for failed requests
+     */
+    private long[][] runClient(HttpClient httpClient, String baseUri, long start, long intervalNanos, long deadline,
+                               AtomicLong nextRequest) throws InterruptedException {
+        long[][] latencies = new long[TrafficMix.Operation.values().length][64];
+        int[] counts = new int[latencies.length];
+
+        for (long scheduled = start + nextRequest.getAndIncrement() * intervalNanos; scheduled < deadline;
+             scheduled = start + nextRequest.getAndIncrement() * intervalNanos) {
+            LockSupport.parkNanos(scheduled - System.nanoTime());
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            TrafficMix.Operation operation = MIX.next();
+            boolean succeeded;
+            try {
+                succeeded = httpClient.send(request(baseUri, operation), HttpResponse.BodyHandlers.discarding())
+                        .statusCode() == operation.getExpectedStatus();
+            } catch (IOException exception) {
+                succeeded = false;
+            }
+            long latency = System.nanoTime() - scheduled;
+
+            int index = operation.ordinal();
+            if (counts[index] == latencies[index].length) {
+                latencies[index] = Arrays.copyOf(latencies[index], counts[index] * 2);
+            }
+            latencies[index][counts[index]++] = succeeded ? latency : -latency;
+        }
+
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = Arrays.copyOf(latencies[i], counts[i]);
+        }
+        return latencies;
+    }
+
+    private HttpRequest request(String baseUri, TrafficMix.Operation operation) {
+        long user = ThreadLocalRandom.current().nextLong(USERS);
+        return switch (operation) {
+            case SEARCH -> HttpRequest.newBuilder(URI.create(baseUri + "/search?lastName=" + BenchmarkUsers.lastName(user) + "*")).build();
+            case FIND -> HttpRequest.newBuilder(URI.create(baseUri + "?lastName=" + BenchmarkUsers.lastName(user))).build();
+            case LIST -> HttpRequest.newBuilder(URI.create(baseUri + "/list?limit=" + PAGE_SIZE)).build();
+            case ADD -> HttpRequest.newBuilder(URI.create(baseUri))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(userJson(nextUser.getAndIncrement())))
+                    .build();
+            case DELETE -> HttpRequest.newBuilder(URI.create(baseUri + "/" + nextRemovedUserId())).DELETE().build();
+            case MALFORMED -> malformedRequest(baseUri, user);
+        };
+    }
+
+    private static HttpRequest malformedRequest(String baseUri, long user) {
+        return switch ((int) (user % 3)) {
+            case 0 -> HttpRequest.newBuilder(URI.create(baseUri))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(String.format(
+                            "{\"birthNumber\":\"invalid\",\"firstName\":\"%s\",\"lastName\":\"%s\"}",
+                            BenchmarkUsers.firstName(user), BenchmarkUsers.lastName(user))))
+                    .build();
+            case 1 -> HttpRequest.newBuilder(URI.create(baseUri))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"birthNumber\":\"" + BenchmarkUsers.birthNumber(user) + "\"}"))
+                    .build();
+            default -> HttpRequest.newBuilder(URI.create(baseUri + "/user-" + user)).DELETE().build();
+        };
+    }
+
+    /**
+     * Returns the next preloaded user to remove. Once all of them are removed, the IDs are unknown and fail.
+     */
+    private int nextRemovedUserId() {
+        int index = nextRemovedUser.getAndIncrement();
+        return index < preloadedUserIds.length ? preloadedUserIds[index] : UserRepository.NO_ID;
+    }
+
+    private static String userJson(long index) {
+        return String.format("{\"birthNumber\":\"%s\",\"firstName\":\"%s\",\"lastName\":\"%s\"}",
+                BenchmarkUsers.birthNumber(index), BenchmarkUsers.firstName(index), BenchmarkUsers.lastName(index));
+    }
+
+    private static long[] concat(long[] first, long[] second) {
+        long[] joined = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        return joined;
+    }
+}
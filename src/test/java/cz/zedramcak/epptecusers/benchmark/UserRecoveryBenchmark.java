@@ -0,0 +1,109 @@
+package cz.zedramcak.epptecusers.benchmark;
+
+import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.repository.UserRepository;
+import cz.zedramcak.epptecusers.repository.persistence.UserSnapshotFile;
+import cz.zedramcak.epptecusers.repository.persistence.UserWriteAheadLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Startup cost of restoring {@code size} users either from a snapshot, read in order or in parallel as the
+ * startup image is, or by replaying the write-ahead log. Both files are written once per trial into a
+ * temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms8g", "-Xmx8g"})
+public class UserRecoveryBenchmark {
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"10000", "1000000", "10000000"})
+    private int size;
+
+    private Path snapshotDirectory;
+    private Path logDirectory;
+    private Path snapshotFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        UserRepository userRepository = BenchmarkUsers.repository(size);
+        snapshotDirectory = Files.createTempDirectory("user-snapshot-benchmark");
+        snapshotFile = snapshotDirectory.resolve("users.snapshot");
+        UserSnapshotFile.write(snapshotFile, 0, userRepository.getIdCounters(), userRepository.getAllUsers().entrySet());
+
+        logDirectory = Files.createTempDirectory("user-log-benchmark");
+        try (UserWriteAheadLog writeAheadLog = new UserWriteAheadLog(logDirectory, false)) {
+            writeAheadLog.start();
+            UserRepository loggedRepository = new UserRepository(List.of(writeAheadLog));
+            List<User> batch = new ArrayList<>(BATCH_SIZE);
+            for (long i = 0; i < size; i++) {
+                batch.add(BenchmarkUsers.user(i));
+                if (batch.size() == BATCH_SIZE || i == size - 1) {
+                    loggedRepository.addUsers(batch);
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        delete(snapshotDirectory);
+        delete(logDirectory);
+    }
+
+    @Benchmark
+    public UserRepository recoverFromSnapshot() throws IOException {
+        UserRepository userRepository = new UserRepository();
+        userRepository.restoreIdCounters(UserSnapshotFile.readHeader(snapshotFile).getIdCounters());
+        UserSnapshotFile.read(snapshotFile, userRepository::restoreUser);
+        return userRepository;
+    }
+
+    @Benchmark
+    public UserRepository recoverFromSnapshotInParallel() throws IOException {
+        UserRepository userRepository = new UserRepository();
+        userRepository.restoreIdCounters(UserSnapshotFile.readHeader(snapshotFile).getIdCounters());
+        UserSnapshotFile.readInParallel(snapshotFile, userRepository::restoreUser);
+        return userRepository;
+    }
+
+    @Benchmark
+    public UserRepository replayLog() throws IOException {
+        UserRepository userRepository = new UserRepository();
+        new UserWriteAheadLog(logDirectory, false).replay(0, userRepository);
+        return userRepository;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package cz.zedramcak.epptecusers.benchmark;
+
+import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.repository.UserRepository;
+import cz.zedramcak.epptecusers.repository.store.HeapUserStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Insert, lookup and churn cost of {@link UserRepository} at different table sizes.
+ * Inserts keep growing the table during the measurement, starting from {@code size} users, while churn
+ * replaces the oldest user with a new one and keeps the size, reusing ID slots when {@code reuseIds} is set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms8g", "-Xmx8g"})
+public class UserRepositoryBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    private int size;
+
+    @Param({"false", "true"})
+    private boolean reuseIds;
+
+    private UserRepository userRepository;
+    private AtomicLong nextUser;
+    private AtomicLong oldestUser;
+    private int[] userIds;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        userRepository = BenchmarkUsers.repository(() -> new HeapUserStore(reuseIds ? 4 : 0), 1, size);
+        nextUser = new AtomicLong(size);
+        oldestUser = new AtomicLong();
+        userIds = userRepository.getAllUsers().keySet().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Benchmark
+    public boolean addUser() {
+        User user = BenchmarkUsers.user(nextUser.getAndIncrement());
+        return userRepository.addUser(user);
+    }
+
+    @Benchmark
+    public boolean existsUserByBirthNumber_Hit() {
+        return userRepository.existsUserByBirthNumber(BenchmarkUsers.birthNumber(randomUser()));
+    }
+
+    @Benchmark
+    public boolean existsUserByBirthNumber_Miss() {
+        return userRepository.existsUserByBirthNumber(BenchmarkUsers.birthNumber(Integer.MAX_VALUE + randomUser()));
+    }
+
+    @Benchmark
+    public Optional<User> findUserById() {
+        return userRepository.findUserById(userIds[(int) randomUser()]);
+    }
+
+    @Benchmark
+    public boolean replaceUser() {
+        userRepository.findUserIdByBirthNumber(BenchmarkUsers.birthNumber(oldestUser.getAndIncrement()))
+                .ifPresent(userRepository::removeUser);
+        return userRepository.addUser(BenchmarkUsers.user(nextUser.getAndIncrement()));
+    }
+
+    private long randomUser() {
+        return ThreadLocalRandom.current().nextInt(size);
+    }
+}
@@ -0,0 +1,92 @@
+package cz.zedramcak.epptecusers.benchmark;
+
+import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.repository.UserRepository;
+import cz.zedramcak.epptecusers.repository.store.ColumnarUserStore;
+import cz.zedramcak.epptecusers.repository.store.HeapUserStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Date of birth range searches answered by the parallel store scan and by the index. The scan runs on a
+ * fork-join pool of the given parallelism, so comparing the rows of one size shows how it scales with
+ * cores. {@code share} is the part of the users the range matches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = {"-Xms8g", "-Xmx8g"})
+public class UserScanBenchmark {
+
+    @Param({"1000000", "10000000"})
+    private int size;
+
+    @Param({"heap", "columnar"})
+    private String storage;
+
+    @Param({"1", "2", "4", "8"})
+    private int parallelism;
+
+    @Param({"0.01", "0.1", "0.5"})
+    private double share;
+
+    private UserRepository userRepository;
+    private ForkJoinPool pool;
+    private int bornFrom;
+    private int bornTo;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        userRepository = BenchmarkUsers.repository(
+                "columnar".equals(storage) ? ColumnarUserStore::new : HeapUserStore::new, 1, size);
+        pool = new ForkJoinPool(parallelism);
+
+        int[] datesOfBirth = IntStream.range(0, size)
+                .map(index -> BenchmarkUsers.user(index).getDateOfBirth())
+                .sorted()
+                .toArray();
+        bornFrom = datesOfBirth[0];
+        bornTo = datesOfBirth[Math.max(0, (int) (size * share) - 1)];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Map<Integer, User> scan() {
+        return pool.submit(() -> userRepository.scanUsersByDateOfBirth(bornFrom, bornTo)).join();
+    }
+
+    /**
+     * What the search planner does for a range without the scan.
+     */
+    @Benchmark
+    public Map<Integer, User> index() {
+        Map<Integer, User> users = new LinkedHashMap<>();
+        for (Integer userId : userRepository.findUserIdsByDateOfBirth(bornFrom, bornTo)) {
+            userRepository.findUserById(userId).ifPresent(user -> users.put(userId, user));
+        }
+        return users;
+    }
+}
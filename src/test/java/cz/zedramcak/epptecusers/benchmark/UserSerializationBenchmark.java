@@ -0,0 +1,79 @@
+package cz.zedramcak.epptecusers.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import cz.zedramcak.epptecusers.entity.dto.UserDTO;
+import cz.zedramcak.epptecusers.repository.UserRepository;
+import cz.zedramcak.epptecusers.service.UserJsonWriter;
+import cz.zedramcak.epptecusers.service.UserServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of the {@code /list} response. {@code serializeUserList} is Jackson alone over ready DTOs,
+ * written to a null stream. The {@code *JsonArray} benchmarks build the whole response body the way the
+ * controller does: {@code dtoJsonArray} converts to DTOs and runs Jackson, {@code fragmentJsonArray} appends
+ * the fragments {@link UserJsonWriter} encoded when the users were added, and {@code encodedJsonArray}
+ * encodes every user on the fly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = {"-Xms8g", "-Xmx8g"})
+public class UserSerializationBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    private int size;
+
+    private List<UserDTO> users;
+    private ObjectWriter objectWriter;
+    private UserServiceImpl userService;
+    private UserServiceImpl encodingUserService;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        UserJsonWriter userJsonWriter = new UserJsonWriter();
+        UserRepository userRepository = BenchmarkUsers.repository(size, userJsonWriter);
+        userService = BenchmarkUsers.service(userRepository, userJsonWriter);
+        encodingUserService = BenchmarkUsers.service(userRepository);
+        users = userService.getAllUsers();
+        objectWriter = new ObjectMapper().writerFor(List.class);
+    }
+
+    @Benchmark
+    public void serializeUserList() throws IOException {
+        objectWriter.writeValue(OutputStream.nullOutputStream(), users);
+    }
+
+    @Benchmark
+    public byte[] dtoJsonArray() throws IOException {
+        return objectWriter.writeValueAsBytes(userService.getAllUsers());
+    }
+
+    @Benchmark
+    public byte[] fragmentJsonArray() {
+        return userService.getAllUsersJson();
+    }
+
+    @Benchmark
+    public byte[] encodedJsonArray() {
+        return encodingUserService.getAllUsersJson();
+    }
+}
@@ -0,0 +1,76 @@
+package cz.zedramcak.epptecusers.benchmark;
+
+import cz.zedramcak.epptecusers.entity.dto.UserDTO;
+import cz.zedramcak.epptecusers.service.UserServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code findUsers} with different filter mixes and the full-table DTO conversion of {@code getAllUsers}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms8g", "-Xmx8g"})
+public class UserServiceBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    private int size;
+
+    private UserServiceImpl userService;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        userService = BenchmarkUsers.service(BenchmarkUsers.repository(size));
+    }
+
+    @Benchmark
+    public List<UserDTO> findUsers_BirthNumber() {
+        return userService.findUsers(null, null, BenchmarkUsers.birthNumber(randomUser()));
+    }
+
+    @Benchmark
+    public List<UserDTO> findUsers_FirstName() {
+        return userService.findUsers(BenchmarkUsers.firstName(randomUser()), null, null);
+    }
+
+    @Benchmark
+    public List<UserDTO> findUsers_FirstAndLastName() {
+        long user = randomUser();
+        return userService.findUsers(BenchmarkUsers.firstName(user), BenchmarkUsers.lastName(user), null);
+    }
+
+    @Benchmark
+    public List<UserDTO> findUsers_AllFilters() {
+        long user = randomUser();
+        return userService.findUsers(BenchmarkUsers.firstName(user), BenchmarkUsers.lastName(user), BenchmarkUsers.birthNumber(user));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 10)
+    public List<UserDTO> getAllUsers() {
+        return userService.getAllUsers();
+    }
+
+    private long randomUser() {
+        return ThreadLocalRandom.current().nextInt(size);
+    }
+}
@@ -0,0 +1,19 @@
+/**
+ * JMH benchmarks for the repository, service and serialization hot paths.
+ * <p>
+ * Run them with the {@code benchmark} profile, which compiles the tests, skips them and
+ * starts the JMH runner with the test classpath:
+ * <pre>
+ * ./mvnw -Pbenchmark verify
+ * ./mvnw -Pbenchmark verify -Djmh.include=UserServiceBenchmark -Djmh.args="-p size=10000 -t 8"
+ * </pre>
+ * Every benchmark runs at 10k, 1M and 10M users by default ({@code -p size=...} narrows it).
+ * {@code -t N} runs N threads against the same state for multi-threaded numbers. Results are
+ * written to {@code target/jmh-result.json}. The 10M runs need about 8 GB of heap.
+ * <p>
+ * Load tests against a running application are tagged {@code load}, skipped by the default build
+ * and run with {@code ./mvnw -Pload-test test}. {@link cz.zedramcak.epptecusers.benchmark.TrafficMixLoadTest}
+ * replays a configurable request mix at a fixed rate, writes the throughput, latency percentiles and error rates to
+ * {@code target/load-report.json} and fails on regressions against a recorded baseline.
+ */
+package cz.zedramcak.epptecusers.benchmark;
@@ -0,0 +1,178 @@
+package cz.zedramcak.epptecusers.controller;
+
+import cz.zedramcak.epptecusers.config.ChangeFeedConfiguration;
+import cz.zedramcak.epptecusers.entity.dto.UserChangeDTO;
+import cz.zedramcak.epptecusers.entity.dto.UserChangeType;
+import cz.zedramcak.epptecusers.entity.dto.UserChangesDTO;
+import cz.zedramcak.epptecusers.entity.dto.UserDTO;
+import cz.zedramcak.epptecusers.metrics.UserMetrics;
+import cz.zedramcak.epptecusers.service.UserService;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(UserChangeController.class)
+@Import(ChangeFeedConfiguration.class)
+public class UserChangeControllerTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private UserService userService;
+
+    @MockBean
+    private UserMetrics userMetrics;
+
+    private UserChangesDTO oneChange;
+
+    @BeforeEach
+    public void setup() {
+        UserDTO userDTO = new UserDTO(1, "820101/1234", "Jim", "Halpert", 39);
+        oneChange = new UserChangesDTO(List.of(new UserChangeDTO(6, UserChangeType.ADDED, userDTO)), false, 6);
+    }
+
+    @Test
+    public void pollChanges_ShouldAnswerRightAway_WhenChangesExist() throws Exception {
+        when(userService.getChanges(5, 100)).thenReturn(oneChange);
+
+        MvcResult result = mockMvc.perform(get("/api/v1/users/changes").param("since", "5"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.changes[0].type", is("ADDED")))
+                .andExpect(jsonPath("$.changes[0].user.firstName", is("Jim")))
+                .andExpect(jsonPath("$.lastSequence", is(6)));
+        verify(userService, never()).whenChangedAfter(anyLong());
+    }
+
+    @Test
+    public void pollChanges_ShouldWaitForNextChange_WhenThereIsNone() throws Exception {
+        CompletableFuture<Void> nextChange = new CompletableFuture<>();
+        when(userService.getChanges(5, 100))
+                .thenReturn(new UserChangesDTO(List.of(), false, 5))
+                .thenReturn(oneChange);
+        when(userService.whenChangedAfter(5)).thenReturn(nextChange);
+
+        MvcResult result = mockMvc.perform(get("/api/v1/users/changes").param("since", "5"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        nextChange.complete(null);
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.changes.size()", is(1)))
+                .andExpect(jsonPath("$.reset", is(false)));
+    }
+
+    @Test
+    public void pollChanges_ShouldStopWaiting_WhenPollTimesOut() throws Exception {
+        CompletableFuture<Void> nextChange = new CompletableFuture<>();
+        when(userService.getChanges(5, 100)).thenReturn(new UserChangesDTO(List.of(), false, 5));
+        when(userService.whenChangedAfter(5)).thenReturn(nextChange);
+
+        MvcResult result = mockMvc.perform(get("/api/v1/users/changes").param("since", "5"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        timeOut(result);
+
+        assertTrue(nextChange.isCancelled());
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.changes.size()", is(0)));
+    }
+
+    @Test
+    public void pollChanges_ShouldReturnBadRequest_WhenLimitIsInvalid() throws Exception {
+        when(userService.getChanges(5, 0)).thenThrow(new IllegalArgumentException("The limit must be positive."));
+
+        mockMvc.perform(get("/api/v1/users/changes").param("since", "5").param("limit", "0"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("The limit must be positive."));
+    }
+
+    @Test
+    public void streamChanges_ShouldSendChangeEvents_FromLastEventId() throws Exception {
+        when(userService.getChanges(5, 100)).thenReturn(oneChange);
+        when(userService.whenChangedAfter(6)).thenReturn(new CompletableFuture<>());
+
+        MvcResult result = mockMvc.perform(get("/api/v1/users/changes")
+                        .header("Last-Event-ID", "5")
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String events = awaitContent(result, "id:6");
+        assertTrue(events.contains("event:change"));
+        assertTrue(events.contains("\"firstName\":\"Jim\""));
+    }
+
+    @Test
+    public void streamChanges_ShouldSendResetEvent_WhenChangesWereMissed() throws Exception {
+        when(userService.getLatestChangeSequence()).thenReturn(2L);
+        when(userService.getChanges(2, 100)).thenReturn(new UserChangesDTO(List.of(), true, 9));
+        when(userService.whenChangedAfter(9)).thenReturn(new CompletableFuture<>());
+
+        MvcResult result = mockMvc.perform(get("/api/v1/users/changes").accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        assertTrue(awaitContent(result, "data:9").contains("event:reset"));
+    }
+
+    @Test
+    public void streamChanges_ShouldStopWaiting_WhenStreamIsClosed() throws Exception {
+        CompletableFuture<Void> nextChange = new CompletableFuture<>();
+        when(userService.getChanges(5, 100)).thenReturn(oneChange);
+        when(userService.whenChangedAfter(6)).thenReturn(nextChange);
+
+        MvcResult result = mockMvc.perform(get("/api/v1/users/changes")
+                        .header("Last-Event-ID", "5")
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        awaitContent(result, "id:6");
+        verify(userService, timeout(2000)).whenChangedAfter(6);
+
+        result.getRequest().getAsyncContext().complete();
+
+        assertTrue(nextChange.isCancelled());
+    }
+
+    private static void timeOut(MvcResult result) throws Exception {
+        MockAsyncContext asyncContext = (MockAsyncContext) result.getRequest().getAsyncContext();
+        for (AsyncListener listener : asyncContext.getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext));
+        }
+    }
+
+    private static String awaitContent(MvcResult result, String expected) throws Exception {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            String content = result.getResponse().getContentAsString();
+            if (content.contains(expected)) {
+                return content;
+            }
+            Thread.sleep(20);
+        }
+        return fail("No event containing " + expected + " in: " + result.getResponse().getContentAsString());
+    }
+}
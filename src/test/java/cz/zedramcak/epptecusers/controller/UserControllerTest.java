@@ -1,35 +1,65 @@
 package cz.zedramcak.epptecusers.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.zedramcak.epptecusers.cache.UserResponseCache;
+import cz.zedramcak.epptecusers.config.ResponseCacheConfiguration;
 import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.entity.dto.BulkImportRecordDTO;
+import cz.zedramcak.epptecusers.entity.dto.BulkImportResultDTO;
+import cz.zedramcak.epptecusers.entity.dto.BulkImportStatus;
 import cz.zedramcak.epptecusers.entity.dto.UserDTO;
-import cz.zedramcak.epptecusers.exceptions.MissingDataException;
-import cz.zedramcak.epptecusers.exceptions.UserDoesNotExistsException;
-import cz.zedramcak.epptecusers.exceptions.UserExistsException;
+import cz.zedramcak.epptecusers.entity.dto.UserPageDTO;
+import cz.zedramcak.epptecusers.entity.dto.UserSearchCriteria;
+import cz.zedramcak.epptecusers.exceptions.InvalidRequestException;
+import cz.zedramcak.epptecusers.exceptions.UserIdsExhaustedException;
+import cz.zedramcak.epptecusers.exceptions.UserWriteFailedException;
+import cz.zedramcak.epptecusers.metrics.UserMetrics;
+import cz.zedramcak.epptecusers.service.UserOperationResult;
 import cz.zedramcak.epptecusers.service.UserService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @WebMvcTest(UserController.class)
+@Import(ResponseCacheConfiguration.class)
 public class UserControllerTest {
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private UserResponseCache userResponseCache;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @MockBean
     private UserService userService;
 
+    @MockBean
+    private UserMetrics userMetrics;
+
     private UserDTO userDTO;
 
     @BeforeEach
@@ -40,35 +70,170 @@ public class UserControllerTest {
         user.setBirthNumber("820101/1234");
 
         userDTO = new UserDTO(1, "820101/1234", "Jim", "Halpert", 39);
+
+        userResponseCache.invalidateAll();
+        when(userService.getDataVersion()).thenReturn("1-2024-06-15");
     }
 
     @Test
     public void getAllUsers_ShouldReturnListOfUsers() throws Exception {
         List<UserDTO> users = Collections.singletonList(userDTO);
-        when(userService.getAllUsers()).thenReturn(users);
+        when(userService.getAllUsersJson()).thenReturn(json(users));
 
         mockMvc.perform(get("/api/v1/users/list"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.size()", is(1)))
                 .andExpect(jsonPath("$[0].firstName", is("Jim")));
 
-        verify(userService, times(1)).getAllUsers();
+        verify(userService, times(1)).getAllUsersJson();
     }
 
     @Test
     public void getAllUsers_ShouldReturnEmptyList_WhenNoUsersExist() throws Exception {
-        when(userService.getAllUsers()).thenReturn(Collections.emptyList());
+        when(userService.getAllUsersJson()).thenReturn(json(Collections.emptyList()));
 
         mockMvc.perform(get("/api/v1/users/list"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.size()", is(0)));
 
-        verify(userService, times(1)).getAllUsers();
+        verify(userService, times(1)).getAllUsersJson();
+    }
+
+    @Test
+    public void searchUsers_ShouldReturnMatchingUsers() throws Exception {
+        UserSearchCriteria criteria = new UserSearchCriteria();
+        criteria.setLastName("Hal*");
+        criteria.setMinAge(18);
+        criteria.setBornTo(LocalDate.of(1990, 3, 31));
+        when(userService.searchUsersJson(criteria)).thenReturn(json(List.of(userDTO)));
+
+        mockMvc.perform(get("/api/v1/users/search")
+                        .param("lastName", "Hal*")
+                        .param("minAge", "18")
+                        .param("bornTo", "1990-03-31"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.size()", is(1)))
+                .andExpect(jsonPath("$[0].lastName", is("Halpert")));
+    }
+
+    @Test
+    public void searchUsersAsync_ShouldReturnMatchingUsers() throws Exception {
+        UserSearchCriteria criteria = new UserSearchCriteria();
+        criteria.setFirstName("Jim");
+        when(userService.searchUsersJson(criteria)).thenReturn(json(List.of(userDTO)));
+
+        MvcResult result = mockMvc.perform(get("/api/v1/users/search/async").param("firstName", "Jim"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].firstName", is("Jim")));
+    }
+
+    @Test
+    public void searchUsersAsync_ShouldReturnBadRequest_WhenCriteriaAreInvalid() throws Exception {
+        when(userService.searchUsersJson(any())).thenThrow(new IllegalArgumentException("At least one search criterion is required."));
+
+        MvcResult result = mockMvc.perform(get("/api/v1/users/search/async"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("At least one search criterion is required."));
+    }
+
+    @Test
+    public void streamSearchUsers_ShouldWriteOneJsonObjectPerLine() throws Exception {
+        UserSearchCriteria criteria = new UserSearchCriteria();
+        criteria.setLastName("Hal*");
+        String line = "{\"id\":1,\"birthNumber\":\"820101/1234\",\"firstName\":\"Jim\",\"lastName\":\"Halpert\",\"age\":39}\n";
+        when(userService.searchUsersJsonLines(criteria))
+                .thenReturn(outputStream -> outputStream.write((line + line).getBytes(StandardCharsets.UTF_8)));
+
+        MvcResult result = mockMvc.perform(get("/api/v1/users/search")
+                        .param("lastName", "Hal*")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string(line + line));
+    }
+
+    @Test
+    public void streamSearchUsers_ShouldReturnBadRequest_WhenCriteriaAreInvalid() throws Exception {
+        when(userService.searchUsersJsonLines(any())).thenThrow(new InvalidRequestException("The age range is invalid."));
+
+        mockMvc.perform(get("/api/v1/users/search")
+                        .param("minAge", "50")
+                        .param("maxAge", "20")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("The age range is invalid."));
+    }
+
+    @Test
+    public void getUsersPage_ShouldReturnPageWithNextCursor() throws Exception {
+        when(userService.getUsersPage("MQ", 1)).thenReturn(new UserPageDTO(List.of(userDTO), "Mg", 7));
+
+        mockMvc.perform(get("/api/v1/users/list")
+                        .param("limit", "1")
+                        .param("cursor", "MQ"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users.size()", is(1)))
+                .andExpect(jsonPath("$.users[0].firstName", is("Jim")))
+                .andExpect(jsonPath("$.nextCursor", is("Mg")))
+                .andExpect(jsonPath("$.version", is(7)));
+
+        verify(userService, times(1)).getUsersPage("MQ", 1);
+        verify(userService, never()).getAllUsersJson();
+    }
+
+    @Test
+    public void getUsersPage_ShouldReturnBadRequest_WhenCursorIsInvalid() throws Exception {
+        when(userService.getUsersPage("broken", 10)).thenThrow(new IllegalArgumentException("The cursor is invalid."));
+
+        mockMvc.perform(get("/api/v1/users/list")
+                        .param("limit", "10")
+                        .param("cursor", "broken"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("The cursor is invalid."));
+    }
+
+    @Test
+    public void streamAllUsers_ShouldWriteOneJsonObjectPerLine() throws Exception {
+        UserDTO secondUserDTO = new UserDTO(2, "830202/2345", "Pam", "Beesly", 38);
+        doAnswer(invocation -> {
+            OutputStream outputStream = invocation.getArgument(0);
+            for (UserDTO user : List.of(userDTO, secondUserDTO)) {
+                outputStream.write(json(user));
+                outputStream.write('\n');
+            }
+            return null;
+        }).when(userService).writeAllUsersJsonLines(any());
+
+        MvcResult result = mockMvc.perform(get("/api/v1/users/list")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string(
+                        "{\"id\":1,\"birthNumber\":\"820101/1234\",\"firstName\":\"Jim\",\"lastName\":\"Halpert\",\"age\":39}\n"
+                        + "{\"id\":2,\"birthNumber\":\"830202/2345\",\"firstName\":\"Pam\",\"lastName\":\"Beesly\",\"age\":38}\n"));
+
+        verify(userService, never()).getAllUsersJson();
     }
 
     @Test
     public void findUsers_ShouldReturnMatchingUsers() throws Exception {
-        when(userService.findUsers("Jim", "Halpert", null)).thenReturn(List.of(userDTO));
+        when(userService.findUsersJson("Jim", "Halpert", null)).thenReturn(json(List.of(userDTO)));
 
         mockMvc.perform(get("/api/v1/users")
                         .param("firstName", "Jim")
@@ -78,12 +243,89 @@ public class UserControllerTest {
                 .andExpect(jsonPath("$[0].firstName", is("Jim")))
                 .andExpect(jsonPath("$[0].lastName", is("Halpert")));
 
-        verify(userService, times(1)).findUsers("Jim", "Halpert", null);
+        verify(userService, times(1)).findUsersJson("Jim", "Halpert", null);
+    }
+
+    @Test
+    public void getAllUsers_ShouldServeCachedResponse_UntilDataVersionChanges() throws Exception {
+        when(userService.getAllUsersJson()).thenReturn(json(List.of(userDTO)));
+
+        for (int i = 0; i < 3; i++) {
+            mockMvc.perform(get("/api/v1/users/list"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("ETag", "\"1-2024-06-15\""))
+                    .andExpect(jsonPath("$[0].firstName", is("Jim")));
+        }
+        verify(userService, times(1)).getAllUsersJson();
+
+        when(userService.getDataVersion()).thenReturn("2-2024-06-15");
+        when(userService.getAllUsersJson()).thenReturn(json(List.of()));
+
+        mockMvc.perform(get("/api/v1/users/list"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"2-2024-06-15\""))
+                .andExpect(jsonPath("$.size()", is(0)));
+        verify(userService, times(2)).getAllUsersJson();
+    }
+
+    @Test
+    public void getAllUsers_ShouldReturnNotModified_WhenETagMatches() throws Exception {
+        mockMvc.perform(get("/api/v1/users/list")
+                        .header("If-None-Match", "\"1-2024-06-15\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        verify(userService, never()).getAllUsersJson();
+    }
+
+    @Test
+    public void getAllUsersAsync_ShouldShareCachedResponseWithList() throws Exception {
+        when(userService.getAllUsersJson()).thenReturn(json(List.of(userDTO)));
+        mockMvc.perform(get("/api/v1/users/list")).andExpect(status().isOk());
+
+        MvcResult result = mockMvc.perform(get("/api/v1/users/list/async"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1-2024-06-15\""))
+                .andExpect(jsonPath("$[0].firstName", is("Jim")));
+        verify(userService, times(1)).getAllUsersJson();
+    }
+
+    @Test
+    public void getAllUsersAsync_ShouldReturnNotModified_WhenETagMatches() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/v1/users/list/async")
+                        .header("If-None-Match", "\"1-2024-06-15\""))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        verify(userService, never()).getAllUsersJson();
+    }
+
+    @Test
+    public void findUsers_ShouldCacheEachQuerySeparately() throws Exception {
+        when(userService.findUsersJson("Jim", null, null)).thenReturn(json(List.of(userDTO)));
+        when(userService.findUsersJson(null, "Jim", null)).thenReturn(json(List.of()));
+
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(get("/api/v1/users").param("firstName", "Jim"))
+                    .andExpect(jsonPath("$.size()", is(1)));
+            mockMvc.perform(get("/api/v1/users").param("lastName", "Jim"))
+                    .andExpect(jsonPath("$.size()", is(0)));
+        }
+
+        verify(userService, times(1)).findUsersJson("Jim", null, null);
+        verify(userService, times(1)).findUsersJson(null, "Jim", null);
     }
 
     @Test
     public void findUsers_ShouldReturnEmptyList_WhenNoUsersMatch() throws Exception {
-        when(userService.findUsers("Michael", "Scott", null)).thenReturn(Collections.emptyList());
+        when(userService.findUsersJson("Michael", "Scott", null)).thenReturn(json(Collections.emptyList()));
 
         mockMvc.perform(get("/api/v1/users")
                         .param("firstName", "Michael")
@@ -91,12 +333,12 @@ public class UserControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.size()", is(0)));
 
-        verify(userService, times(1)).findUsers("Michael", "Scott", null);
+        verify(userService, times(1)).findUsersJson("Michael", "Scott", null);
     }
 
     @Test
     public void addUser_ShouldAddUser_WhenValid() throws Exception {
-        doNothing().when(userService).addUser(any(User.class));
+        when(userService.addUser(any(User.class))).thenReturn(UserOperationResult.ADDED);
 
         mockMvc.perform(post("/api/v1/users")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -109,8 +351,7 @@ public class UserControllerTest {
 
     @Test
     public void addUser_ShouldReturnBadRequest_WhenUserAlreadyExists() throws Exception {
-        doThrow(new UserExistsException("User with this Birth Number already exists."))
-                .when(userService).addUser(any(User.class));
+        when(userService.addUser(any(User.class))).thenReturn(UserOperationResult.ALREADY_EXISTS);
 
         mockMvc.perform(post("/api/v1/users")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -119,12 +360,12 @@ public class UserControllerTest {
                 .andExpect(content().string("User with this Birth Number already exists."));
 
         verify(userService, times(1)).addUser(any(User.class));
+        verify(userMetrics, times(1)).countError("UserExistsException");
     }
 
     @Test
     public void addUser_ShouldReturnBadRequest_WhenDataIsMissing() throws Exception {
-        doThrow(new MissingDataException("First name and last name are required"))
-                .when(userService).addUser(any(User.class));
+        when(userService.addUser(any(User.class))).thenReturn(UserOperationResult.MISSING_DATA);
 
         mockMvc.perform(post("/api/v1/users")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -135,9 +376,146 @@ public class UserControllerTest {
         verify(userService, times(1)).addUser(any(User.class));
     }
 
+    @Test
+    public void addUser_ShouldReturnInsufficientStorage_WhenNoUserIdsAreLeft() throws Exception {
+        UserIdsExhaustedException exhausted = new UserIdsExhaustedException("No user IDs are left for this birth number.");
+        when(userService.addUser(any(User.class))).thenThrow(exhausted);
+
+        mockMvc.perform(post("/api/v1/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"firstName\":\"Pam\", \"lastName\":\"Beesly\", \"birthNumber\":\"830202/2345\"}"))
+                .andExpect(status().isInsufficientStorage())
+                .andExpect(content().string("No user IDs are left for this birth number."));
+
+        verify(userMetrics, times(1)).countError(exhausted);
+    }
+
+    @Test
+    public void removeUser_ShouldReturnServiceUnavailable_WhenChangeCannotBeSaved() throws Exception {
+        when(userService.removeUser("1")).thenThrow(new UserWriteFailedException("The user log is closed"));
+
+        mockMvc.perform(delete("/api/v1/users/1"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(content().string("The change could not be saved."));
+
+        verify(userMetrics, times(1)).countError(any(UserWriteFailedException.class));
+    }
+
+    @Test
+    public void addUser_ShouldReturnBadRequest_WhenBodyIsMalformed() throws Exception {
+        mockMvc.perform(post("/api/v1/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"firstName\":"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string(UserController.MALFORMED_BODY));
+
+        verify(userService, never()).addUser(any(User.class));
+        verify(userMetrics, times(1)).countError(any(HttpMessageNotReadableException.class));
+    }
+
+    @Test
+    public void addUsers_ShouldImportJsonArray() throws Exception {
+        BulkImportResultDTO result = new BulkImportResultDTO(2, 1, 1, List.of(
+                new BulkImportRecordDTO(0, BulkImportStatus.ADDED, 0),
+                new BulkImportRecordDTO(1, BulkImportStatus.DUPLICATE_IN_BATCH, null)));
+        List<User> importedUsers = recordImportedUsers(result);
+
+        mockMvc.perform(post("/api/v1/users/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"firstName\":\"Jim\", \"lastName\":\"Halpert\", \"birthNumber\":\"820101/1234\"},"
+                                + "{\"firstName\":\"Jim\", \"lastName\":\"Halpert\", \"birthNumber\":\"820101/1234\"}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.added", is(1)))
+                .andExpect(jsonPath("$.records[1].status", is("DUPLICATE_IN_BATCH")));
+
+        assertEquals(2, importedUsers.size());
+    }
+
+    @Test
+    public void addUsers_ShouldImportNothing_WhenJsonArrayIsEmpty() throws Exception {
+        List<User> importedUsers = recordImportedUsers(new BulkImportResultDTO(0, 0, 0, List.of()));
+
+        mockMvc.perform(post("/api/v1/users/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total", is(0)));
+
+        assertTrue(importedUsers.isEmpty());
+    }
+
+    @Test
+    public void addUsers_ShouldReturnBadRequest_WhenJsonIsNotArray() throws Exception {
+        mockMvc.perform(post("/api/v1/users/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"firstName\":\"Jim\", \"lastName\":\"Halpert\", \"birthNumber\":\"820101/1234\"}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string(UserController.MALFORMED_BODY));
+
+        verify(userService, never()).addUsers(any());
+    }
+
+    @Test
+    public void addUsers_ShouldReportUnreadableUser_WhenJsonArrayIsMalformed() throws Exception {
+        List<User> importedUsers = recordImportedUsers(new BulkImportResultDTO(0, 0, 0, List.of()));
+
+        mockMvc.perform(post("/api/v1/users/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"firstName\":\"Jim\"}, {\"firstName\":"))
+                .andExpect(status().isOk());
+
+        assertEquals(2, importedUsers.size());
+        assertEquals("Jim", importedUsers.getFirst().getFirstName());
+        assertNull(importedUsers.get(1));
+    }
+
+    @Test
+    public void addUsers_ShouldImportNdjsonStream() throws Exception {
+        List<User> importedUsers = recordImportedUsers(new BulkImportResultDTO(2, 2, 0, List.of()));
+
+        mockMvc.perform(post("/api/v1/users/bulk")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"firstName\":\"Jim\", \"lastName\":\"Halpert\", \"birthNumber\":\"820101/1234\"}\n"
+                                + "{\"firstName\":\"Pam\", \"lastName\":\"Beesly\", \"birthNumber\":\"830202/2345\"}\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.added", is(2)));
+
+        assertEquals(2, importedUsers.size());
+        assertEquals("Pam", importedUsers.get(1).getFirstName());
+    }
+
+    @Test
+    public void addUsers_ShouldReportUnreadableUser_WhenNdjsonIsMalformed() throws Exception {
+        List<User> importedUsers = recordImportedUsers(new BulkImportResultDTO(0, 0, 0, List.of()));
+
+        mockMvc.perform(post("/api/v1/users/bulk")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"firstName\":\"Jim\"\n"))
+                .andExpect(status().isOk());
+
+        assertEquals(Collections.singletonList(null), importedUsers);
+    }
+
+    /**
+     * Makes the service read the users it is given, as they are parsed while it imports them. A user that
+     * cannot be read is recorded as {@code null} and ends the import, as in the service.
+     */
+    private List<User> recordImportedUsers(BulkImportResultDTO result) {
+        List<User> importedUsers = new ArrayList<>();
+        when(userService.addUsers(any())).thenAnswer(invocation -> {
+            try {
+                invocation.<Iterator<User>>getArgument(0).forEachRemaining(importedUsers::add);
+            } catch (UncheckedIOException exception) {
+                importedUsers.add(null);
+            }
+            return result;
+        });
+        return importedUsers;
+    }
+
     @Test
     public void removeUser_ShouldRemoveUser_WhenUserExists() throws Exception {
-        doNothing().when(userService).removeUser("1");
+        when(userService.removeUser("1")).thenReturn(UserOperationResult.REMOVED);
 
         mockMvc.perform(delete("/api/v1/users/1"))
                 .andExpect(status().isOk())
@@ -148,20 +526,18 @@ public class UserControllerTest {
 
     @Test
     public void removeUser_ShouldReturnNotFound_WhenUserDoesNotExist() throws Exception {
-        doThrow(new UserDoesNotExistsException("User with id 1 does not exist"))
-                .when(userService).removeUser("1");
+        when(userService.removeUser("1")).thenReturn(UserOperationResult.NOT_FOUND);
 
         mockMvc.perform(delete("/api/v1/users/1"))
                 .andExpect(status().isNotFound())
-                .andExpect(content().string("User with id 1 does not exist"));
+                .andExpect(content().string("The user does not exist."));
 
         verify(userService, times(1)).removeUser("1");
     }
 
     @Test
     public void removeUser_ShouldReturnBadRequest_WhenUserIdIsInvalid() throws Exception {
-        doThrow(new NumberFormatException("The userId is invalid."))
-                .when(userService).removeUser("invalid");
+        when(userService.removeUser("invalid")).thenReturn(UserOperationResult.INVALID_USER_ID);
 
         mockMvc.perform(delete("/api/v1/users/invalid"))
                 .andExpect(status().isBadRequest())
@@ -169,4 +545,9 @@ public class UserControllerTest {
 
         verify(userService, times(1)).removeUser("invalid");
     }
+
+    private byte[] json(Object value) throws Exception {
+        return objectMapper.writeValueAsBytes(value);
+    }
+
 }
@@ -0,0 +1,63 @@
+package cz.zedramcak.epptecusers.metrics;
+
+import cz.zedramcak.epptecusers.exceptions.InvalidRequestException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureObservability
+public class UserMetricsTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void record_ShouldTimeStageAndReturnResult() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UserMetrics userMetrics = new UserMetrics(registry);
+
+        assertEquals("result", userMetrics.record(UserMetrics.Stage.SEARCH, () -> "result"));
+
+        assertEquals(1, registry.get(UserMetrics.STAGE_TIMER).tag("stage", "search").timer().count());
+    }
+
+    @Test
+    public void countError_ShouldCountPerExceptionType() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UserMetrics userMetrics = new UserMetrics(registry);
+
+        userMetrics.countError(new InvalidRequestException("invalid"));
+        userMetrics.countError(new InvalidRequestException("invalid"));
+        userMetrics.countError("UserExistsException");
+
+        assertEquals(2, registry.get(UserMetrics.ERROR_COUNTER).tag("exception", "IllegalArgumentException").counter().count());
+        assertEquals(1, registry.get(UserMetrics.ERROR_COUNTER).tag("exception", "UserExistsException").counter().count());
+    }
+
+    @Test
+    public void prometheusEndpoint_ShouldExposeStageTimersAndRepositoryGauges() throws Exception {
+        mockMvc.perform(post("/api/v1/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"firstName\":\"Oscar\", \"lastName\":\"Martinez\", \"birthNumber\":\"invalid\"}"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("users_stage_seconds_bucket{stage=\"validation\"")))
+                .andExpect(content().string(containsString("users_errors_total{exception=\"IncorrectBirthNumberFormatException\"")))
+                .andExpect(content().string(containsString("users_repository_size")))
+                .andExpect(content().string(containsString("users_repository_index_size{index=\"first_name\"")));
+    }
+}
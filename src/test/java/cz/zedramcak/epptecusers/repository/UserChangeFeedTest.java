@@ -0,0 +1,84 @@
+package cz.zedramcak.epptecusers.repository;
+
+import cz.zedramcak.epptecusers.entity.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserChangeFeedTest {
+
+    private final UserChangeFeed userChangeFeed = new UserChangeFeed(4);
+
+    @Test
+    public void read_ShouldReturnChangesInSequenceOrder_UpToLimit() {
+        User user = createUser();
+        userChangeFeed.userAdded(0, user);
+        userChangeFeed.userAdded(1, user);
+        userChangeFeed.userRemoved(0, user);
+
+        UserChangeFeed.Changes changes = userChangeFeed.read(0, 2);
+
+        assertFalse(changes.reset());
+        assertEquals(List.of(1L, 2L), changes.changes().stream().map(UserChangeFeed.UserChange::sequence).toList());
+        assertEquals(2, changes.lastSequence());
+        assertEquals(UserChangeFeed.UserChange.Type.REMOVED, userChangeFeed.read(2, 10).changes().getFirst().type());
+        assertEquals(List.of(), userChangeFeed.read(3, 10).changes());
+        assertEquals(3, userChangeFeed.read(3, 10).lastSequence());
+    }
+
+    @Test
+    public void read_ShouldReset_WhenChangesWereOverwritten() {
+        for (int userId = 0; userId < 6; userId++) {
+            userChangeFeed.userAdded(userId, createUser());
+        }
+
+        UserChangeFeed.Changes changes = userChangeFeed.read(1, 10);
+
+        assertTrue(changes.reset());
+        assertEquals(6, changes.lastSequence());
+        assertEquals(4, userChangeFeed.read(2, 10).changes().size());
+    }
+
+    @Test
+    public void read_ShouldReset_WhenSequenceIsAheadOfFeed() {
+        userChangeFeed.userAdded(0, createUser());
+
+        assertTrue(userChangeFeed.read(42, 10).reset());
+        assertTrue(userChangeFeed.read(-1, 10).reset());
+    }
+
+    @Test
+    public void whenChangedAfter_ShouldCompleteOnNextChange() {
+        userChangeFeed.userAdded(0, createUser());
+
+        CompletableFuture<Void> next = userChangeFeed.whenChangedAfter(1);
+        assertTrue(userChangeFeed.whenChangedAfter(0).isDone());
+        assertFalse(next.isDone());
+
+        userChangeFeed.userRemoved(0, createUser());
+
+        assertTrue(next.isDone());
+        assertEquals(0, userChangeFeed.getWaiterCount());
+    }
+
+    @Test
+    public void whenChangedAfter_ShouldForgetWaiter_WhenItIsCancelled() {
+        CompletableFuture<Void> next = userChangeFeed.whenChangedAfter(0);
+        assertEquals(1, userChangeFeed.getWaiterCount());
+
+        next.cancel(false);
+
+        assertEquals(0, userChangeFeed.getWaiterCount());
+    }
+
+    private static User createUser() {
+        User user = new User();
+        user.setFirstName("Jim");
+        user.setLastName("Halpert");
+        user.setBirthNumber("820101/1234");
+        return user;
+    }
+}
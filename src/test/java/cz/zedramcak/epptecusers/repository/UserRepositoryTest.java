@@ -0,0 +1,560 @@
+package cz.zedramcak.epptecusers.repository;
+
+import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.exceptions.UserIdsExhaustedException;
+import cz.zedramcak.epptecusers.repository.store.ColumnarUserStore;
+import cz.zedramcak.epptecusers.repository.store.HeapUserStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserRepositoryTest {
+
+    private static final int THREADS = 8;
+    private static final int USERS_PER_THREAD = 10_000;
+
+    private UserRepository userRepository;
+
+    @BeforeEach
+    public void setup() {
+        userRepository = new UserRepository();
+    }
+
+    @Test
+    public void addUser_ShouldNotLoseOrDuplicateIds_WhenCalledConcurrently() throws Exception {
+        runConcurrently(threadIndex -> {
+            for (int i = 0; i < USERS_PER_THREAD; i++) {
+                userRepository.addUser(createUser(threadIndex, i));
+            }
+        });
+
+        int expectedUsers = THREADS * USERS_PER_THREAD;
+        assertEquals(expectedUsers, userRepository.getAllUsers().size());
+
+        Set<Integer> ids = new HashSet<>(userRepository.getAllUsers().keySet());
+        assertEquals(expectedUsers, ids.size());
+        for (int id = 0; id < expectedUsers; id++) {
+            assertTrue(ids.contains(id), "Missing user id " + id);
+        }
+    }
+
+    @Test
+    public void removeUser_ShouldRemoveEveryUser_WhenCalledConcurrently() throws Exception {
+        int expectedUsers = THREADS * USERS_PER_THREAD;
+        for (int i = 0; i < expectedUsers; i++) {
+            userRepository.addUser(createUser(0, i));
+        }
+
+        runConcurrently(threadIndex -> {
+            for (int id = threadIndex; id < expectedUsers; id += THREADS) {
+                assertTrue(userRepository.existsUserById(id));
+                userRepository.removeUser(id);
+                assertFalse(userRepository.existsUserById(id));
+            }
+        });
+
+        assertTrue(userRepository.getAllUsers().isEmpty());
+    }
+
+    @Test
+    public void addUser_ShouldRejectDuplicateBirthNumber_WhenFormatDiffers() {
+        assertTrue(userRepository.addUser(createUser("820101/1234")));
+        assertFalse(userRepository.addUser(createUser("8201011234")));
+
+        assertEquals(1, userRepository.getAllUsers().size());
+    }
+
+    @Test
+    public void addUser_ShouldAcceptBirthNumberAgain_WhenUserWasRemoved() {
+        assertTrue(userRepository.addUser(createUser("820101/1234")));
+        userRepository.removeUser(0);
+
+        assertTrue(userRepository.addUser(createUser("820101/1234")));
+        assertEquals(1, userRepository.getAllUsers().size());
+    }
+
+    @Test
+    public void findUserIdByBirthNumber_ShouldFindUser_InEitherFormat() {
+        userRepository.addUser(createUser("820101/1234"));
+
+        assertEquals(Optional.of(0), userRepository.findUserIdByBirthNumber("8201011234"));
+        assertTrue(userRepository.existsUserByBirthNumber("820101/1234"));
+
+        userRepository.removeUser(0);
+
+        assertEquals(Optional.empty(), userRepository.findUserIdByBirthNumber("820101/1234"));
+        assertFalse(userRepository.existsUserByBirthNumber("8201011234"));
+    }
+
+    @Test
+    public void findUserIdsByName_ShouldFollowAddsAndRemovals() {
+        userRepository.addUser(createUser("820101/1234"));
+        User pam = createUser("830202/2345");
+        pam.setFirstName("Pam");
+        userRepository.addUser(pam);
+
+        assertEquals(Set.of(0), userRepository.findUserIdsByFirstName("Jim"));
+        assertEquals(Set.of(0, 1), userRepository.findUserIdsByLastName("Halpert"));
+
+        userRepository.removeUser(0);
+
+        assertEquals(Set.of(), userRepository.findUserIdsByFirstName("Jim"));
+        assertEquals(Set.of(1), userRepository.findUserIdsByLastName("Halpert"));
+    }
+
+    @Test
+    public void findUserIdsByFoldedName_ShouldIgnoreCaseAndDiacritics() {
+        User novak = createUser("820101/1234");
+        novak.setLastName("Novák");
+        userRepository.addUser(novak);
+
+        assertEquals(Set.of(0), userRepository.findUserIdsByFoldedLastName("novak"));
+        assertEquals(Set.of(0), userRepository.findUserIdsByFoldedLastName("NOVÁK"));
+        assertEquals(Set.of(0), userRepository.findUserIdsByFoldedFirstName("jim"));
+        assertEquals(Set.of(), userRepository.findUserIdsByFoldedLastName("nova"));
+    }
+
+    @Test
+    public void findUserIdsByNamePrefix_ShouldFollowAddsAndRemovals() {
+        User novak = createUser("820101/1234");
+        novak.setLastName("Novák");
+        User novotny = createUser("830202/2345");
+        novotny.setLastName("Novotný");
+        User dvorak = createUser("840303/3456");
+        dvorak.setLastName("Dvořák");
+        userRepository.addUsers(List.of(novak, novotny, dvorak));
+
+        assertEquals(Set.of(0, 1), userRepository.findUserIdsByLastNamePrefix("Nov"));
+        assertEquals(Set.of(1), userRepository.findUserIdsByLastNamePrefix("novo"));
+        assertEquals(Set.of(2), userRepository.findUserIdsByLastNamePrefix("dvor"));
+        assertEquals(Set.of(0, 1, 2), userRepository.findUserIdsByFirstNamePrefix("J"));
+
+        userRepository.removeUser(0);
+
+        assertEquals(Set.of(1), userRepository.findUserIdsByLastNamePrefix("Nov"));
+        assertEquals(Set.of(), userRepository.findUserIdsByFoldedLastName("novak"));
+        assertEquals(2, userRepository.getFoldedLastNameIndexSize());
+    }
+
+    @Test
+    public void findUserIdsByDateOfBirth_ShouldReturnUsersWithinInclusiveRange() {
+        int[] datesOfBirth = {19900228, 19900301, 19900331, 19900401, User.UNKNOWN_DATE_OF_BIRTH};
+        for (int i = 0; i < datesOfBirth.length; i++) {
+            User user = createUser(String.format("9003%02d/1234", i + 1));
+            user.setDateOfBirth(datesOfBirth[i]);
+            userRepository.addUser(user);
+        }
+
+        assertEquals(Set.of(1, 2), userRepository.findUserIdsByDateOfBirth(19900301, 19900331));
+        assertEquals(Set.of(), userRepository.findUserIdsByDateOfBirth(19900331, 19900301));
+        assertEquals(4, userRepository.getDateOfBirthIndexSize());
+
+        userRepository.removeUser(1);
+
+        assertEquals(Set.of(2), userRepository.findUserIdsByDateOfBirth(19900301, 19900331));
+    }
+
+    @Test
+    public void scanUsersByDateOfBirth_ShouldFindSameUsersAsIndex() {
+        for (int i = 0; i < 150_000; i++) {
+            User user = createUser(String.format("%06d/%04d", i / 10_000, i % 10_000));
+            user.setDateOfBirth(i % 7 == 0 ? User.UNKNOWN_DATE_OF_BIRTH : 19900101 + i % 28);
+            userRepository.addUser(user);
+        }
+        userRepository.removeUser(70_001);
+
+        Map<Integer, User> scanned = userRepository.scanUsersByDateOfBirth(19900105, 19900110);
+
+        assertEquals(userRepository.findUserIdsByDateOfBirth(19900105, 19900110), scanned.keySet());
+        assertEquals(List.copyOf(new TreeSet<>(scanned.keySet())), List.copyOf(scanned.keySet()));
+        assertEquals(5 / 24.0, userRepository.estimateDateOfBirthRangeShare(19900105, 19900110), 1e-9);
+        assertEquals(0, userRepository.scanUsersByDateOfBirth(Integer.MIN_VALUE, 0).size());
+    }
+
+    @Test
+    public void snapshot_ShouldKeepUsersAsTheyWere_WhenUsersChangeAfterwards() {
+        UserRepository columnarRepository = new UserRepository(ColumnarUserStore::new, 1, List.of());
+        for (UserRepository repository : List.of(userRepository, columnarRepository)) {
+            repository.addUser(createUser("820101/1234"));
+            repository.addUser(createUser("830202/2345"));
+            UserSnapshot before = repository.snapshot();
+            repository.retainSnapshot(before);
+
+            repository.removeUser(0);
+            repository.addUser(createUser("840303/3456"));
+            UserSnapshot after = repository.snapshot();
+
+            assertEquals(2, before.getVersion());
+            assertEquals(List.of(0, 1), List.copyOf(before.getUsers().keySet()));
+            assertEquals("820101/1234", before.getUsers().get(0).getBirthNumber());
+            assertEquals(List.of(1), List.copyOf(before.getUsersAfter(0).keySet()));
+            assertEquals(4, after.getVersion());
+            assertEquals(List.of(1, 2), List.copyOf(after.getUsers().keySet()));
+            assertSame(after, repository.snapshot());
+            assertEquals(Optional.of(before), repository.findSnapshot(2));
+        }
+    }
+
+    @Test
+    public void findSnapshot_ShouldKeepRetainedSnapshot_WhileManySnapshotsAreTakenAfterIt() {
+        userRepository.addUser(createUser("820101/1234"));
+        UserSnapshot retained = userRepository.snapshot();
+        userRepository.retainSnapshot(retained);
+
+        for (int i = 1; i <= 100; i++) {
+            userRepository.addUser(createUser(i / 100, i % 100));
+            userRepository.snapshot();
+        }
+
+        assertEquals(Optional.of(retained), userRepository.findSnapshot(retained.getVersion()));
+        assertEquals(Optional.empty(), userRepository.findSnapshot(retained.getVersion() + 1));
+    }
+
+    @Test
+    public void snapshot_ShouldHoldCurrentUsers_WhenManyUsersChangeBetweenSnapshots() {
+        Random random = new Random(42);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            users.add(createUser(i / 100, i % 100));
+        }
+        int[] userIds = userRepository.addUsers(users);
+        TreeSet<Integer> expected = Arrays.stream(userIds).boxed().collect(Collectors.toCollection(TreeSet::new));
+
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 1000; i++) {
+                int userId = userIds[random.nextInt(userIds.length)];
+                if (expected.remove(userId)) {
+                    userRepository.removeUser(userId);
+                }
+            }
+            UserSnapshot snapshot = userRepository.snapshot();
+            int after = userIds[random.nextInt(userIds.length)];
+
+            assertEquals(List.copyOf(expected), List.copyOf(snapshot.getUsers().keySet()));
+            assertEquals(List.copyOf(expected.tailSet(after, false)), List.copyOf(snapshot.getUsersAfter(after).keySet()));
+            assertEquals(expected.tailSet(after, false).size(), snapshot.getUsersAfter(after).size());
+            assertEquals(expected.contains(after), snapshot.getUsers().containsKey(after));
+        }
+    }
+
+    @Test
+    public void snapshot_ShouldMatchItsVersion_WhileUsersAreAddedAndRemoved() throws Exception {
+        int users = 20_000;
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        Future<?> writes = writer.submit(() -> {
+            for (int i = 0; i < users; i++) {
+                userRepository.addUser(createUser(i / 100, i % 100));
+            }
+            for (int userId = 0; userId < users; userId++) {
+                userRepository.removeUser(userId);
+            }
+        });
+
+        try {
+            while (!writes.isDone()) {
+                UserSnapshot snapshot = userRepository.snapshot();
+                int version = (int) snapshot.getVersion();
+                int expectedUserId = Math.max(0, version - users);
+                int expectedSize = Math.min(version, 2 * users - version);
+                Map<Integer, User> snapshotUsers = snapshot.getUsers();
+
+                assertEquals(expectedSize, snapshotUsers.size());
+                for (Map.Entry<Integer, User> user : snapshotUsers.entrySet()) {
+                    assertEquals(expectedUserId++, user.getKey());
+                    assertNotNull(user.getValue());
+                }
+            }
+            writes.get();
+        } finally {
+            writer.shutdown();
+        }
+        assertEquals(0, userRepository.snapshot().size());
+    }
+
+    @Test
+    public void getVersion_ShouldChange_OnlyWhenUsersChange() {
+        long initialVersion = userRepository.getVersion();
+
+        userRepository.addUser(createUser("820101/1234"));
+        long afterAdd = userRepository.getVersion();
+        userRepository.addUser(createUser("8201011234"));
+        userRepository.removeUser(42);
+
+        assertNotEquals(initialVersion, afterAdd);
+        assertEquals(afterAdd, userRepository.getVersion());
+
+        userRepository.removeUser(0);
+
+        assertNotEquals(afterAdd, userRepository.getVersion());
+    }
+
+    @Test
+    public void addUsers_ShouldReturnAssignedIds_AndNoIdForTakenBirthNumbers() {
+        userRepository.addUser(createUser("820101/1234"));
+
+        int[] userIds = userRepository.addUsers(List.of(createUser("830202/2345"), createUser("8201011234")));
+
+        assertArrayEquals(new int[]{1, UserRepository.NO_ID}, userIds);
+    }
+
+    @Test
+    public void addUser_ShouldAddEachBirthNumberOnce_WhenCalledConcurrently() throws Exception {
+        AtomicInteger addedUsers = new AtomicInteger();
+
+        runConcurrently(threadIndex -> {
+            for (int i = 0; i < USERS_PER_THREAD; i++) {
+                if (userRepository.addUser(createUser(0, i))) {
+                    addedUsers.incrementAndGet();
+                }
+            }
+        });
+
+        assertEquals(USERS_PER_THREAD, addedUsers.get());
+        assertEquals(USERS_PER_THREAD, userRepository.getAllUsers().size());
+    }
+
+    @Test
+    public void addUser_ShouldSpreadUsersOverShards_AndKeepBirthNumbersUnique() {
+        UserRepository shardedRepository = new UserRepository(HeapUserStore::new, 4, List.of());
+        for (int i = 0; i < 1_000; i++) {
+            User user = createUser(String.format("9001%02d/%04d", i % 28 + 1, i));
+            user.setDateOfBirth(19900101 + i % 28);
+            shardedRepository.addUser(user);
+        }
+
+        List<Integer> userIds = List.copyOf(shardedRepository.getAllUsers().keySet());
+        assertEquals(1_000, shardedRepository.getUserCount());
+        assertEquals(List.copyOf(new TreeSet<>(userIds)), userIds);
+        assertEquals(Set.of(0, 1, 2, 3), userIds.stream().map(userId -> userId >>> 29).collect(Collectors.toSet()));
+        assertFalse(shardedRepository.addUser(createUser("9001020001")));
+
+        int userId = shardedRepository.findUserIdByBirthNumber("900102/0001").orElseThrow();
+        assertEquals("900102/0001", shardedRepository.findUserById(userId).orElseThrow().getBirthNumber());
+        assertEquals(shardedRepository.findUserIdsByDateOfBirth(19900105, 19900110),
+                shardedRepository.scanUsersByDateOfBirth(19900105, 19900110).keySet());
+        assertEquals(userIds.subList(501, 1_000), List.copyOf(shardedRepository.getUsersAfter(userIds.get(500)).keySet()));
+    }
+
+    @Test
+    public void addUser_ShouldHandOutWholeIdRange_WhenThereIsOneShard() {
+        userRepository.restoreIdCounters(UserIdCounters.of(1L << 30));
+
+        assertTrue(userRepository.addUser(createUser("900101/0006")));
+        assertEquals(Optional.of(1 << 30), userRepository.findUserIdByBirthNumber("900101/0006"));
+    }
+
+    @Test
+    public void addUser_ShouldThrowUserIdsExhausted_WhenShardHasNoIdsLeft() {
+        userRepository.restoreIdCounters(UserIdCounters.of(Integer.MAX_VALUE));
+
+        assertTrue(userRepository.addUser(createUser("900101/0006")));
+        assertThrows(UserIdsExhaustedException.class, () -> userRepository.addUser(createUser("900102/0005")));
+        assertFalse(userRepository.existsUserByBirthNumber("900102/0005"));
+
+        userRepository.restoreIdCounters(userRepository.getIdCounters());
+        assertThrows(UserIdsExhaustedException.class, () -> userRepository.addUser(createUser("900102/0005")));
+    }
+
+    @Test
+    public void restoreIdCounters_ShouldSkipHandedOutIds_WhenShardCountChanged() {
+        UserRepository twoShards = new UserRepository(HeapUserStore::new, 2, List.of());
+        Set<Integer> handedOut = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            twoShards.addUser(createUser(String.format("800101/%04d", i)));
+        }
+        handedOut.addAll(twoShards.getAllUsers().keySet());
+        List.copyOf(handedOut).forEach(twoShards::removeUser);
+
+        UserRepository threeShards = new UserRepository(HeapUserStore::new, 3, List.of());
+        threeShards.restoreIdCounters(twoShards.getIdCounters());
+        for (int i = 0; i < 100; i++) {
+            threeShards.addUser(createUser(String.format("800101/%04d", i)));
+        }
+
+        assertEquals(100, threeShards.getUserCount());
+        assertTrue(threeShards.getAllUsers().keySet().stream().noneMatch(handedOut::contains));
+    }
+
+    @Test
+    public void removeUser_ShouldReuseIdSlotsUnderNextGeneration_WhenStoreHasGenerationBits() {
+        UserRepository reusingRepository = new UserRepository(() -> new HeapUserStore(4), 2, List.of());
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 100; i++) {
+                assertTrue(reusingRepository.addUser(createUser(String.format("80%02d01/%04d", round % 12 + 1, i))));
+            }
+            if (round < 19) {
+                List.copyOf(reusingRepository.getAllUsers().keySet()).forEach(reusingRepository::removeUser);
+            }
+        }
+
+        List<Integer> userIds = List.copyOf(reusingRepository.getAllUsers().keySet());
+        assertEquals(100, userIds.size());
+        assertEquals(List.copyOf(new TreeSet<>(userIds)), userIds);
+        assertTrue(userIds.stream().allMatch(userId -> (userId & ((1 << 30) - 1)) >>> 4 < 100),
+                "Slots should be reused: " + userIds);
+        assertTrue(reusingRepository.getNextUserId() < (1L << 30) + (100 << 4));
+
+        int reusedUserId = reusingRepository.findUserIdByBirthNumber("800801/0000").orElseThrow();
+        int staleUserId = reusedUserId & ~0xF | (reusedUserId - 1) & 0xF;
+        assertFalse(reusingRepository.existsUserById(staleUserId));
+        reusingRepository.removeUser(staleUserId);
+        assertTrue(reusingRepository.existsUserById(reusedUserId));
+    }
+
+    @Test
+    public void addUser_ShouldRollBack_WhenListenerRejectsChange() {
+        RecordingListener recording = new RecordingListener();
+        RecordingListener rejecting = new RecordingListener();
+        UserRepository repository = new UserRepository(HeapUserStore::new, 1, List.of(recording, rejecting));
+        rejecting.rejectChanges = true;
+
+        assertThrows(IllegalStateException.class, () -> repository.addUser(createUser("900101/0006")));
+
+        assertEquals(0, repository.getUserCount());
+        assertTrue(repository.findUserIdsByLastName("Halpert").isEmpty());
+        assertEquals(List.of("added 0", "removed 0"), recording.changes);
+
+        rejecting.rejectChanges = false;
+        assertTrue(repository.addUser(createUser("900101/0006")));
+    }
+
+    @Test
+    public void removeUser_ShouldKeepUser_WhenListenerRejectsChange() {
+        RecordingListener rejecting = new RecordingListener();
+        UserRepository repository = new UserRepository(HeapUserStore::new, 1, List.of(rejecting));
+        repository.addUser(createUser("900101/0006"));
+        rejecting.rejectChanges = true;
+
+        assertThrows(IllegalStateException.class, () -> repository.removeUser(0));
+
+        assertTrue(repository.existsUserById(0));
+        assertEquals(Optional.of(0), repository.findUserIdByBirthNumber("900101/0006"));
+        assertEquals(Set.of(0), repository.findUserIdsByLastName("Halpert"));
+    }
+
+    @Test
+    public void addUser_ShouldRollBack_WhenWriteFailsToComplete() {
+        RecordingListener failing = new RecordingListener();
+        UserRepository repository = new UserRepository(HeapUserStore::new, 1, List.of(failing));
+        repository.addUser(createUser("900101/0006"));
+        failing.failWrites = true;
+
+        assertThrows(IllegalStateException.class, () -> repository.addUser(createUser("900102/0005")));
+        assertThrows(IllegalStateException.class, () -> repository.removeUser(0));
+
+        assertEquals(1, repository.getUserCount());
+        assertTrue(repository.existsUserById(0));
+        assertFalse(repository.existsUserByBirthNumber("900102/0005"));
+        assertEquals(List.of("added 0", "added 1", "removed 1", "removed 0", "added 0"), failing.changes);
+    }
+
+    @Test
+    public void shardRing_ShouldOnlyMoveBirthNumbersToNewShard_WhenShardIsAdded() {
+        ShardRing fourShards = new ShardRing(4);
+        ShardRing fiveShards = new ShardRing(5);
+        int moved = 0;
+
+        for (int i = 0; i < 10_000; i++) {
+            String birthNumber = String.format("900101%04d", i);
+            int owner = fiveShards.ownerOf(birthNumber);
+            if (owner != fourShards.ownerOf(birthNumber)) {
+                assertEquals(4, owner);
+                moved++;
+            }
+        }
+        assertTrue(moved > 1_500 && moved < 2_500, "About a fifth of the birth numbers should move: " + moved);
+    }
+
+    private void runConcurrently(ThreadTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                int threadIndex = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run(threadIndex);
+                    return null;
+                }));
+            }
+
+            start.countDown();
+
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static User createUser(int threadIndex, int index) {
+        User user = createUser(String.format("%02d0101/%04d", threadIndex, index));
+        user.setFirstName("First" + threadIndex);
+        user.setLastName("Last" + index);
+        return user;
+    }
+
+    private static User createUser(String birthNumber) {
+        User user = new User();
+        user.setFirstName("Jim");
+        user.setLastName("Halpert");
+        user.setBirthNumber(birthNumber);
+        return user;
+    }
+
+    private static final class RecordingListener implements UserChangeListener {
+        private final List<String> changes = new ArrayList<>();
+        private boolean rejectChanges;
+        private boolean failWrites;
+
+        @Override
+        public void userAdded(int userId, User user) {
+            record("added " + userId);
+        }
+
+        @Override
+        public void userRemoved(int userId, User user) {
+            record("removed " + userId);
+        }
+
+        private void record(String change) {
+            if (rejectChanges) {
+                throw new IllegalStateException("Rejected " + change);
+            }
+            changes.add(change);
+        }
+
+        @Override
+        public void writeCompleted() {
+            if (failWrites) {
+                throw new IllegalStateException("The write failed");
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ThreadTask {
+        void run(int threadIndex);
+    }
+}
@@ -0,0 +1,217 @@
+package cz.zedramcak.epptecusers.repository.persistence;
+
+import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.exceptions.UserWriteFailedException;
+import cz.zedramcak.epptecusers.repository.UserIdCounters;
+import cz.zedramcak.epptecusers.repository.UserRepository;
+import cz.zedramcak.epptecusers.repository.store.HeapUserStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserPersistenceTest {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    public void recover_ShouldRestoreUsersAndIdCounter_WhenOnlyLogExists() throws Exception {
+        Running first = start();
+        first.repository.addUser(createUser("900101/0006", "Jan", "Novak"));
+        first.repository.addUser(createUser("900102/0005", "Petr", "Svoboda"));
+        first.repository.addUsers(List.of(createUser("900103/0004", "Eva", "Novakova")));
+        first.repository.removeUser(1);
+        first.wal.close();
+
+        Running second = start();
+
+        assertEquals(2, second.repository.getUserCount());
+        assertEquals("Jan", second.repository.findUserById(0).orElseThrow().getFirstName());
+        assertFalse(second.repository.existsUserById(1));
+        assertEquals(3, second.repository.getNextUserId());
+
+        second.repository.addUser(createUser("900104/0003", "Ivan", "Dvorak"));
+        assertTrue(second.repository.existsUserById(3));
+    }
+
+    @Test
+    public void recover_ShouldCombineSnapshotAndNewerLog_WhenSnapshotWasTaken() throws Exception {
+        Running first = start();
+        first.repository.addUser(createUser("900101/0006", "Jan", "Novak"));
+        first.repository.addUser(createUser("900102/0005", "Petr", "Svoboda"));
+        first.persistence.snapshot();
+        first.repository.removeUser(0);
+        first.repository.addUser(createUser("900103/0004", "Eva", "Novakova"));
+        first.wal.close();
+
+        assertEquals(1, countLogSegments(), "Segments covered by the snapshot should be deleted");
+
+        Running second = start();
+
+        assertFalse(second.repository.existsUserById(0));
+        assertTrue(second.repository.existsUserById(1));
+        assertTrue(second.repository.existsUserById(2));
+        assertEquals(Set.of(1), second.repository.findUserIdsByFirstName("Petr"));
+        assertEquals(3, second.repository.getNextUserId());
+    }
+
+    @Test
+    public void recover_ShouldNotReuseIdsOfAnyShard_WhenTheirUsersWereRemovedBeforeSnapshot() throws Exception {
+        Running first = start(2);
+        for (int i = 0; i < 20; i++) {
+            first.repository.addUser(createUser(String.format("900101/%04d", i), "Jan", "Novak"));
+        }
+        Set<Integer> handedOut = Set.copyOf(first.repository.getAllUsers().keySet());
+        handedOut.forEach(first.repository::removeUser);
+        first.persistence.snapshot();
+        first.wal.close();
+
+        Running second = start(4);
+        for (int i = 0; i < 20; i++) {
+            second.repository.addUser(createUser(String.format("900101/%04d", i), "Jan", "Novak"));
+        }
+
+        assertEquals(20, second.repository.getUserCount());
+        assertTrue(second.repository.getAllUsers().keySet().stream().noneMatch(handedOut::contains));
+    }
+
+    @Test
+    public void recover_ShouldIgnoreTornTail_WhenLastRecordIsIncomplete() throws Exception {
+        Running first = start();
+        first.repository.addUser(createUser("900101/0006", "Jan", "Novak"));
+        first.repository.addUser(createUser("900102/0005", "Petr", "Svoboda"));
+        first.wal.close();
+
+        Path segment = lastLogSegment();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        Running second = start();
+
+        assertEquals(1, second.repository.getUserCount());
+        assertTrue(second.repository.existsUserById(0));
+
+        second.repository.addUser(createUser("900102/0005", "Petr", "Svoboda"));
+        assertTrue(second.repository.existsUserById(1));
+    }
+
+    @Test
+    public void addAndRemoveUser_ShouldRollBack_WhenLogIsClosed() throws Exception {
+        Running running = start();
+        running.repository.addUser(createUser("900101/0006", "Jan", "Novak"));
+        running.wal.close();
+
+        assertThrows(UserWriteFailedException.class,
+                () -> running.repository.addUser(createUser("900102/0005", "Petr", "Svoboda")));
+        assertThrows(UserWriteFailedException.class, () -> running.repository.removeUser(0));
+
+        assertEquals(1, running.repository.getUserCount());
+        assertTrue(running.repository.existsUserByBirthNumber("900101/0006"));
+        assertFalse(running.repository.existsUserByBirthNumber("900102/0005"));
+    }
+
+    @Test
+    public void readInParallel_ShouldReadEveryUser_WhenSnapshotSpansSeveralSegments() throws Exception {
+        Map<Integer, User> users = new TreeMap<>();
+        for (int i = 0; i < 150_000; i++) {
+            users.put(i * 2, createUser(String.format("90%04d/%04d", i / 10_000, i % 10_000), "First" + i, "Last" + i));
+        }
+        Path image = directory.resolve("users.image");
+        UserSnapshotFile.write(image, 7, UserIdCounters.of(300_000), users.entrySet());
+
+        Map<Integer, User> read = new ConcurrentHashMap<>();
+        UserSnapshotFile.Header header = UserSnapshotFile.readInParallel(image, read::put);
+
+        assertEquals(7, header.getLogSequence());
+        assertEquals(UserIdCounters.of(300_000), header.getIdCounters());
+        assertEquals(150_000, header.getUserCount());
+        assertEquals(users, read);
+    }
+
+    @Test
+    public void loadImage_ShouldFillEmptyRepository_AndSkipRecoveredOne() throws Exception {
+        Path image = directory.resolve("users.image");
+        UserSnapshotFile.write(image, 0, UserIdCounters.of(5), Map.of(
+                1, createUser("900101/0006", "Jan", "Novak"),
+                4, createUser("900102/0005", "Petr", "Svoboda")).entrySet());
+
+        UserRepository empty = new UserRepository();
+        assertTrue(new UserImageLoader(empty, null, image).load());
+        assertEquals(2, empty.getUserCount());
+        assertEquals(Set.of(4), empty.findUserIdsByFirstName("Petr"));
+        assertEquals(5, empty.getNextUserId());
+
+        UserRepository recovered = new UserRepository();
+        recovered.addUser(createUser("900103/0004", "Eva", "Novakova"));
+        assertFalse(new UserImageLoader(recovered, null, image).load());
+        assertEquals(1, recovered.getUserCount());
+    }
+
+    @Test
+    public void loadImage_ShouldSnapshotLoadedUsers_WhenPersistenceIsEnabled() throws Exception {
+        Path image = directory.resolve("users.image");
+        UserSnapshotFile.write(image, 0, UserIdCounters.of(1), Map.of(0, createUser("900101/0006", "Jan", "Novak")).entrySet());
+
+        Running first = start();
+        assertTrue(new UserImageLoader(first.repository, first.persistence, image).load());
+        first.repository.addUser(createUser("900102/0005", "Petr", "Svoboda"));
+        first.wal.close();
+
+        Running second = start();
+        assertEquals(2, second.repository.getUserCount());
+        assertTrue(second.repository.existsUserByBirthNumber("900101/0006"));
+    }
+
+    private Running start() throws IOException {
+        return start(1);
+    }
+
+    private Running start(int shardCount) throws IOException {
+        UserPersistenceProperties properties = new UserPersistenceProperties();
+        properties.setDirectory(directory);
+
+        UserWriteAheadLog wal = new UserWriteAheadLog(directory, true);
+        UserRepository repository = new UserRepository(HeapUserStore::new, shardCount, List.of(wal));
+        UserPersistence persistence = new UserPersistence(repository, wal, properties);
+        persistence.recover();
+        wal.start();
+        return new Running(repository, wal, persistence);
+    }
+
+    private long countLogSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".wal")).count();
+        }
+    }
+
+    private Path lastLogSegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".wal")).max(Path::compareTo).orElseThrow();
+        }
+    }
+
+    private static User createUser(String birthNumber, String firstName, String lastName) {
+        User user = new User();
+        user.setBirthNumber(birthNumber);
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        return user;
+    }
+
+    private record Running(UserRepository repository, UserWriteAheadLog wal, UserPersistence persistence) {
+    }
+}
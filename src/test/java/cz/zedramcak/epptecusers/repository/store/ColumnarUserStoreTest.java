@@ -0,0 +1,195 @@
+package cz.zedramcak.epptecusers.repository.store;
+
+import cz.zedramcak.epptecusers.entity.User;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColumnarUserStoreTest {
+
+    private static final int FOOTPRINT_USERS = 500_000;
+
+    private final ColumnarUserStore userStore = new ColumnarUserStore();
+
+    @Test
+    public void get_ShouldReturnEqualUser_WhenUserWasPut() {
+        User user = createUser("820101/1234", "Jim", "Halpert");
+        user.setDateOfBirth(19820101);
+
+        userStore.put(0, user);
+
+        assertEquals(user, userStore.get(0));
+        assertNotSame(user, userStore.get(0));
+        assertTrue(userStore.contains(0));
+        assertEquals(1, userStore.size());
+    }
+
+    @Test
+    public void get_ShouldKeepBirthNumberFormat_WhenPacked() {
+        List<String> birthNumbers = List.of("820101/1234", "8201011234", "000101/0001", "450101/123", "450101123");
+
+        for (int userId = 0; userId < birthNumbers.size(); userId++) {
+            userStore.put(userId, createUser(birthNumbers.get(userId), "Jim", "Halpert"));
+        }
+
+        for (int userId = 0; userId < birthNumbers.size(); userId++) {
+            assertEquals(birthNumbers.get(userId), userStore.get(userId).getBirthNumber());
+        }
+    }
+
+    @Test
+    public void get_ShouldReturnBirthNumberAsIs_WhenItCannotBePacked() {
+        userStore.put(0, createUser("82O101/1234", "Jim", "Halpert"));
+        userStore.put(1, createUser("12", "Jim", "Halpert"));
+
+        assertEquals("82O101/1234", userStore.get(0).getBirthNumber());
+        assertEquals("12", userStore.get(1).getBirthNumber());
+
+        assertTrue(userStore.remove(0));
+        assertNull(userStore.get(0));
+    }
+
+    @Test
+    public void remove_ShouldForgetUser_WhenUserExists() {
+        userStore.put(0, createUser("820101/1234", "Jim", "Halpert"));
+
+        assertTrue(userStore.remove(0));
+        assertFalse(userStore.remove(0));
+        assertFalse(userStore.contains(0));
+        assertNull(userStore.get(0));
+        assertNull(userStore.get(-1));
+        assertEquals(0, userStore.size());
+    }
+
+    @Test
+    public void tailMap_ShouldIterateInIdOrder_AndSkipRemovedAndUnallocatedRows() {
+        int[] userIds = {0, 1, 2, 70_000, 200_000};
+        for (int userId : userIds) {
+            userStore.put(userId, createUser(String.format("820101/%04d", userId % 10_000), "Jim", "Halpert"));
+        }
+        userStore.remove(1);
+
+        assertEquals(List.of(0, 2, 70_000, 200_000), new ArrayList<>(userStore.asMap().keySet()));
+        assertEquals(List.of(70_000, 200_000), new ArrayList<>(userStore.tailMap(2).keySet()));
+        assertEquals(2, userStore.tailMap(2).size());
+        assertTrue(userStore.tailMap(200_000).isEmpty());
+        assertNull(userStore.tailMap(2).get(0));
+    }
+
+    @Test
+    public void scanByDateOfBirth_ShouldReturnMatchesInIdOrder_AcrossChunks() {
+        int[] userIds = {0, 5, 70_000, 200_000, 200_001};
+        int[] datesOfBirth = {19900315, 19850101, 19900301, 19900331, 19900401};
+        for (int i = 0; i < userIds.length; i++) {
+            User user = createUser(String.format("9003%02d/1234", i + 1), "Jim", "Halpert");
+            user.setDateOfBirth(datesOfBirth[i]);
+            userStore.put(userIds[i], user);
+        }
+        userStore.remove(70_000);
+
+        UserScanResult result = userStore.scanByDateOfBirth(dateOfBirth -> dateOfBirth >= 19900301 && dateOfBirth <= 19900331);
+
+        assertEquals(List.of(0, 200_000), new ArrayList<>(result.keySet()));
+        assertEquals(userStore.get(200_000), result.get(200_000));
+        assertNull(result.get(5));
+        assertTrue(new HeapUserStore().scanByDateOfBirth(dateOfBirth -> true).isEmpty());
+    }
+
+    @Test
+    public void get_ShouldFindNothingUnderOldGeneration_WhenRowIsReused() {
+        ColumnarUserStore taggedStore = new ColumnarUserStore(4);
+        int oldUserId = 5 << 4 | 15;
+        int newUserId = 5 << 4;
+
+        taggedStore.put(oldUserId, createUser("820101/1234", "Jim", "Halpert"));
+        assertTrue(taggedStore.remove(oldUserId));
+        taggedStore.put(newUserId, createUser("82O101/1234", "Pam", "Beesly"));
+
+        assertEquals("Pam", taggedStore.get(newUserId).getFirstName());
+        assertEquals("82O101/1234", taggedStore.get(newUserId).getBirthNumber());
+        assertNull(taggedStore.get(oldUserId));
+        assertFalse(taggedStore.remove(oldUserId));
+        assertEquals(List.of(newUserId), new ArrayList<>(taggedStore.asMap().keySet()));
+        assertEquals(List.of(newUserId), new ArrayList<>(taggedStore.scanByDateOfBirth(dateOfBirth -> true).keySet()));
+        assertEquals(1, taggedStore.size());
+    }
+
+    @Test
+    public void get_ShouldNeverReturnTornOrOtherGenerationRow_WhileRowIsReused() throws Exception {
+        ColumnarUserStore userStore = new ColumnarUserStore(4);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = Thread.ofPlatform().start(() -> {
+            for (int round = 0; round < 200_000; round++) {
+                int userId = round & 0xF;
+                User user = createUser("820101/1234", "First" + userId, "Last" + userId);
+                user.setDateOfBirth(userId);
+                userStore.put(userId, user);
+                userStore.remove(userId);
+            }
+            done.set(true);
+        });
+
+        while (!done.get()) {
+            for (int userId = 0; userId < 16; userId++) {
+                User user = userStore.get(userId);
+                assertTrue(user == null || user.getDateOfBirth() == userId && user.getFirstName().equals("First" + userId)
+                        && user.getLastName().equals("Last" + userId));
+            }
+            userStore.asMap().forEach((userId, user) -> assertEquals("Last" + userId, user.getLastName()));
+        }
+        writer.join();
+    }
+
+    @Test
+    public void dictionary_ShouldStoreEachNameOnce() {
+        for (int userId = 0; userId < 1000; userId++) {
+            userStore.put(userId, createUser(String.format("820101/%04d", userId), "Jim", "Halpert" + userId % 10));
+        }
+
+        assertEquals(11, userStore.dictionarySize());
+    }
+
+    @Test
+    public void footprint_ShouldBeLessThanHalfOfHeapStore() {
+        long heapStoreBytes = retainedBytes(HeapUserStore::new);
+        long columnarStoreBytes = retainedBytes(ColumnarUserStore::new);
+
+        assertTrue(columnarStoreBytes * 2 < heapStoreBytes,
+                "Columnar store retains " + columnarStoreBytes / FOOTPRINT_USERS + " B per user, heap store "
+                        + heapStoreBytes / FOOTPRINT_USERS + " B per user");
+    }
+
+    private static long retainedBytes(Supplier<UserStore> storeFactory) {
+        long before = usedHeap();
+        UserStore store = storeFactory.get();
+        IntStream.range(0, FOOTPRINT_USERS).forEach(userId -> store.put(userId, createUser(
+                String.format("%02d%02d%02d/%04d", userId % 100, userId / 100 % 12 + 1, userId / 1200 % 28 + 1, userId % 10_000),
+                "First" + userId % 200, "Last" + userId % 2000)));
+        long after = usedHeap();
+
+        assertEquals(FOOTPRINT_USERS, store.size());
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static User createUser(String birthNumber, String firstName, String lastName) {
+        User user = new User();
+        user.setBirthNumber(birthNumber);
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        return user;
+    }
+}
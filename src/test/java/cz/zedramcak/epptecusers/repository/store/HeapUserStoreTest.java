@@ -0,0 +1,86 @@
+package cz.zedramcak.epptecusers.repository.store;
+
+import cz.zedramcak.epptecusers.entity.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HeapUserStoreTest {
+
+    @Test
+    public void tailMap_ShouldIterateInIdOrder_AndSkipRemovedAndUnallocatedSlots() {
+        HeapUserStore userStore = new HeapUserStore();
+        int[] userIds = {1 << 25, 2, 0, 70_000, 200_000};
+        for (int userId : userIds) {
+            userStore.put(userId, createUser("820101/1234", 19820101));
+        }
+        assertTrue(userStore.remove(2));
+        assertFalse(userStore.remove(2));
+
+        assertEquals(List.of(0, 70_000, 200_000, 1 << 25), new ArrayList<>(userStore.asMap().keySet()));
+        assertEquals(List.of(200_000, 1 << 25), new ArrayList<>(userStore.tailMap(70_000).keySet()));
+        assertEquals(2, userStore.tailMap(70_000).size());
+        assertNull(userStore.tailMap(70_000).get(0));
+        assertNull(userStore.get(-1));
+        assertEquals(4, userStore.size());
+    }
+
+    @Test
+    public void get_ShouldFindNothingUnderOldGeneration_WhenSlotIsReused() {
+        HeapUserStore userStore = new HeapUserStore(4);
+        User removed = createUser("820101/1234", 19820101);
+        User added = createUser("900101/1234", 19900101);
+        int oldUserId = 5 << 4 | 3;
+        int newUserId = 5 << 4 | 4;
+
+        userStore.put(oldUserId, removed);
+        userStore.put(6 << 4, createUser("850101/1234", 19850101));
+        assertTrue(userStore.remove(oldUserId));
+        userStore.put(newUserId, added);
+
+        assertSame(added, userStore.get(newUserId));
+        assertNull(userStore.get(oldUserId));
+        assertFalse(userStore.contains(oldUserId));
+        assertFalse(userStore.remove(oldUserId));
+        assertEquals(List.of(newUserId, 6 << 4), new ArrayList<>(userStore.asMap().keySet()));
+        assertEquals(List.of(6 << 4), new ArrayList<>(userStore.tailMap(newUserId).keySet()));
+        assertEquals(List.of(newUserId, 6 << 4), new ArrayList<>(userStore.tailMap(oldUserId).keySet()));
+        assertEquals(List.of(newUserId), new ArrayList<>(userStore.scanByDateOfBirth(dateOfBirth -> dateOfBirth >= 19900101).keySet()));
+    }
+
+    @Test
+    public void get_ShouldNeverReturnUserOfAnotherGeneration_WhileSlotIsReused() throws Exception {
+        HeapUserStore userStore = new HeapUserStore(4);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = Thread.ofPlatform().start(() -> {
+            for (int round = 0; round < 200_000; round++) {
+                int userId = round & 0xF;
+                userStore.put(userId, createUser("820101/1234", userId));
+                userStore.remove(userId);
+            }
+            done.set(true);
+        });
+
+        while (!done.get()) {
+            for (int userId = 0; userId < 16; userId++) {
+                User user = userStore.get(userId);
+                assertTrue(user == null || user.getDateOfBirth() == userId);
+            }
+            userStore.asMap().forEach((userId, user) -> assertEquals(userId, user.getDateOfBirth()));
+        }
+        writer.join();
+    }
+
+    private static User createUser(String birthNumber, int dateOfBirth) {
+        User user = new User();
+        user.setBirthNumber(birthNumber);
+        user.setFirstName("Jim");
+        user.setLastName("Halpert");
+        user.setDateOfBirth(dateOfBirth);
+        return user;
+    }
+}
@@ -0,0 +1,100 @@
+package cz.zedramcak.epptecusers.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AgeCalculatorTest {
+
+    private static final int BORN_ON_LEAP_DAY = 20000229;
+
+    @Test
+    public void ageOf_ShouldIncrease_OnBirthday() {
+        assertEquals(41, ageAt("2023-12-31T12:00:00Z", 19820101));
+        assertEquals(42, ageAt("2024-01-01T12:00:00Z", 19820101));
+    }
+
+    @Test
+    public void ageOf_ShouldCelebrateLeapDayBirthday_OnLastDayOfFebruaryInCommonYears() {
+        assertEquals(24, ageAt("2025-02-27T12:00:00Z", BORN_ON_LEAP_DAY));
+        assertEquals(25, ageAt("2025-02-28T12:00:00Z", BORN_ON_LEAP_DAY));
+        assertEquals(25, ageAt("2025-03-01T12:00:00Z", BORN_ON_LEAP_DAY));
+    }
+
+    @Test
+    public void ageOf_ShouldCelebrateLeapDayBirthday_OnLeapDayInLeapYears() {
+        assertEquals(23, ageAt("2024-02-28T12:00:00Z", BORN_ON_LEAP_DAY));
+        assertEquals(24, ageAt("2024-02-29T12:00:00Z", BORN_ON_LEAP_DAY));
+    }
+
+    @Test
+    public void ageOf_ShouldBeNegative_WhenBornInFuture() {
+        assertEquals(-1, ageAt("2024-06-15T12:00:00Z", 20240616));
+        assertEquals(-1, ageAt("2024-06-15T12:00:00Z", 20250301));
+        assertEquals(-1, ageAt("2024-06-15T12:00:00Z", 20250615));
+        assertEquals(-2, ageAt("2024-06-15T12:00:00Z", 20250616));
+    }
+
+    @Test
+    public void dateOfBirthForAge_ShouldBoundBirthDatesOfGivenAge() {
+        AgeCalculator.Today today = new AgeCalculator(Clock.fixed(Instant.parse("2024-06-15T12:00:00Z"), ZoneOffset.UTC)).today();
+
+        assertEquals(20060615, today.latestDateOfBirthForAge(18));
+        assertEquals(18, today.ageOf(today.latestDateOfBirthForAge(18)));
+        assertEquals(17, today.ageOf(today.latestDateOfBirthForAge(18) + 1));
+
+        assertEquals(26, today.ageOf(today.earliestDateOfBirthForAge(26)));
+        assertEquals(27, today.ageOf(today.earliestDateOfBirthForAge(26) - 1));
+    }
+
+    @Test
+    public void today_ShouldRollOver_AtMidnightInClockZone() {
+        ZoneId prague = ZoneId.of("Europe/Prague");
+        MutableClock clock = new MutableClock(Instant.parse("2023-12-31T22:59:59Z"), prague);
+        AgeCalculator ageCalculator = new AgeCalculator(clock);
+
+        AgeCalculator.Today beforeMidnight = ageCalculator.today();
+        assertEquals(41, beforeMidnight.ageOf(19820101));
+        assertSame(beforeMidnight, ageCalculator.today());
+
+        clock.instant = Instant.parse("2023-12-31T23:00:00Z");
+
+        assertEquals(42, ageCalculator.today().ageOf(19820101));
+        assertEquals(41, beforeMidnight.ageOf(19820101));
+    }
+
+    private static int ageAt(String instant, int dateOfBirth) {
+        Clock clock = Clock.fixed(Instant.parse(instant), ZoneOffset.UTC);
+        return new AgeCalculator(clock).today().ageOf(dateOfBirth);
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant;
+        private final ZoneId zone;
+
+        private MutableClock(Instant instant, ZoneId zone) {
+            this.instant = instant;
+            this.zone = zone;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return zone;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return new MutableClock(instant, zone);
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package cz.zedramcak.epptecusers.service;
+
+import cz.zedramcak.epptecusers.entity.BirthNumber;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BirthNumberParserTest {
+
+    private final BirthNumberParser birthNumberParser = new BirthNumberParser(Clock.fixed(Instant.parse("2024-06-15T10:00:00Z"), ZoneOffset.UTC));
+
+    @Test
+    public void parse_ShouldReturnCanonicalFormAndDateOfBirth_WhenSeparatorIsMissing() {
+        BirthNumber birthNumber = birthNumberParser.parse("8201011234");
+
+        assertTrue(birthNumber.isValid());
+        assertEquals("820101/1234", birthNumber.getCanonical());
+        assertEquals(LocalDate.of(1982, 1, 1), birthNumber.getDateOfBirth());
+    }
+
+    @Test
+    public void parse_ShouldReuseInput_WhenAlreadyCanonical() {
+        String input = "830202/2345";
+
+        assertSame(input, birthNumberParser.parse(input).getCanonical());
+    }
+
+    @Test
+    public void parse_ShouldSubtractFemaleMonthOffset() {
+        BirthNumber birthNumber = birthNumberParser.parse("035512/1234");
+
+        assertTrue(birthNumber.isValid());
+        assertEquals(LocalDate.of(2003, 5, 12), birthNumber.getDateOfBirth());
+    }
+
+    @Test
+    public void parse_ShouldAcceptLeapDay_OnlyInLeapYears() {
+        assertTrue(birthNumberParser.parse("000229/1234").isValid());
+        assertFalse(birthNumberParser.parse("010229/1234").isValid());
+    }
+
+    @Test
+    public void parse_ShouldPickCenturyFromClock() {
+        BirthNumberParser parserIn2030 = new BirthNumberParser(Clock.fixed(Instant.parse("2030-01-01T00:00:00Z"), ZoneOffset.UTC));
+
+        assertEquals(LocalDate.of(1928, 1, 1), birthNumberParser.parse("280101/1234").getDateOfBirth());
+        assertEquals(LocalDate.of(2028, 1, 1), parserIn2030.parse("280101/1234").getDateOfBirth());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "invalidBirthNumber", "820101-1234", "820101/123", "82010112345", "821301/1234",
+            "820132/1234", "820100/1234", "8201O11234", "820101//234"})
+    public void parse_ShouldReturnInvalid_WhenBirthNumberIsMalformed(String input) {
+        assertSame(BirthNumber.INVALID, birthNumberParser.parse(input));
+    }
+}
@@ -1,30 +1,73 @@
 package cz.zedramcak.epptecusers.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import cz.zedramcak.epptecusers.entity.User;
+import cz.zedramcak.epptecusers.entity.dto.BulkImportRecordDTO;
+import cz.zedramcak.epptecusers.entity.dto.BulkImportResultDTO;
+import cz.zedramcak.epptecusers.entity.dto.BulkImportStatus;
+import cz.zedramcak.epptecusers.entity.dto.UserChangeDTO;
+import cz.zedramcak.epptecusers.entity.dto.UserChangeType;
+import cz.zedramcak.epptecusers.entity.dto.UserChangesDTO;
 import cz.zedramcak.epptecusers.entity.dto.UserDTO;
-import cz.zedramcak.epptecusers.exceptions.IncorrectBirthNumberFormatException;
-import cz.zedramcak.epptecusers.exceptions.MissingDataException;
-import cz.zedramcak.epptecusers.exceptions.UserDoesNotExistsException;
-import cz.zedramcak.epptecusers.exceptions.UserExistsException;
+import cz.zedramcak.epptecusers.entity.dto.UserPageDTO;
+import cz.zedramcak.epptecusers.entity.dto.UserSearchCriteria;
+import cz.zedramcak.epptecusers.metrics.UserMetrics;
+import cz.zedramcak.epptecusers.repository.UserChangeFeed;
 import cz.zedramcak.epptecusers.repository.UserRepository;
+import cz.zedramcak.epptecusers.repository.UserSnapshot;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-
+import org.mockito.Spy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 public class UserServiceImplTest {
 
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2024-06-15T10:00:00Z"), ZoneOffset.UTC);
+
     @Mock
     private UserRepository userRepository;
 
+    @Spy
+    private BirthNumberParser birthNumberParser = new BirthNumberParser(CLOCK);
+
+    @Spy
+    private AgeCalculator ageCalculator = new AgeCalculator(CLOCK);
+
+    @Spy
+    private UserMetrics userMetrics = new UserMetrics(new SimpleMeterRegistry());
+
+    @Spy
+    private UserJsonWriter userJsonWriter = new UserJsonWriter();
+
+    @Spy
+    private UserChangeFeed userChangeFeed = new UserChangeFeed(16);
+
     @InjectMocks
     private UserServiceImpl userService;
 
@@ -40,43 +83,59 @@ public class UserServiceImplTest {
         user.setLastName("Halpert");
         user.setBirthNumber("820101/1234");
 
-        when(userRepository.existsUserByBirthNumber(user.getBirthNumber())).thenReturn(false);
+        when(userRepository.addUser(user)).thenReturn(true);
 
-        userService.addUser(user);
+        assertEquals(UserOperationResult.ADDED, userService.addUser(user));
 
         verify(userRepository, times(1)).addUser(user);
     }
 
     @Test
-    public void addUser_ShouldThrowException_WhenBirthNumberExists() {
+    public void addUser_ShouldStoreCanonicalBirthNumber_WhenSeparatorIsMissing() {
+        User user = new User();
+        user.setFirstName("Jim");
+        user.setLastName("Halpert");
+        user.setBirthNumber("8201011234");
+
+        when(userRepository.addUser(user)).thenReturn(true);
+
+        userService.addUser(user);
+
+        assertEquals("820101/1234", user.getBirthNumber());
+        assertEquals(19820101, user.getDateOfBirth());
+    }
+
+    @Test
+    public void addUser_ShouldReturnAlreadyExists_WhenBirthNumberExists() {
         User user = new User();
         user.setFirstName("Pam");
         user.setLastName("Beesly");
         user.setBirthNumber("830202/2345");
 
-        when(userRepository.existsUserByBirthNumber(user.getBirthNumber())).thenReturn(true);
+        when(userRepository.addUser(user)).thenReturn(false);
 
-        assertThrows(UserExistsException.class, () -> userService.addUser(user));
+        assertEquals(UserOperationResult.ALREADY_EXISTS, userService.addUser(user));
     }
 
     @Test
-    public void addUser_ShouldThrowException_WhenBirthNumberIsInvalid() {
+    public void addUser_ShouldReturnInvalidBirthNumber_WhenBirthNumberIsInvalid() {
         User user = new User();
         user.setFirstName("Michael");
         user.setLastName("Scott");
         user.setBirthNumber("invalidBirthNumber");
 
-        assertThrows(IncorrectBirthNumberFormatException.class, () -> userService.addUser(user));
+        assertEquals(UserOperationResult.INVALID_BIRTH_NUMBER, userService.addUser(user));
+        verify(userRepository, never()).addUser(any());
     }
 
     @Test
-    public void addUser_ShouldThrowException_WhenFieldsAreEmpty() {
+    public void addUser_ShouldReturnMissingData_WhenFieldsAreEmpty() {
         User user = new User();
         user.setFirstName("");
         user.setLastName("");
         user.setBirthNumber("820101/1234");
 
-        assertThrows(MissingDataException.class, () -> userService.addUser(user));
+        assertEquals(UserOperationResult.MISSING_DATA, userService.addUser(user));
     }
 
     @Test
@@ -84,23 +143,44 @@ public class UserServiceImplTest {
         String userId = "1";
         when(userRepository.existsUserById(1)).thenReturn(true);
 
-        userService.removeUser(userId);
+        assertEquals(UserOperationResult.REMOVED, userService.removeUser(userId));
 
         verify(userRepository, times(1)).removeUser(1);
     }
 
     @Test
-    public void removeUser_ShouldThrowException_WhenUserDoesNotExist() {
+    public void removeUser_ShouldReturnNotFound_WhenUserDoesNotExist() {
         String userId = "2";
         when(userRepository.existsUserById(2)).thenReturn(false);
 
-        assertThrows(UserDoesNotExistsException.class, () -> userService.removeUser(userId));
+        assertEquals(UserOperationResult.NOT_FOUND, userService.removeUser(userId));
+        verify(userRepository, never()).removeUser(anyInt());
     }
 
     @Test
-    public void removeUser_ShouldThrowException_WhenUserIdIsInvalid() {
+    public void removeUser_ShouldReturnInvalidUserId_WhenUserIdIsInvalid() {
         String userId = "invalid";
-        assertThrows(IllegalArgumentException.class, () -> userService.removeUser(userId));
+        assertEquals(UserOperationResult.INVALID_USER_ID, userService.removeUser(userId));
+    }
+
+    @Test
+    public void removeUser_ShouldReturnNotFound_WhenUserIdIsNegative() {
+        assertEquals(UserOperationResult.NOT_FOUND, userService.removeUser("-1"));
+        verify(userRepository, never()).removeUser(anyInt());
+    }
+
+    @Test
+    public void parseUserId_ShouldAcceptWhatParseIntAccepts() {
+        assertEquals(0, UserServiceImpl.parseUserId("0"));
+        assertEquals(5, UserServiceImpl.parseUserId("+5"));
+        assertEquals(-1, UserServiceImpl.parseUserId("-1"));
+        assertEquals(Integer.MAX_VALUE, UserServiceImpl.parseUserId("2147483647"));
+        assertEquals(Integer.MIN_VALUE, UserServiceImpl.parseUserId("-2147483648"));
+        assertEquals(UserServiceImpl.NOT_A_USER_ID, UserServiceImpl.parseUserId("2147483648"));
+        assertEquals(UserServiceImpl.NOT_A_USER_ID, UserServiceImpl.parseUserId("99999999999"));
+        assertEquals(UserServiceImpl.NOT_A_USER_ID, UserServiceImpl.parseUserId("1a"));
+        assertEquals(UserServiceImpl.NOT_A_USER_ID, UserServiceImpl.parseUserId("-"));
+        assertEquals(UserServiceImpl.NOT_A_USER_ID, UserServiceImpl.parseUserId(""));
     }
 
     @Test
@@ -112,23 +192,60 @@ public class UserServiceImplTest {
         user.setBirthNumber("840303/3456");
 
         users.put(1, user);
-        when(userRepository.getAllUsers()).thenReturn(users);
+        when(userRepository.snapshot()).thenReturn(UserSnapshot.of(1, users));
 
         List<UserDTO> result = userService.getAllUsers();
 
         assertEquals(1, result.size());
         assertEquals("Dwight", result.getFirst().getFirstName());
+        assertEquals(40, result.getFirst().getAge());
     }
 
     @Test
     public void getAllUsers_ShouldReturnEmptyList_WhenNoUsersExist() {
-        when(userRepository.getAllUsers()).thenReturn(new HashMap<>());
+        when(userRepository.snapshot()).thenReturn(UserSnapshot.of(1, new HashMap<>()));
 
         List<UserDTO> result = userService.getAllUsers();
 
         assertTrue(result.isEmpty());
     }
 
+    @Test
+    public void getAllUsersJson_ShouldMatchDtoSerialization() throws Exception {
+        User dwight = new User();
+        dwight.setFirstName("Dwight \"Kurt\"");
+        dwight.setLastName("Schrute");
+        dwight.setBirthNumber("840303/3456");
+        User angela = new User();
+        angela.setFirstName("Angela");
+        angela.setLastName("Martinová");
+        angela.setBirthNumber("7106256789");
+
+        NavigableMap<Integer, User> users = new TreeMap<>(Map.of(1, dwight, 2, angela));
+        userJsonWriter.userAdded(1, dwight);
+        when(userRepository.snapshot()).thenReturn(UserSnapshot.of(1, users));
+
+        byte[] result = userService.getAllUsersJson();
+
+        assertEquals(new ObjectMapper().writeValueAsString(userService.getAllUsers()), new String(result, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void writeAllUsersJsonLines_ShouldWriteOneUserPerLine() throws Exception {
+        User user = new User();
+        user.setFirstName("Dwight");
+        user.setLastName("Schrute");
+        user.setBirthNumber("840303/3456");
+        when(userRepository.snapshot()).thenReturn(UserSnapshot.of(1, Map.of(1, user, 5, user)));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        userService.writeAllUsersJsonLines(outputStream);
+
+        assertEquals("{\"id\":1,\"birthNumber\":\"840303/3456\",\"firstName\":\"Dwight\",\"lastName\":\"Schrute\",\"age\":40}\n"
+                        + "{\"id\":5,\"birthNumber\":\"840303/3456\",\"firstName\":\"Dwight\",\"lastName\":\"Schrute\",\"age\":40}\n",
+                outputStream.toString(StandardCharsets.UTF_8));
+    }
+
     @Test
     public void findUsers_ShouldReturnMatchingUsers() {
         Map<Integer, User> users = new HashMap<>();
@@ -145,18 +262,150 @@ public class UserServiceImplTest {
         users.put(1, user1);
         users.put(2, user2);
 
-        when(userRepository.getAllUsers()).thenReturn(users);
+        when(userRepository.findUserIdsByFirstName("Jim")).thenReturn(Set.of(1));
+        when(userRepository.findUserIdsByLastName("Halpert")).thenReturn(Set.of(1));
+        when(userRepository.findUserById(1)).thenReturn(Optional.of(user1));
 
         List<UserDTO> result = userService.findUsers("Jim", "Halpert", null);
 
         assertEquals(1, result.size());
         assertEquals("Jim", result.getFirst().getFirstName());
+        verify(userRepository, never()).snapshot();
+    }
+
+    @Test
+    public void searchUsers_ShouldUsePrefixIndex_WhenTermEndsWithWildcard() {
+        User user = new User();
+        user.setFirstName("Jan");
+        user.setLastName("Novák");
+        user.setBirthNumber("820101/1234");
+
+        when(userRepository.findUserIdsByLastNamePrefix("Nov")).thenReturn(Set.of(1, 2));
+        when(userRepository.findUserIdsByFoldedFirstName("jan")).thenReturn(Set.of(1));
+        when(userRepository.findUserById(1)).thenReturn(Optional.of(user));
+
+        List<UserDTO> result = userService.searchUsers(criteria("jan", "Nov*"));
+
+        assertEquals(List.of("Novák"), result.stream().map(UserDTO::getLastName).toList());
+        verify(userRepository, never()).findUserIdsByFoldedLastName(any());
+        verify(userRepository, never()).snapshot();
+    }
+
+    @Test
+    public void searchUsers_ShouldThrowIllegalArgument_WhenTermIsMissingOrEmpty() {
+        assertThrows(IllegalArgumentException.class, () -> userService.searchUsers(criteria(null, null)));
+        assertThrows(IllegalArgumentException.class, () -> userService.searchUsers(criteria("*", null)));
+        assertThrows(IllegalArgumentException.class, () -> userService.searchUsers(criteria("Jan", " ")));
+    }
+
+    @Test
+    public void searchUsers_ShouldThrowIllegalArgument_WhenAgeIsTooHigh() {
+        UserSearchCriteria minAge = criteria(null, null);
+        minAge.setMinAge(250_000);
+        UserSearchCriteria maxAge = criteria(null, null);
+        maxAge.setMaxAge(UserServiceImpl.MAX_AGE + 1);
+
+        assertThrows(IllegalArgumentException.class, () -> userService.searchUsers(minAge));
+        assertThrows(IllegalArgumentException.class, () -> userService.searchUsers(maxAge));
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    public void searchUsers_ShouldThrowIllegalArgument_WhenRangeIsInverted() {
+        UserSearchCriteria ages = criteria(null, null);
+        ages.setMinAge(30);
+        ages.setMaxAge(20);
+        UserSearchCriteria dates = criteria(null, null);
+        dates.setBornFrom(LocalDate.of(1990, 3, 31));
+        dates.setBornTo(LocalDate.of(1990, 3, 1));
+
+        assertThrows(IllegalArgumentException.class, () -> userService.searchUsers(ages));
+        assertThrows(IllegalArgumentException.class, () -> userService.searchUsers(dates));
+    }
+
+    @Test
+    public void searchUsers_ShouldScanStore_WhenWideDateOfBirthRangeCoversLargeRepository() {
+        User user = new User();
+        user.setFirstName("Jim");
+        user.setLastName("Halpert");
+        user.setBirthNumber("000615/1234");
+        user.setDateOfBirth(20000615);
+
+        when(userRepository.getUserCount()).thenReturn(1_000_000);
+        when(userRepository.estimateDateOfBirthRangeShare(anyInt(), eq(20060615))).thenReturn(0.8);
+        when(userRepository.scanUsersByDateOfBirth(anyInt(), eq(20060615))).thenReturn(Map.of(1, user));
+
+        UserSearchCriteria criteria = criteria(null, null);
+        criteria.setMinAge(18);
+        List<UserDTO> result = userService.searchUsers(criteria);
+
+        assertEquals(List.of(24), result.stream().map(UserDTO::getAge).toList());
+        verify(userRepository, never()).findUserIdsByDateOfBirth(anyInt(), anyInt());
+    }
+
+    @Test
+    public void searchUsers_ShouldUseDateOfBirthIndex_WhenOnlyAgeIsGiven() {
+        User user = new User();
+        user.setFirstName("Jim");
+        user.setLastName("Halpert");
+        user.setBirthNumber("000615/1234");
+        user.setDateOfBirth(20000615);
+
+        when(userRepository.findUserIdsByDateOfBirth(19970616, 20060615)).thenReturn(Set.of(1));
+        when(userRepository.findUserById(1)).thenReturn(Optional.of(user));
+
+        UserSearchCriteria criteria = criteria(null, null);
+        criteria.setMinAge(18);
+        criteria.setMaxAge(26);
+        List<UserDTO> result = userService.searchUsers(criteria);
+
+        assertEquals(List.of(24), result.stream().map(UserDTO::getAge).toList());
+    }
+
+    @Test
+    public void searchUsers_ShouldFilterNameMatchesByBirthDate_WhenBothAreGiven() {
+        User bornInMarch = new User();
+        bornInMarch.setFirstName("Jan");
+        bornInMarch.setLastName("Novák");
+        bornInMarch.setBirthNumber("900315/1234");
+        bornInMarch.setDateOfBirth(19900315);
+        User bornInApril = new User();
+        bornInApril.setFirstName("Jan");
+        bornInApril.setLastName("Novák");
+        bornInApril.setBirthNumber("900401/1234");
+        bornInApril.setDateOfBirth(19900401);
+
+        when(userRepository.findUserIdsByFoldedLastName("novak")).thenReturn(Set.of(1, 2));
+        when(userRepository.findUserById(1)).thenReturn(Optional.of(bornInMarch));
+        when(userRepository.findUserById(2)).thenReturn(Optional.of(bornInApril));
+
+        UserSearchCriteria criteria = criteria(null, "novak");
+        criteria.setBornFrom(LocalDate.of(1990, 3, 1));
+        criteria.setBornTo(LocalDate.of(1990, 3, 31));
+        List<UserDTO> result = userService.searchUsers(criteria);
+
+        assertEquals(List.of("900315/1234"), result.stream().map(UserDTO::getBirthNumber).toList());
+        verify(userRepository, never()).findUserIdsByDateOfBirth(anyInt(), anyInt());
+    }
+
+    private static UserSearchCriteria criteria(String firstName, String lastName) {
+        UserSearchCriteria criteria = new UserSearchCriteria();
+        criteria.setFirstName(firstName);
+        criteria.setLastName(lastName);
+        return criteria;
+    }
+
+    @Test
+    public void getDataVersion_ShouldCombineRepositoryVersionAndToday() {
+        when(userRepository.getVersion()).thenReturn(7L);
+
+        assertEquals("7-2024-06-15", userService.getDataVersion());
     }
 
     @Test
     public void findUsers_ShouldReturnEmptyList_WhenNoUsersMatch() {
-        Map<Integer, User> users = new HashMap<>();
-        when(userRepository.getAllUsers()).thenReturn(users);
+        when(userRepository.findUserIdsByFirstName("Stanley")).thenReturn(Set.of());
+        when(userRepository.findUserIdsByLastName("Hudson")).thenReturn(Set.of());
 
         List<UserDTO> result = userService.findUsers("Stanley", "Hudson", null);
 
@@ -179,11 +428,249 @@ public class UserServiceImplTest {
         users.put(1, user1);
         users.put(2, user2);
 
-        when(userRepository.getAllUsers()).thenReturn(users);
+        when(userRepository.snapshot()).thenReturn(UserSnapshot.of(1, users));
 
         List<UserDTO> result = userService.findUsers(null, null, null);
 
         assertEquals(2, result.size());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void findUsers_ShouldUseBirthNumberIndex_WhenBirthNumberIsProvided() {
+        User user = new User();
+        user.setFirstName("Jim");
+        user.setLastName("Halpert");
+        user.setBirthNumber("820101/1234");
+
+        when(userRepository.findUserIdByBirthNumber("8201011234")).thenReturn(Optional.of(1));
+        when(userRepository.findUserIdsByFirstName("Jim")).thenReturn(Set.of(1, 2, 3));
+        when(userRepository.findUserById(1)).thenReturn(Optional.of(user));
+
+        List<UserDTO> result = userService.findUsers("Jim", null, "8201011234");
+
+        assertEquals(1, result.size());
+        assertEquals(1, result.getFirst().getId());
+        verify(userRepository, never()).snapshot();
+    }
+
+    @Test
+    public void findUsers_ShouldReturnEmptyList_WhenBirthNumberMatchesButNameDoesNot() {
+        User user = new User();
+        user.setFirstName("Jim");
+        user.setLastName("Halpert");
+        user.setBirthNumber("820101/1234");
+
+        when(userRepository.findUserIdByBirthNumber("820101/1234")).thenReturn(Optional.of(1));
+        when(userRepository.findUserIdsByFirstName("Pam")).thenReturn(Set.of(2));
+        when(userRepository.findUserById(1)).thenReturn(Optional.of(user));
+
+        List<UserDTO> result = userService.findUsers("Pam", null, "820101/1234");
+
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void findUsers_ShouldIntersectIndexes_StartingFromTheSmallest() {
+        User user = new User();
+        user.setFirstName("Jim");
+        user.setLastName("Halpert");
+        user.setBirthNumber("820101/1234");
+
+        when(userRepository.findUserIdsByFirstName("Jim")).thenReturn(Set.of(1, 2, 3, 4));
+        when(userRepository.findUserIdsByLastName("Halpert")).thenReturn(Set.of(3, 5));
+        when(userRepository.findUserById(3)).thenReturn(Optional.of(user));
+
+        List<UserDTO> result = userService.findUsers("Jim", "Halpert", null);
+
+        assertEquals(1, result.size());
+        assertEquals(3, result.getFirst().getId());
+        verify(userRepository, times(1)).findUserById(anyInt());
+    }
+
+    @Test
+    public void getUsersPage_ShouldReturnNextCursor_WhenMoreUsersExist() {
+        NavigableMap<Integer, User> users = new TreeMap<>();
+        for (int userId = 0; userId < 3; userId++) {
+            User user = new User();
+            user.setFirstName("Creed");
+            user.setLastName("Bratton");
+            user.setBirthNumber("440101/000" + userId);
+            users.put(userId, user);
+        }
+        UserSnapshot snapshot = UserSnapshot.of(7, users);
+        when(userRepository.snapshot()).thenReturn(snapshot);
+        when(userRepository.findSnapshot(7)).thenReturn(Optional.of(snapshot));
+
+        UserPageDTO firstPage = userService.getUsersPage(null, 2);
+
+        assertEquals(List.of(0, 1), firstPage.getUsers().stream().map(UserDTO::getId).toList());
+        assertNotNull(firstPage.getNextCursor());
+        assertEquals(7, firstPage.getVersion());
+
+        when(userRepository.snapshot()).thenReturn(UserSnapshot.of(8, Map.of()));
+        UserPageDTO secondPage = userService.getUsersPage(firstPage.getNextCursor(), 2);
+
+        assertEquals(List.of(2), secondPage.getUsers().stream().map(UserDTO::getId).toList());
+        assertNull(secondPage.getNextCursor());
+        assertEquals(7, secondPage.getVersion());
+        verify(userRepository, times(1)).retainSnapshot(snapshot);
+    }
+
+    @Test
+    public void getUsersPage_ShouldThrowException_WhenSnapshotIsNoLongerKept() {
+        Map<Integer, User> users = Map.of(
+                1, createUser("Creed", "Bratton", "440101/0001"),
+                2, createUser("Creed", "Bratton", "440101/0002"));
+        when(userRepository.snapshot()).thenReturn(UserSnapshot.of(7, users));
+        when(userRepository.findSnapshot(7)).thenReturn(Optional.empty());
+
+        String cursor = userService.getUsersPage(null, 1).getNextCursor();
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> userService.getUsersPage(cursor, 1));
+        assertEquals("The cursor has expired.", exception.getMessage());
+    }
+
+    @Test
+    public void getChanges_ShouldReturnChangesWithAges_AfterSequence() {
+        User dwight = createUser("Dwight", "Schrute", "840303/3456");
+        User jim = createUser("Jim", "Halpert", "820101/1234");
+        userChangeFeed.userAdded(1, dwight);
+        userChangeFeed.userAdded(2, jim);
+        userChangeFeed.userRemoved(1, dwight);
+
+        UserChangesDTO changes = userService.getChanges(1, 10);
+
+        assertFalse(changes.isReset());
+        assertEquals(3, changes.getLastSequence());
+        assertEquals(List.of(UserChangeType.ADDED, UserChangeType.REMOVED),
+                changes.getChanges().stream().map(UserChangeDTO::getType).toList());
+        assertEquals(new UserDTO(1, "840303/3456", "Dwight", "Schrute", 40), changes.getChanges().get(1).getUser());
+        assertThrows(IllegalArgumentException.class, () -> userService.getChanges(1, 0));
+    }
+
+    @Test
+    public void getUsersPage_ShouldThrowException_WhenCursorIsInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> userService.getUsersPage("not-a-cursor", 10));
+    }
+
+    @Test
+    public void getUsersPage_ShouldThrowException_WhenLimitIsNotPositive() {
+        assertThrows(IllegalArgumentException.class, () -> userService.getUsersPage(null, 0));
+    }
+
+    @Test
+    public void addUsers_ShouldReportResultPerRecord() {
+        User jim = createUser("Jim", "Halpert", "8201011234");
+        User pam = createUser("Pam", "Beesly", "830202/2345");
+        User jimAgain = createUser("Jim", "Halpert", "820101/1234");
+        User michael = createUser("Michael", "Scott", "invalidBirthNumber");
+        User nobody = createUser("", "", "840303/3456");
+
+        when(userRepository.addUsers(List.of(jim, pam))).thenReturn(new int[]{7, UserRepository.NO_ID});
+
+        BulkImportResultDTO result = userService.addUsers(List.of(jim, pam, jimAgain, michael, nobody).iterator());
+
+        assertEquals(5, result.getTotal());
+        assertEquals(1, result.getAdded());
+        assertEquals(4, result.getRejected());
+        assertEquals(List.of(BulkImportStatus.ADDED, BulkImportStatus.ALREADY_EXISTS, BulkImportStatus.DUPLICATE_IN_BATCH,
+                        BulkImportStatus.INVALID_BIRTH_NUMBER, BulkImportStatus.MISSING_DATA),
+                result.getRecords().stream().map(BulkImportRecordDTO::getStatus).toList());
+        assertEquals(7, result.getRecords().getFirst().getId());
+        assertEquals("820101/1234", jim.getBirthNumber());
+        assertEquals(19820101, jim.getDateOfBirth());
+    }
+
+    @Test
+    public void addUsers_ShouldInsertInBatches() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            users.add(createUser("Creed", "Bratton", String.format("440101/%04d", i)));
+        }
+        when(userRepository.addUsers(anyList()))
+                .thenAnswer(invocation -> new int[invocation.<List<User>>getArgument(0).size()]);
+
+        BulkImportResultDTO result = userService.addUsers(users.iterator());
+
+        assertEquals(2500, result.getAdded());
+        assertEquals(2499, result.getRecords().getLast().getIndex());
+        verify(userRepository, times(3)).addUsers(anyList());
+    }
+
+    @Test
+    public void addUsers_ShouldMarkDuplicates_WhenTheyAreInDifferentBatches() {
+        List<User> users = new ArrayList<>();
+        users.add(createUser("Creed", "Bratton", "440101/0000"));
+        for (int i = 1; i < 1000; i++) {
+            users.add(createUser("Creed", "Bratton", "invalidBirthNumber"));
+        }
+        users.add(createUser("Creed", "Bratton", "4401010000"));
+        when(userRepository.addUsers(anyList()))
+                .thenAnswer(invocation -> new int[invocation.<List<User>>getArgument(0).size()]);
+
+        BulkImportResultDTO result = userService.addUsers(users.iterator());
+
+        assertEquals(BulkImportStatus.DUPLICATE_IN_BATCH, result.getRecords().getLast().getStatus());
+        verify(userRepository, times(1)).addUsers(anyList());
+    }
+
+    @Test
+    public void addUsers_ShouldStopReading_WhenImportPassesSizeLimit() {
+        int[] readUsers = new int[1];
+        Iterator<User> endlessUsers = Stream.generate(() -> {
+            readUsers[0]++;
+            return new User();
+        }).iterator();
+
+        BulkImportResultDTO result = userService.addUsers(endlessUsers);
+
+        // Finding out whether there is a record past the limit reads it, but nothing after it.
+        assertEquals(UserServiceImpl.MAX_BULK_SIZE + 1, readUsers[0]);
+        assertEquals(UserServiceImpl.MAX_BULK_SIZE + 1, result.getTotal());
+        assertEquals(UserServiceImpl.MAX_BULK_SIZE + 1, result.getRejected());
+        assertEquals(new BulkImportRecordDTO(UserServiceImpl.MAX_BULK_SIZE, BulkImportStatus.LIMIT_EXCEEDED, null),
+                result.getRecords().getLast());
+        verify(userRepository, never()).addUsers(anyList());
+    }
+
+    @Test
+    public void addUsers_ShouldReportRecordsReadBefore_WhenRecordCannotBeRead() {
+        User jim = createUser("Jim", "Halpert", "820101/1234");
+        User pam = createUser("Pam", "Beesly", "830202/2345");
+        Iterator<User> users = List.of(jim, pam).iterator();
+        Iterator<User> brokenUsers = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public User next() {
+                if (users.hasNext()) {
+                    return users.next();
+                }
+                throw new UncheckedIOException(new IOException("Unexpected end of input"));
+            }
+        };
+        when(userRepository.addUsers(List.of(jim, pam))).thenReturn(new int[]{7, 8});
+
+        BulkImportResultDTO result = userService.addUsers(brokenUsers);
+
+        assertEquals(3, result.getTotal());
+        assertEquals(2, result.getAdded());
+        assertEquals(List.of(new BulkImportRecordDTO(0, BulkImportStatus.ADDED, 7),
+                        new BulkImportRecordDTO(1, BulkImportStatus.ADDED, 8),
+                        new BulkImportRecordDTO(2, BulkImportStatus.MALFORMED, null)),
+                result.getRecords());
+    }
+
+    private static User createUser(String firstName, String lastName, String birthNumber) {
+        User user = new User();
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        user.setBirthNumber(birthNumber);
+        return user;
+    }
+
+}